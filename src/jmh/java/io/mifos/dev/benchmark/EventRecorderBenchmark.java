@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.benchmark;
+
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.metrics.EventLag;
+import io.mifos.dev.metrics.ListenerMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording events and waiting for already recorded ones, with the retention bounds the demo server runs with.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventRecorderBenchmark {
+
+  private static final String OPERATION = "POST_CUSTOMER";
+  private static final int IDENTIFIERS = 1024;
+
+  private final String[] payloads = new String[IDENTIFIERS];
+  private final String[] identifiers = new String[IDENTIFIERS];
+  private EventLag eventLag;
+  private TenantEventRecorder eventRecorder;
+  private int next;
+
+  public EventRecorderBenchmark() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    this.eventLag = new EventLag(NOPLogger.NOP_LOGGER);
+    final ListenerMetrics listenerMetrics = new ListenerMetrics(NOPLogger.NOP_LOGGER, this.eventLag);
+    this.eventRecorder = new TenantEventRecorder(NOPLogger.NOP_LOGGER, listenerMetrics, 1000L, 0L, 100000, 67108864L, 3600000L, "", 268435456L);
+    for (int i = 0; i < IDENTIFIERS; i++) {
+      this.identifiers[i] = "customer-" + i;
+      this.payloads[i] = "\"customer-" + i + "\"";
+      this.eventRecorder.event("benchmark", OPERATION, this.payloads[i], String.class);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    this.eventRecorder.close();
+    this.eventLag.shutdown();
+  }
+
+  @Benchmark
+  public void event() {
+    this.eventRecorder.event("benchmark", OPERATION, this.payloads[this.next++ & (IDENTIFIERS - 1)], String.class);
+  }
+
+  @Benchmark
+  public boolean eventAndWait() throws InterruptedException {
+    final int index = this.next++ & (IDENTIFIERS - 1);
+    this.eventRecorder.event("benchmark", OPERATION, this.payloads[index], String.class);
+    return this.eventRecorder.wait(OPERATION, this.identifiers[index]);
+  }
+}
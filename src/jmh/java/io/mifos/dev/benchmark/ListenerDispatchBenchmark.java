@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.benchmark;
+
+import io.mifos.accounting.api.v1.EventConstants;
+import io.mifos.customer.api.v1.CustomerEventConstants;
+import io.mifos.dev.cache.EntityCache;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.listener.AccountingListener;
+import io.mifos.dev.listener.CustomerListener;
+import io.mifos.dev.listener.IdentityListener;
+import io.mifos.dev.metrics.EventLag;
+import io.mifos.dev.metrics.ListenerMetrics;
+import io.mifos.dev.sync.EntityUpdateCoalescer;
+import io.mifos.dev.sync.SyncBatcher;
+import io.mifos.dev.sync.SyncOutbox;
+import io.mifos.dev.sync.SyncUserSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.helpers.NOPLogger;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listener dispatch end to end, from the onEvent of a listener through recording, fetching the entity and handing the
+ * sync call to the outbox, against the in-process {@link StandInServices}. Logging is switched off so that it does
+ * not dominate the measurements.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListenerDispatchBenchmark {
+
+  private static final String TENANT = "benchmark";
+  private static final int IDENTIFIERS = 1024;
+
+  @Param({"0", "10000"})
+  public int cacheEntries;
+
+  private final String[] payloads = new String[IDENTIFIERS];
+  private final Map<String, Object> customerCreated = new HashMap<>();
+  private final Map<String, Object> userCreated = new HashMap<>();
+  private final Map<String, Object> journalEntryPosted = new HashMap<>();
+  private EventLag eventLag;
+  private TenantEventRecorder eventRecorder;
+  private SyncBatcher syncBatcher;
+  private EntityUpdateCoalescer entityUpdateCoalescer;
+  private CustomerListener customerListener;
+  private IdentityListener identityListener;
+  private AccountingListener accountingListener;
+  private int next;
+
+  public ListenerDispatchBenchmark() {
+    super();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    StandInServices.install();
+
+    final Logger logger = NOPLogger.NOP_LOGGER;
+    this.eventLag = new EventLag(logger);
+    final ListenerMetrics listenerMetrics = new ListenerMetrics(logger, this.eventLag);
+    this.eventRecorder = new TenantEventRecorder(logger, listenerMetrics, 1000L, 0L, 100000, 67108864L, 3600000L, "", 268435456L);
+    final EntityCache entityCache = new EntityCache(logger, listenerMetrics, this.cacheEntries);
+    final SyncUserSession syncUserSession = new SyncUserSession(logger, listenerMetrics, 30000L);
+    this.syncBatcher = new SyncBatcher(logger, listenerMetrics, syncUserSession, 50, 200L, 8, 8, 500L, 30000L);
+    this.syncBatcher.open();
+    final SyncOutbox syncOutbox = new SyncOutbox(logger, listenerMetrics, this.syncBatcher, "", 8388608, false);
+    this.entityUpdateCoalescer = new EntityUpdateCoalescer(logger, syncUserSession, entityCache, listenerMetrics, 0L, 1);
+
+    this.customerListener = inject(new CustomerListener(this.eventRecorder, entityCache, this.entityUpdateCoalescer,
+        listenerMetrics), logger);
+    this.identityListener = inject(new IdentityListener(this.eventRecorder, entityCache, syncUserSession, syncOutbox,
+        listenerMetrics), logger);
+    this.accountingListener = inject(new AccountingListener(this.eventRecorder, entityCache, syncUserSession,
+        this.entityUpdateCoalescer, listenerMetrics), logger);
+
+    StandInServices.addSelectorHeader(this.customerCreated, CustomerEventConstants.SELECTOR_POST_CUSTOMER);
+    StandInServices.addSelectorHeader(this.userCreated, io.mifos.identity.api.v1.events.EventConstants.SELECTOR_POST_USER);
+    StandInServices.addSelectorHeader(this.journalEntryPosted, EventConstants.SELECTOR_POST_JOURNAL_ENTRY);
+    for (int i = 0; i < IDENTIFIERS; i++) {
+      this.payloads[i] = "\"entity-" + i + "\"";
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    this.syncBatcher.shutdown();
+    this.entityUpdateCoalescer.shutdown();
+    this.eventRecorder.close();
+    this.eventLag.shutdown();
+  }
+
+  @Benchmark
+  public void customerCreated() throws Exception {
+    this.customerListener.onEvent(TENANT, this.customerCreated, this.nextPayload());
+  }
+
+  @Benchmark
+  public void userCreated() throws Exception {
+    this.identityListener.onEvent(TENANT, this.userCreated, this.nextPayload());
+  }
+
+  @Benchmark
+  public void journalEntryPosted() throws Exception {
+    this.accountingListener.onEvent(TENANT, this.journalEntryPosted, this.nextPayload());
+  }
+
+  private String nextPayload() {
+    return this.payloads[this.next++ & (IDENTIFIERS - 1)];
+  }
+
+  private static <T> T inject(final T listener, final Logger logger) throws ReflectiveOperationException {
+    final Field field = listener.getClass().getDeclaredField("logger");
+    field.setAccessible(true);
+    field.set(listener, logger);
+    return listener;
+  }
+}
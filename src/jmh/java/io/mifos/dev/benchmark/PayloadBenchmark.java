@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.mifos.dev.helper.PayloadDecoder;
+import io.mifos.dev.helper.StringHelper;
+import io.mifos.rhythm.api.v1.events.BeatEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of event payloads as the listeners do it: stripping the quotes around an identifier, both through
+ * {@link StringHelper#cleanString} and the inline replaceAll copies, and reading a beat event and the identifiers of a
+ * case event, each against the {@link PayloadDecoder}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+  private final Gson gson = new Gson();
+  private final String identifierPayload = "\"customer-000123\"";
+  private final String beatPayload = "{\"applicationIdentifier\":\"portfolio-v1\",\"beatIdentifier\":\"alignment0\","
+      + "\"forTime\":\"2017-06-12T22:30:04.000Z\"}";
+  private final String casePayload = "{\"productIdentifier\":\"loan-product\",\"caseIdentifier\":\"case-000123\"}";
+
+  public PayloadBenchmark() {
+    super();
+  }
+
+  @Benchmark
+  public String cleanString() {
+    return StringHelper.cleanString(this.identifierPayload);
+  }
+
+  @Benchmark
+  public String inlineReplaceAll() {
+    return this.identifierPayload.replaceAll("^\"|\"$", "");
+  }
+
+  @Benchmark
+  public String payloadDecoderIdentifier() {
+    return PayloadDecoder.identifier(this.identifierPayload);
+  }
+
+  @Benchmark
+  public String payloadDecoderString() {
+    return PayloadDecoder.string(this.identifierPayload);
+  }
+
+  @Benchmark
+  public String gsonString() {
+    return this.gson.fromJson(this.identifierPayload, String.class);
+  }
+
+  @Benchmark
+  public String jsonParserFields() {
+    final JsonObject jsonObj = new JsonParser().parse(this.casePayload).getAsJsonObject();
+    return jsonObj.get("productIdentifier").getAsString() + "/" + jsonObj.get("caseIdentifier").getAsString();
+  }
+
+  @Benchmark
+  public String payloadDecoderFields() {
+    return PayloadDecoder.field(this.casePayload, "productIdentifier") + "/" + PayloadDecoder.field(this.casePayload, "caseIdentifier");
+  }
+
+  @Benchmark
+  public String beatEventField() {
+    return PayloadDecoder.field(this.beatPayload, "beatIdentifier");
+  }
+
+  @Benchmark
+  public BeatEvent beatEvent() {
+    return this.gson.fromJson(this.beatPayload, BeatEvent.class);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.benchmark;
+
+import com.google.gson.Gson;
+import io.mifos.accounting.api.v1.client.LedgerManager;
+import io.mifos.core.api.util.ApiFactory;
+import io.mifos.core.test.servicestarter.IntegrationTestEnvironment;
+import io.mifos.core.test.servicestarter.Microservice;
+import io.mifos.customer.api.v1.client.CustomerManager;
+import io.mifos.dev.ServiceRunner;
+import io.mifos.identity.api.v1.client.IdentityManager;
+import io.mifos.identity.api.v1.domain.Authentication;
+import io.mifos.identity.api.v1.domain.UserWithPassword;
+import io.mifos.sync.api.v1.client.SyncManager;
+import org.slf4j.helpers.NOPLogger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-ins for the services the listeners call, installed in place of the started microservices of the
+ * {@link ServiceRunner}. Every find returns an entity carrying only the requested identifier, the identity service
+ * logs in anyone, and calls to the sync manager do nothing.
+ */
+final class StandInServices {
+
+  private static final Gson GSON = new Gson();
+  private static final Pattern SELECTOR = Pattern.compile("^\\s*([\\w.-]+)\\s*=\\s*'([^']*)'\\s*$");
+
+  private StandInServices() {
+    super();
+  }
+
+  static void install() throws ReflectiveOperationException {
+    final IntegrationTestEnvironment environment = new IntegrationTestEnvironment("benchmark");
+    final ApiFactory apiFactory = new StandInApiFactory();
+    install("identityManager", environment, apiFactory, IdentityManager.class, "identity");
+    install("customerManager", environment, apiFactory, CustomerManager.class, "customer");
+    install("ledgerManager", environment, apiFactory, LedgerManager.class, "accounting");
+    install("syncManager", environment, apiFactory, SyncManager.class, "sync");
+
+    final UserWithPassword syncUser = new UserWithPassword();
+    syncUser.setIdentifier("sync");
+    syncUser.setPassword("c3luYw==");
+    setStatic("syncUser", syncUser);
+  }
+
+  /**
+   * Adds the header a message matched by the selector carries, e.g. action=POST_CUSTOMER.
+   */
+  static void addSelectorHeader(final Map<String, Object> headers, final String selector) {
+    final Matcher matcher = SELECTOR.matcher(selector);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException(selector);
+    }
+    headers.put(matcher.group(1), matcher.group(2));
+  }
+
+  private static <T> void install(final String field,
+                                  final IntegrationTestEnvironment environment,
+                                  final ApiFactory apiFactory,
+                                  final Class<T> api,
+                                  final String artifact) throws ReflectiveOperationException {
+    final Microservice<T> microservice = new Microservice<>(api, artifact, "0.1.0-BUILD-SNAPSHOT", environment);
+    microservice.setApiFactory(apiFactory);
+    setStatic(field, microservice);
+  }
+
+  private static void setStatic(final String name, final Object value) throws ReflectiveOperationException {
+    final Field field = ServiceRunner.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(null, value);
+  }
+
+  private static class StandInApiFactory extends ApiFactory {
+
+    private StandInApiFactory() {
+      super(NOPLogger.NOP_LOGGER);
+    }
+
+    @Override
+    public <T> T create(final Class<T> clazz, final String target) {
+      return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz},
+          (proxy, method, args) -> answer(clazz, method, args)));
+    }
+
+    private static Object answer(final Class<?> api, final Method method, final Object[] args) {
+      switch (method.getName()) {
+        case "toString":
+          return "stand-in " + api.getSimpleName();
+        case "hashCode":
+          return System.identityHashCode(api);
+        case "equals":
+          return false;
+        case "login":
+          final String expiration = LocalDateTime.now(ZoneOffset.UTC).plusHours(1).toString();
+          return GSON.fromJson("{\"tokenType\":\"bearer\",\"accessToken\":\"stand-in\",\"accessTokenExpiration\":\""
+              + expiration + "\"}", Authentication.class);
+        default:
+          if (method.getReturnType() == void.class) {
+            return null;
+          }
+          final String identifier = args != null && args.length > 0 ? String.valueOf(args[args.length - 1]) : "";
+          return GSON.fromJson("{\"identifier\":\"" + identifier + "\"}", method.getGenericReturnType());
+      }
+    }
+  }
+}
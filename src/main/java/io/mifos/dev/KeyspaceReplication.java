@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import io.mifos.core.cassandra.util.CassandraConnectorConstants;
+import io.mifos.core.test.env.TestEnvironment;
+import io.mifos.provisioner.api.v1.domain.CassandraConnectionInfo;
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Replication of the keyspace of a tenant. Either a replication factor for the SimpleStrategy, or replication factors
+ * per datacenter, written as datacenter:factor,datacenter:factor, for the NetworkTopologyStrategy.
+ */
+final class KeyspaceReplication {
+
+  private static final String SIMPLE = "Simple";
+  private static final String NETWORK = "Network";
+  private static final String DEFAULT_PORT = "9042";
+
+  private final String replicationType;
+  private final String replicas;
+
+  private KeyspaceReplication(final String replicationType, final String replicas) {
+    super();
+    this.replicationType = replicationType;
+    this.replicas = replicas;
+  }
+
+  /**
+   * Parses a replication as configured, "3" for three replicas with the SimpleStrategy, "dc1:3,dc2:2" for replicas per
+   * datacenter.
+   */
+  static KeyspaceReplication parse(final String replication) {
+    final String trimmed = replication.replace(" ", "");
+    if (!trimmed.contains(":")) {
+      return new KeyspaceReplication(SIMPLE, Integer.toString(Integer.parseInt(trimmed)));
+    }
+    final Map<String, Integer> factors = new TreeMap<>();
+    for (final String datacenter : trimmed.split(",")) {
+      final int separator = datacenter.lastIndexOf(':');
+      factors.put(datacenter.substring(0, separator), Integer.parseInt(datacenter.substring(separator + 1)));
+    }
+    return network(factors);
+  }
+
+  /**
+   * Asks the cluster behind the contact points for its datacenters and their nodes, and replicates to as many nodes of
+   * each datacenter as there are, up to the given maximum. A cluster which cannot be reached gets the replication the
+   * demo server always used, three replicas with the SimpleStrategy.
+   */
+  static KeyspaceReplication discover(final TestEnvironment testEnvironment, final String contactPoints, final Logger logger,
+                                      final int maxReplicas) {
+    final Cluster.Builder builder = Cluster.builder().withoutJMXReporting();
+    for (final String contactPoint : contactPoints.split(",")) {
+      final String[] hostAndPort = contactPoint.trim().split(":");
+      builder.addContactPoint(hostAndPort[0])
+          .withPort(Integer.parseInt(hostAndPort.length > 1 ? hostAndPort[1] : DEFAULT_PORT));
+    }
+    final String user = testEnvironment.getProperty(CassandraConnectorConstants.CLUSTER_USER_PROP);
+    if (user != null && !user.isEmpty()) {
+      builder.withCredentials(user, testEnvironment.getProperty(CassandraConnectorConstants.CLUSTER_PASSWORD_PROP));
+    }
+
+    final Map<String, Integer> nodesPerDatacenter = new TreeMap<>();
+    try (final Cluster cluster = builder.build()) {
+      for (final Host host : cluster.getMetadata().getAllHosts()) {
+        nodesPerDatacenter.merge(host.getDatacenter(), 1, Integer::sum);
+      }
+    } catch (final RuntimeException ex) {
+      logger.warn("Could not read the topology of the Cassandra cluster at {}, replicating keyspaces three times: {}",
+          contactPoints, ex.getMessage());
+      return new KeyspaceReplication(SIMPLE, "3");
+    }
+    if (nodesPerDatacenter.isEmpty()) {
+      logger.warn("Cassandra cluster at {} reported no nodes, replicating keyspaces three times.", contactPoints);
+      return new KeyspaceReplication(SIMPLE, "3");
+    }
+
+    final Map<String, Integer> factors = new TreeMap<>();
+    nodesPerDatacenter.forEach((datacenter, nodes) -> factors.put(datacenter, Math.min(nodes, maxReplicas)));
+    final KeyspaceReplication replication = network(factors);
+    logger.info("Cassandra cluster at {} has nodes per datacenter {}, replicating keyspaces {}.",
+        contactPoints, nodesPerDatacenter, replication);
+    return replication;
+  }
+
+  void applyTo(final CassandraConnectionInfo cassandraConnectionInfo) {
+    cassandraConnectionInfo.setReplicationType(this.replicationType);
+    cassandraConnectionInfo.setReplicas(this.replicas);
+  }
+
+  @Override
+  public String toString() {
+    return this.replicationType + "(" + this.replicas + ")";
+  }
+
+  private static KeyspaceReplication network(final Map<String, Integer> factors) {
+    return new KeyspaceReplication(NETWORK, factors.entrySet().stream()
+        .map(factor -> factor.getKey() + ":" + Math.max(1, factor.getValue()))
+        .collect(Collectors.joining(",")));
+  }
+}
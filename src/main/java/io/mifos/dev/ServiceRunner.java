@@ -15,8 +15,6 @@
  */
 package io.mifos.dev;
 
-import ch.vorburger.mariadb4j.DB;
-import ch.vorburger.mariadb4j.DBConfigurationBuilder;
 import io.mifos.accounting.api.v1.client.LedgerManager;
 import io.mifos.accounting.importer.AccountImporter;
 import io.mifos.accounting.importer.LedgerImporter;
@@ -32,8 +30,7 @@ import io.mifos.core.cassandra.util.CassandraConnectorConstants;
 import io.mifos.core.lang.AutoTenantContext;
 import io.mifos.core.mariadb.util.MariaDBConstants;
 import io.mifos.core.test.env.ExtraProperties;
-import io.mifos.core.test.listener.EnableEventRecording;
-import io.mifos.core.test.listener.EventRecorder;
+import io.mifos.core.test.env.TestEnvironment;
 import io.mifos.core.test.servicestarter.ActiveMQForTest;
 import io.mifos.core.test.servicestarter.EurekaForTest;
 import io.mifos.core.test.servicestarter.IntegrationTestEnvironment;
@@ -41,6 +38,19 @@ import io.mifos.core.test.servicestarter.Microservice;
 import io.mifos.customer.api.v1.CustomerEventConstants;
 import io.mifos.customer.api.v1.client.CustomerManager;
 import io.mifos.deposit.api.v1.client.DepositAccountManager;
+import io.mifos.dev.event.EventWaitResult;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.load.LoadGenerator;
+import io.mifos.dev.placement.TenantPlacement;
+import io.mifos.dev.pool.PoolMonitor;
+import io.mifos.dev.pool.TenantConnections;
+import io.mifos.dev.seed.DataSeeder;
+import io.mifos.dev.startup.ServiceReadiness;
+import io.mifos.dev.startup.ServiceStartupGraph;
+import io.mifos.dev.storage.EmbeddedDataStores;
+import io.mifos.dev.storage.StorageProfile;
+import io.mifos.dev.sync.SyncBatcher;
+import io.mifos.dev.sync.SyncUserSession;
 import io.mifos.identity.api.v1.client.IdentityManager;
 import io.mifos.identity.api.v1.domain.*;
 import io.mifos.identity.api.v1.events.ApplicationPermissionEvent;
@@ -58,7 +68,6 @@ import io.mifos.rhythm.api.v1.events.BeatEvent;
 import io.mifos.sync.api.v1.PermittableGroupIds;
 import io.mifos.sync.api.v1.client.SyncManager;
 import io.mifos.teller.api.v1.client.TellerManager;
-import org.cassandraunit.utils.EmbeddedCassandraServerHelper;
 import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.junit.*;
 import org.junit.runner.RunWith;
@@ -75,13 +84,25 @@ import org.springframework.core.env.Environment;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.util.Base64Utils;
 
+import javax.management.JMException;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static io.mifos.accounting.api.v1.EventConstants.POST_ACCOUNT;
 import static io.mifos.accounting.api.v1.EventConstants.POST_LEDGER;
@@ -111,15 +132,25 @@ public class ServiceRunner {
   private static Microservice<SyncManager> syncManager;
 
 
-  private static DB embeddedMariaDb;
+  private static EmbeddedDataStores embeddedDataStores;
 
   private static final String CUSTOM_PROP_PREFIX = "custom.";
+  private static final String STARTUP_PARALLELISM_PROP = "demoserver.startup.parallelism";
+  private static final String READINESS_TIMEOUT_PROP = "demoserver.readiness.timeout";
+  private static final String PROVISION_PARALLELISM_PROP = "demoserver.provision.parallelism";
+  private static final String SNAPSHOT_PROP = "demoserver.snapshot";
+  private static final String RESTORE_PROP = "demoserver.restore";
+  private static final String STORAGE_PROP = "demoserver.storage";
+  private static final String STORAGE_TMPFS_PROP = "demoserver.storage.tmpfs";
+  private static final String CASSANDRA_REPLICATION_PROP = "demoserver.cassandra.replication";
+  private static final String CASSANDRA_MAX_REPLICAS_PROP = "demoserver.cassandra.maxReplicas";
 
   @Configuration
   @ActiveMQForTest.EnableActiveMQListen
   @EnableApiFactory
-  @EnableEventRecording(maxWait = 60_000)
-  @ComponentScan("io.mifos.dev.listener")
+  @ComponentScan({"io.mifos.dev.listener", "io.mifos.dev.event", "io.mifos.dev.sync", "io.mifos.dev.cache",
+      "io.mifos.dev.dispatch", "io.mifos.dev.metrics", "io.mifos.dev.load",
+      "io.mifos.dev.seed", "io.mifos.dev.pool", "io.mifos.dev.placement"})
   public static class TestConfiguration {
     public TestConfiguration() {
       super();
@@ -144,7 +175,28 @@ public class ServiceRunner {
   private ApiFactory apiFactory;
 
   @Autowired
-  private EventRecorder eventRecorder;
+  private TenantEventRecorder eventRecorder;
+
+  @Autowired
+  private SyncUserSession syncUserSession;
+
+  @Autowired
+  private SyncBatcher syncBatcher;
+
+  @Autowired
+  private LoadGenerator loadGenerator;
+
+  @Autowired
+  private DataSeeder dataSeeder;
+
+  @Autowired
+  private PoolMonitor poolMonitor;
+
+  @Autowired
+  private TenantConnections tenantConnections;
+
+  @Autowired
+  private TenantPlacement tenantPlacement;
 
   @Autowired
   private Environment environment;
@@ -158,8 +210,10 @@ public class ServiceRunner {
 
   private boolean isPersistent;
   private boolean shouldProvision;
+  private boolean shouldSnapshot;
   private List<Tenant> allTenants;
-  private static UserWithPassword syncUser;
+  private ServiceReadiness serviceReadiness;
+  private static volatile UserWithPassword syncUser;
 
   public ServiceRunner() {
     super();
@@ -172,73 +226,89 @@ public class ServiceRunner {
     this.shouldProvision = this.environment.containsProperty("demoserver.provision");
 
     if (!this.isPersistent) {
-      // start embedded Cassandra
-      EmbeddedCassandraServerHelper.startEmbeddedCassandra(TimeUnit.SECONDS.toMillis(30L));
-      // start embedded MariaDB
-      ServiceRunner.embeddedMariaDb = DB.newEmbeddedDB(
-          DBConfigurationBuilder.newBuilder()
-              .setPort(3306)
-              .build()
-      );
-      ServiceRunner.embeddedMariaDb.start();
+      ServiceRunner.embeddedDataStores = new EmbeddedDataStores(this.logger,
+          StorageProfile.forKey(this.environment.getProperty(ServiceRunner.STORAGE_PROP, StorageProfile.DURABLE.getKey())),
+          Paths.get(this.environment.getProperty(ServiceRunner.STORAGE_TMPFS_PROP, "/dev/shm")));
+      final String restoreFrom = this.environment.getProperty(ServiceRunner.RESTORE_PROP);
+      if (restoreFrom != null && EmbeddedDataStores.isSnapshot(Paths.get(restoreFrom))) {
+        ServiceRunner.embeddedDataStores.restore(Paths.get(restoreFrom));
+      } else {
+        if (restoreFrom != null) {
+          logger.warn("No snapshot found at '{}', starting with empty data stores.", restoreFrom);
+        }
+        ServiceRunner.embeddedDataStores.start();
+      }
     }
 
     ExtraProperties generalProperties = new ExtraProperties();
     generalProperties.setProperty("server.max-http-header-size", Integer.toString(16 * 1024));
-    generalProperties.setProperty("bonecp.partitionCount", "1");
-    generalProperties.setProperty("bonecp.maxConnectionsPerPartition", "4");
-    generalProperties.setProperty("bonecp.minConnectionsPerPartition", "1");
-    generalProperties.setProperty("bonecp.acquireIncrement", "1");
     this.setAdditionalProperties(generalProperties);
 
     ServiceRunner.provisionerService = new Microservice<>(Provisioner.class, "provisioner", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
     provisionerService.getProcessEnvironment().addSystemPrivateKeyToProperties();
     provisionerService.getProcessEnvironment().setProperty("system.initialclientid", ServiceRunner.CLIENT_ID);
-    startService(generalProperties, provisionerService);
 
     ServiceRunner.identityManager = new Microservice<>(IdentityManager.class, "identity", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT)
             .addProperties(new ExtraProperties() {{
               setProperty("identity.token.refresh.secureCookie", "false");}});
-    startService(generalProperties, identityManager);
 
     ServiceRunner.rhythmManager = new Microservice<>(RhythmManager.class, "rhythm", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT)
             .addProperties(new ExtraProperties() {{
               setProperty("rhythm.beatCheckRate", Long.toString(TimeUnit.MINUTES.toMillis(10)));
               setProperty("rhythm.user", SCHEDULER_USER_NAME);}});
-    startService(generalProperties, rhythmManager);
 
     ServiceRunner.organizationManager = new Microservice<>(OrganizationManager.class, "office", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, organizationManager);
 
     ServiceRunner.customerManager = new Microservice<>(CustomerManager.class, "customer", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, customerManager);
 
     ServiceRunner.ledgerManager = new Microservice<>(LedgerManager.class, "accounting", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, ledgerManager);
 
     ServiceRunner.portfolioManager = new Microservice<>(PortfolioManager.class, "portfolio", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT)
             .addProperties(new ExtraProperties() {{
               setProperty("portfolio.bookLateFeesAndInterestAsUser", SCHEDULER_USER_NAME);
             }});
-    startService(generalProperties, portfolioManager);
 
     ServiceRunner.depositAccountManager = new Microservice<>(DepositAccountManager.class, "deposit-account-management", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, depositAccountManager);
 
     ServiceRunner.tellerManager = new Microservice<>(TellerManager.class, "teller", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, ServiceRunner.tellerManager);
 
     ServiceRunner.reportManager = new Microservice<>(ReportManager.class, "reporting", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, ServiceRunner.reportManager);
 
     ServiceRunner.chequeManager = new Microservice<>(ChequeManager.class, "cheques", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, ServiceRunner.chequeManager);
 
     ServiceRunner.payrollManager = new Microservice<>(PayrollManager.class, "payroll", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, ServiceRunner.payrollManager);
 
     ServiceRunner.syncManager = new Microservice<>(SyncManager.class, "sync", "0.1.0-BUILD-SNAPSHOT", ServiceRunner.INTEGRATION_TEST_ENVIRONMENT);
-    startService(generalProperties, ServiceRunner.syncManager);
+
+    final ServiceStartupGraph startupGraph = new ServiceStartupGraph(this.logger)
+        .add(ServiceRunner.provisionerService)
+        .add(ServiceRunner.identityManager, ServiceRunner.provisionerService)
+        .add(ServiceRunner.rhythmManager, ServiceRunner.identityManager)
+        .add(ServiceRunner.organizationManager, ServiceRunner.rhythmManager)
+        .add(ServiceRunner.ledgerManager, ServiceRunner.rhythmManager)
+        .add(ServiceRunner.portfolioManager, ServiceRunner.organizationManager, ServiceRunner.ledgerManager)
+        .add(ServiceRunner.customerManager, ServiceRunner.portfolioManager)
+        .add(ServiceRunner.depositAccountManager, ServiceRunner.portfolioManager)
+        .add(ServiceRunner.tellerManager, ServiceRunner.portfolioManager)
+        .add(ServiceRunner.reportManager, ServiceRunner.portfolioManager)
+        .add(ServiceRunner.chequeManager, ServiceRunner.portfolioManager)
+        .add(ServiceRunner.payrollManager, ServiceRunner.portfolioManager)
+        .add(ServiceRunner.syncManager, ServiceRunner.portfolioManager);
+
+    final long readinessTimeout = this.environment.getProperty(ServiceRunner.READINESS_TIMEOUT_PROP, Long.class, TimeUnit.MINUTES.toMillis(2));
+    this.serviceReadiness = new ServiceReadiness(this.logger, readinessTimeout, 250L, TimeUnit.SECONDS.toMillis(5));
+    startupGraph.services().forEach(microservice -> {
+      final String deadlineProperty = ServiceRunner.READINESS_TIMEOUT_PROP + "." + microservice.name();
+      if (this.environment.containsProperty(deadlineProperty)) {
+        this.serviceReadiness.setDeadline(microservice.name(), this.environment.getProperty(deadlineProperty, Long.class));
+      }
+    });
+
+    final int startupParallelism = this.environment.getProperty(ServiceRunner.STARTUP_PARALLELISM_PROP, Integer.class,
+        Runtime.getRuntime().availableProcessors());
+    startupGraph.startAll(microservice -> startService(generalProperties, microservice), startupParallelism);
+    logger.info("Time to ready per service: {}", this.serviceReadiness.timeToReady());
+    this.syncBatcher.open();
   }
 
   @After
@@ -257,16 +327,19 @@ public class ServiceRunner {
     ServiceRunner.identityManager.kill();
 
     if (!isPersistent) {
-      ServiceRunner.embeddedMariaDb.stop();
-      EmbeddedCassandraServerHelper.cleanEmbeddedCassandra();
+      ServiceRunner.embeddedDataStores.stop(this.shouldSnapshot ? Paths.get(this.environment.getProperty(ServiceRunner.SNAPSHOT_PROP)) : null);
     }
   }
 
   @Test
   public void startDevServer() throws InterruptedException, IOException, ArtifactResolutionException {
     try {
-      if (this.shouldProvision) {
+      if (this.shouldProvision && !this.isRestored()) {
         this.provisionAppsViaSeshat();
+        if (this.dataSeeder.isEnabled()) {
+          this.dataSeeder.seed();
+        }
+        this.shouldSnapshot = !this.isPersistent && this.environment.containsProperty(ServiceRunner.SNAPSHOT_PROP);
       } else {
         this.migrateServices();
       }
@@ -287,6 +360,10 @@ public class ServiceRunner {
     System.out.println("Payroll Service: " + ServiceRunner.payrollManager.getProcessEnvironment().serverURI());
     System.out.println("Sync Service: " + ServiceRunner.syncManager.getProcessEnvironment().serverURI());
 
+    if (this.loadGenerator.isEnabled()) {
+      this.loadGenerator.run();
+    }
+
     boolean run = true;
 
     while (run) {
@@ -299,14 +376,36 @@ public class ServiceRunner {
     }
   }
 
-  private void startService(ExtraProperties properties, Microservice microservice) throws InterruptedException, IOException, ArtifactResolutionException {
+  private boolean isRestored() {
+    return ServiceRunner.embeddedDataStores != null && ServiceRunner.embeddedDataStores.isRestored();
+  }
+
+  private void startService(ExtraProperties properties, Microservice microservice) throws InterruptedException, IOException, ArtifactResolutionException, JMException {
+    final long startedAt = System.currentTimeMillis();
     microservice.addProperties(properties);
+    microservice.addProperties(this.poolMonitor.propertiesFor(microservice.name()));
     microservice.start();
     final boolean registered = microservice.waitTillRegistered(discoveryClient);
     logger.info("Service '{}' started and {} with Eureka.", microservice.name(), registered ? "registered" : "not registered");
     microservice.setApiFactory(this.apiFactory);
 
-    TimeUnit.SECONDS.sleep(20); //Give it some extra time before the next service...
+    Assert.assertTrue("Service '" + microservice.name() + "' did not become ready.",
+        this.serviceReadiness.awaitReady(microservice, startedAt));
+  }
+
+  /**
+   * Waits until the identity manager has taken the signature of the service for the tenant. The provisioner only
+   * hands the signature over once the service has initialized, and so migrated, the tenant. All services publish
+   * the same initialization event, which cannot tell them apart.
+   */
+  private void awaitMigrated(final String tenant, final String serviceName, final long since) {
+    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
+      Assert.assertTrue("Service '" + serviceName + "' did not finish migrating tenant '" + tenant + "'.",
+          this.eventRecorder.waitForMatch(EventConstants.OPERATION_PUT_APPLICATION_SIGNATURE,
+              (ApplicationSignatureEvent x) -> x.getApplicationIdentifier().equals(serviceName), since));
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   private void migrateServices() {
@@ -321,12 +420,9 @@ public class ServiceRunner {
           if (assignedApplication.getName().equals(ServiceRunner.identityManager.name())) {
             ServiceRunner.provisionerService.api().assignIdentityManager(tenant.getIdentifier(), assignedApplication);
           } else {
+            final long assignedAt = System.currentTimeMillis();
             ServiceRunner.provisionerService.api().assignApplications(tenant.getIdentifier(), Collections.singletonList(assignedApplication));
-            try {
-              Thread.sleep(5000L);
-            } catch (InterruptedException e) {
-              //do nothing
-            }
+            this.awaitMigrated(tenant.getIdentifier(), assignedApplication.getName(), assignedAt);
           }
         });
       });
@@ -352,38 +448,108 @@ public class ServiceRunner {
             ApplicationBuilder.create(ServiceRunner.syncManager.name(), ServiceRunner.syncManager.uri())
     );
 
+    final Map<String, KeyspaceReplication> replicationByCluster = new HashMap<>();
+    final KeyspaceReplication replication = this.clusterReplication(replicationByCluster,
+        ServiceRunner.provisionerService.getProcessEnvironment().getProperty(CassandraConnectorConstants.CONTACT_POINTS_PROP));
     final List<Tenant> tenantsToCreate = Arrays.asList(
-        TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "playground", "A place to mess around and have fun", "playground"),
-        TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "demo-cccu", "Demo for CCCU", "demo_cccu")
-        //TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "skcukns", "St Kitts Cooperative Credit Union", "skcukns")
-        //TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "PCCUKNS1", "Police Cooperative Credit Union", "PCCUKNS1"),
-        //TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "FCCUKNS1", "FND Cooperative Credit Union", "FCCUKNS1"),
-        //TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "NCCUKNN1", "Nevis Cooperative Credit Union", "NCCUKNN1")
+        TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "playground", "A place to mess around and have fun", "playground", this.replicationFor("playground", replication)),
+        TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "demo-cccu", "Demo for CCCU", "demo_cccu", this.replicationFor("demo-cccu", replication))
+        //TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "skcukns", "St Kitts Cooperative Credit Union", "skcukns", this.replicationFor("skcukns", replication))
+        //TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "PCCUKNS1", "Police Cooperative Credit Union", "PCCUKNS1", this.replicationFor("PCCUKNS1", replication)),
+        //TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "FCCUKNS1", "FND Cooperative Credit Union", "FCCUKNS1", this.replicationFor("FCCUKNS1", replication)),
+        //TenantBuilder.create(ServiceRunner.provisionerService.getProcessEnvironment(), "NCCUKNN1", "Nevis Cooperative Credit Union", "NCCUKNN1", this.replicationFor("NCCUKNN1", replication))
     );
+    this.placeTenants(tenantsToCreate, replicationByCluster);
+    this.prepareTenantConnections(tenantsToCreate);
 
     try (final AutoSeshat ignored = new AutoSeshat(authenticationResponse.getToken())) {
       applicationsToCreate.forEach(application -> ServiceRunner.provisionerService.api().createApplication(application));
     }
-    for (final Tenant tenant : tenantsToCreate) {
-      try (final AutoSeshat ignored = new AutoSeshat(authenticationResponse.getToken())) {
-        provisionAppsViaSeshatForTenant(tenant);
-      }
-    }
+    this.provisionTenantsConcurrently(tenantsToCreate, authenticationResponse.getToken());
     try (final AutoSeshat ignored = new AutoSeshat(authenticationResponse.getToken())) {
       allTenants = provisionerService.api().getTenants();
       logger.info("List of Tenants: {}", allTenants.toString());
 
       int index = 0;
-      try (final AutoTenantContext ignored1 = new AutoTenantContext(allTenants.get(index).getIdentifier())) {
-        final Authentication syncGatewayAuthentication;
-        try (final AutoGuest ignored2 = new AutoGuest()) {
-          syncGatewayAuthentication = this.identityManager.api().login(syncUser.getIdentifier(), syncUser.getPassword());
-        }
+      this.syncBatcher.flushAll();
+      this.syncUserSession.run(allTenants.get(index).getIdentifier(),
+          () -> allTenants.forEach(currentTenant -> this.syncManager.api().synchronizeTenants(currentTenant)));
+    }
+  }
+
+  private KeyspaceReplication clusterReplication(final Map<String, KeyspaceReplication> replicationByCluster, final String contactPoints) {
+    return replicationByCluster.computeIfAbsent(contactPoints, cluster ->
+        this.environment.containsProperty(ServiceRunner.CASSANDRA_REPLICATION_PROP)
+            ? KeyspaceReplication.parse(this.environment.getProperty(ServiceRunner.CASSANDRA_REPLICATION_PROP))
+            : KeyspaceReplication.discover(ServiceRunner.provisionerService.getProcessEnvironment(), cluster, this.logger,
+                this.environment.getProperty(ServiceRunner.CASSANDRA_MAX_REPLICAS_PROP, Integer.class, 3)));
+  }
+
+  private void placeTenants(final List<Tenant> tenantsToCreate, final Map<String, KeyspaceReplication> replicationByCluster) throws IOException {
+    for (final Tenant tenant : tenantsToCreate) {
+      this.tenantPlacement.place(tenant);
+      final CassandraConnectionInfo cassandraConnectionInfo = tenant.getCassandraConnectionInfo();
+      this.replicationFor(tenant.getIdentifier(), this.clusterReplication(replicationByCluster, cassandraConnectionInfo.getContactPoints()))
+          .applyTo(cassandraConnectionInfo);
+    }
+  }
+
+  private KeyspaceReplication replicationFor(final String tenant, final KeyspaceReplication replication) {
+    final String tenantProperty = ServiceRunner.CASSANDRA_REPLICATION_PROP + "." + tenant;
+    return this.environment.containsProperty(tenantProperty)
+        ? KeyspaceReplication.parse(this.environment.getProperty(tenantProperty))
+        : replication;
+  }
+
+  private void prepareTenantConnections(final List<Tenant> tenantsToCreate) throws IOException {
+    final TestEnvironment processEnvironment = ServiceRunner.provisionerService.getProcessEnvironment();
+    this.tenantConnections.watchHost(
+        processEnvironment.getProperty(MariaDBConstants.MARIADB_HOST_PROP),
+        processEnvironment.getProperty(MariaDBConstants.MARIADB_PORT_PROP),
+        processEnvironment.getProperty(MariaDBConstants.MARIADB_USER_PROP),
+        processEnvironment.getProperty(MariaDBConstants.MARIADB_PASSWORD_PROP));
+    for (final Tenant tenant : tenantsToCreate) {
+      try {
+        this.tenantConnections.prepare(tenant);
+      } catch (final SQLException ex) {
+        throw new IOException("Could not prepare the database account of tenant '" + tenant.getIdentifier() + "'.", ex);
+      }
+    }
+  }
 
-        try (final AutoUserContext ignored3 = new AutoUserContext(syncUser.getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-          allTenants.forEach(currentTenant -> this.syncManager.api().synchronizeTenants(currentTenant));
+  private void provisionTenantsConcurrently(final List<Tenant> tenantsToCreate, final String seshatToken) throws InterruptedException, IOException {
+    final int parallelism = this.environment.getProperty(ServiceRunner.PROVISION_PARALLELISM_PROP, Integer.class,
+        Math.min(tenantsToCreate.size(), Runtime.getRuntime().availableProcessors()));
+    logger.info("Provisioning {} tenants with a parallelism of {}.", tenantsToCreate.size(), parallelism);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+    try {
+      final List<Future<String>> provisioned = new ArrayList<>();
+      tenantsToCreate.forEach(tenant -> provisioned.add(executor.submit(() -> {
+        try (final AutoSeshat ignored = new AutoSeshat(seshatToken)) {
+          return provisionAppsViaSeshatForTenant(tenant);
+        }
+      })));
+
+      for (final Future<String> tenantProvisioning : provisioned) {
+        try {
+          tenantProvisioning.get();
+        } catch (final ExecutionException ex) {
+          final Throwable cause = ex.getCause();
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          } else if (cause instanceof IOException) {
+            throw (IOException) cause;
+          } else if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new IllegalStateException(cause);
         }
       }
+    } finally {
+      executor.shutdownNow();
     }
   }
 
@@ -433,11 +599,13 @@ public class ServiceRunner {
       Assert.assertTrue(this.eventRecorder.wait(EventConstants.OPERATION_POST_PERMITTABLE_GROUP,
               io.mifos.rhythm.spi.v1.PermittableGroupIds.forApplication(portfolioManager.name())));
 
-      for (int i = 0; i < 24; i++) {
-        Assert.assertTrue("Beat #" + i,
-                eventRecorder.wait(io.mifos.rhythm.api.v1.events.EventConstants.POST_BEAT,
-                        new BeatEvent(portfolioManager.name(), "alignment" + i)));
-      }
+      final List<BeatEvent> alignmentBeats = IntStream.range(0, 24)
+              .mapToObj(i -> new BeatEvent(portfolioManager.name(), "alignment" + i))
+              .collect(Collectors.toList());
+      final EventWaitResult<BeatEvent> beatAlignment
+              = eventRecorder.waitForAll(io.mifos.rhythm.api.v1.events.EventConstants.POST_BEAT, alignmentBeats);
+      logger.info("Alignment beats for tenant '{}': {}", tenant.getIdentifier(), beatAlignment);
+      Assert.assertTrue("Missing beats " + beatAlignment.getMissing(), beatAlignment.isComplete());
 
       final Authentication schedulerAuthentication;
       try (final AutoGuest ignored2 = new AutoGuest()) {
@@ -615,6 +783,30 @@ public class ServiceRunner {
     accountManagementPermission.setAllowedOperations(AllowedOperation.ALL);
     accountManagementPermission.setPermittableEndpointGroupIdentifier(io.mifos.accounting.api.v1.PermittableGroupIds.THOTH_ACCOUNT);
 
+    final Permission journalManagementPermission = new Permission();
+    journalManagementPermission.setAllowedOperations(AllowedOperation.ALL);
+    journalManagementPermission.setPermittableEndpointGroupIdentifier(io.mifos.accounting.api.v1.PermittableGroupIds.THOTH_JOURNAL);
+
+    final Permission customerAllPermission = new Permission();
+    customerAllPermission.setAllowedOperations(AllowedOperation.ALL);
+    customerAllPermission.setPermittableEndpointGroupIdentifier(io.mifos.customer.PermittableGroupIds.CUSTOMER);
+
+    final Permission productManagementPermission = new Permission();
+    productManagementPermission.setAllowedOperations(AllowedOperation.ALL);
+    productManagementPermission.setPermittableEndpointGroupIdentifier(io.mifos.portfolio.api.v1.PermittableGroupIds.PRODUCT_MANAGEMENT);
+
+    final Permission caseManagementPermission = new Permission();
+    caseManagementPermission.setAllowedOperations(AllowedOperation.ALL);
+    caseManagementPermission.setPermittableEndpointGroupIdentifier(io.mifos.portfolio.api.v1.PermittableGroupIds.CASE_MANAGEMENT);
+
+    final Permission depositDefinitionPermission = new Permission();
+    depositDefinitionPermission.setAllowedOperations(AllowedOperation.ALL);
+    depositDefinitionPermission.setPermittableEndpointGroupIdentifier(io.mifos.deposit.api.v1.PermittableGroupIds.DEFINITION_MANAGEMENT);
+
+    final Permission depositInstancePermission = new Permission();
+    depositInstancePermission.setAllowedOperations(AllowedOperation.ALL);
+    depositInstancePermission.setPermittableEndpointGroupIdentifier(io.mifos.deposit.api.v1.PermittableGroupIds.INSTANCE_MANAGEMENT);
+
     final Role role = new Role();
     role.setIdentifier("orgadmin");
     role.setPermissions(
@@ -625,7 +817,13 @@ public class ServiceRunner {
             roleAllPermission,
             selfManagementPermission,
             ledgerManagementPermission,
-            accountManagementPermission
+            accountManagementPermission,
+            journalManagementPermission,
+            customerAllPermission,
+            productManagementPermission,
+            caseManagementPermission,
+            depositDefinitionPermission,
+            depositInstancePermission
         )
     );
 
@@ -788,4 +986,6 @@ public class ServiceRunner {
   public static Microservice<SyncManager> getSyncManager() { return syncManager; }
 
   public static Microservice<PortfolioManager> getPortfolioManager() { return portfolioManager; }
+
+  public static Microservice<DepositAccountManager> getDepositAccountManager() { return depositAccountManager; }
 }
@@ -29,7 +29,8 @@ class TenantBuilder {
     super();
   }
 
-  static Tenant create(final TestEnvironment testEnvironment, final String identifier, final String name, final String databaseName) {
+  static Tenant create(final TestEnvironment testEnvironment, final String identifier, final String name, final String databaseName,
+                       final KeyspaceReplication replication) {
     final Tenant tenant = new Tenant();
     tenant.setIdentifier(identifier);
     tenant.setName(name);
@@ -49,8 +50,7 @@ class TenantBuilder {
     cassandraConnectionInfo.setClusterName(CassandraConnectorConstants.CLUSTER_NAME_PROP);
     cassandraConnectionInfo.setContactPoints(testEnvironment.getProperty(CassandraConnectorConstants.CONTACT_POINTS_PROP));
     cassandraConnectionInfo.setKeyspace(databaseName);
-    cassandraConnectionInfo.setReplicas("3");
-    cassandraConnectionInfo.setReplicationType("Simple");
+    replication.applyTo(cassandraConnectionInfo);
     tenant.setCassandraConnectionInfo(cassandraConnectionInfo);
     return tenant;
   }
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.cache;
+
+import io.mifos.dev.metrics.ListenerMetrics;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of the entities the listeners fetch from the services, kept per tenant with least recently used
+ * eviction.
+ *
+ * The cache never expires entries on its own. It relies on the events the listeners receive: an event changing an
+ * entity refreshes it, an event deleting it invalidates it. A load racing with an invalidation of the same entity is
+ * not stored, so a stale entity cannot overwrite the effect of the event. Loads of other entities of the tenant are
+ * not affected.
+ *
+ * Hits, misses, evictions and invalidations are registered with the platform MBean server as
+ * io.mifos.dev:type=EntityCache.
+ */
+@Component
+public class EntityCache implements EntityCacheMXBean {
+
+  private final Logger logger;
+  private final ListenerMetrics listenerMetrics;
+  private final int maxEntries;
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+  private final ObjectName name;
+  private final ConcurrentMap<String, TenantEntities> tenants = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  @Autowired
+  public EntityCache(@Qualifier("test-logger") final Logger logger,
+                     final ListenerMetrics listenerMetrics,
+                     @Value("${demoserver.cache.maxEntries:10000}") final int maxEntries) throws JMException {
+    super();
+    this.logger = logger;
+    this.listenerMetrics = listenerMetrics;
+    this.maxEntries = maxEntries;
+    this.name = new ObjectName("io.mifos.dev:type=EntityCache");
+    if (this.mBeanServer.isRegistered(this.name)) {
+      this.mBeanServer.unregisterMBean(this.name);
+    }
+    this.mBeanServer.registerMBean(this, this.name);
+  }
+
+  /**
+   * @return the cached entity, or the entity returned by the loader which is then cached.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(final String tenant, final String entityType, final String identifier, final Supplier<T> loader) {
+    if (this.maxEntries <= 0) {
+      return this.listenerMetrics.time(ListenerMetrics.Phase.FETCH, loader);
+    }
+
+    final TenantEntities entities = this.entities(tenant);
+    final EntityKey key = new EntityKey(entityType, identifier);
+    final Object load = new Object();
+    synchronized (entities) {
+      final Object cached = entities.get(key);
+      if (cached != null) {
+        this.hits.incrementAndGet();
+        return (T) cached;
+      }
+      entities.loading.put(key, load);
+    }
+
+    this.misses.incrementAndGet();
+    T loaded = null;
+    try {
+      loaded = this.listenerMetrics.time(ListenerMetrics.Phase.FETCH, loader);
+    } finally {
+      synchronized (entities) {
+        //only the latest load of the entity which was not invalidated meanwhile is stored
+        if (entities.loading.remove(key, load) && loaded != null) {
+          entities.put(key, loaded);
+        }
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Drops the cached entity and loads it again, for events which changed the entity.
+   */
+  public <T> T refresh(final String tenant, final String entityType, final String identifier, final Supplier<T> loader) {
+    this.invalidate(tenant, entityType, identifier);
+    return this.get(tenant, entityType, identifier, loader);
+  }
+
+  public void invalidate(final String tenant, final String entityType, final String identifier) {
+    final TenantEntities entities = this.tenants.get(tenant);
+    if (entities == null) {
+      return;
+    }
+    final EntityKey key = new EntityKey(entityType, identifier);
+    synchronized (entities) {
+      entities.loading.remove(key);
+      if (entities.remove(key) != null) {
+        this.invalidations.incrementAndGet();
+      }
+    }
+  }
+
+  public void invalidateTenant(final String tenant) {
+    final TenantEntities entities = this.tenants.remove(tenant);
+    if (entities != null) {
+      synchronized (entities) {
+        entities.loading.clear();
+        this.invalidations.addAndGet(entities.size());
+        entities.clear();
+      }
+    }
+  }
+
+  @Override
+  public long getHits() {
+    return this.hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return this.misses.get();
+  }
+
+  @Override
+  public double getHitRatio() {
+    final long hits = this.hits.get();
+    final long lookups = hits + this.misses.get();
+    return lookups == 0L ? 0.0D : (double) hits / lookups;
+  }
+
+  @Override
+  public long getEvictions() {
+    return this.evictions.get();
+  }
+
+  @Override
+  public long getInvalidations() {
+    return this.invalidations.get();
+  }
+
+  @Override
+  public int getEntries() {
+    int entries = 0;
+    for (final TenantEntities tenantEntities : this.tenants.values()) {
+      synchronized (tenantEntities) {
+        entries += tenantEntities.size();
+      }
+    }
+    return entries;
+  }
+
+  @Override
+  public int getMaxEntries() {
+    return Math.max(0, this.maxEntries);
+  }
+
+  @Override
+  public void reset() {
+    this.hits.set(0L);
+    this.misses.set(0L);
+    this.evictions.set(0L);
+    this.invalidations.set(0L);
+  }
+
+  @PreDestroy
+  public void logStatistics() {
+    this.logger.info("Entity cache: {} hits, {} misses, {} evictions, {} invalidations.",
+        this.hits.get(), this.misses.get(), this.evictions.get(), this.invalidations.get());
+    try {
+      this.mBeanServer.unregisterMBean(this.name);
+    } catch (final JMException ignored) {
+      //already gone
+    }
+  }
+
+  private TenantEntities entities(final String tenant) {
+    return this.tenants.computeIfAbsent(tenant, x -> new TenantEntities());
+  }
+
+  private class TenantEntities extends LinkedHashMap<EntityKey, Object> {
+    /**
+     * The load in progress per entity, removed by an invalidation so that the load is not stored.
+     */
+    private final Map<EntityKey, Object> loading = new HashMap<>();
+
+    private TenantEntities() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<EntityKey, Object> eldest) {
+      if (this.size() > EntityCache.this.maxEntries) {
+        EntityCache.this.evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private static class EntityKey {
+    private final String entityType;
+    private final String identifier;
+
+    private EntityKey(final String entityType, final String identifier) {
+      this.entityType = entityType;
+      this.identifier = identifier;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final EntityKey entityKey = (EntityKey) o;
+      return Objects.equals(entityType, entityKey.entityType) &&
+          Objects.equals(identifier, entityKey.identifier);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(entityType, identifier);
+    }
+  }
+}
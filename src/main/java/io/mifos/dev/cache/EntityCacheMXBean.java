@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.cache;
+
+/**
+ * JMX view of the entity cache, counted across all tenants since the start or the last reset.
+ */
+public interface EntityCacheMXBean {
+
+  long getHits();
+
+  long getMisses();
+
+  /**
+   * Share of the lookups answered from the cache, 0 before the first lookup.
+   */
+  double getHitRatio();
+
+  long getEvictions();
+
+  long getInvalidations();
+
+  /**
+   * Entities currently cached, across all tenants.
+   */
+  int getEntries();
+
+  /**
+   * Entities kept per tenant, 0 if the cache is disabled.
+   */
+  int getMaxEntries();
+
+  void reset();
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.dispatch;
+
+import io.mifos.dev.metrics.HandlerMetrics;
+import io.mifos.dev.metrics.ListenerMetrics;
+import org.springframework.jms.support.JmsHeaders;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Routes the events of one destination to their handlers by operation, so that a single consumer without a selector
+ * can replace one selector-based consumer per operation.
+ *
+ * Handlers are registered with the selector constants of the service APIs, which all have the form
+ * <code>name = 'operation'</code>. The header name and operation are taken from the selector, so the table matches
+ * exactly the messages the selector matched.
+ *
+ * Every handler is timed and counted per tenant in the {@link ListenerMetrics}.
+ */
+public class EventDispatchTable {
+
+  private static final Pattern SELECTOR = Pattern.compile("^\\s*([\\w.-]+)\\s*=\\s*'([^']*)'\\s*$");
+
+  @FunctionalInterface
+  public interface Handler {
+    void handle(final String tenant, final String payload) throws Exception;
+  }
+
+  private final String destination;
+  private final ListenerMetrics listenerMetrics;
+  private final Map<String, Handler> handlers = new HashMap<>();
+  private final Map<String, HandlerMetrics> metrics = new HashMap<>();
+  private String headerName;
+
+  public EventDispatchTable(final String destination, final ListenerMetrics listenerMetrics) {
+    super();
+    this.destination = destination;
+    this.listenerMetrics = listenerMetrics;
+  }
+
+  public EventDispatchTable on(final String selector, final Handler handler) {
+    final Matcher matcher = SELECTOR.matcher(selector);
+    if (!matcher.matches()) {
+      throw new IllegalArgumentException("Selector " + selector + " of '" + this.destination + "' is not of the form name = 'operation'.");
+    }
+    if (this.headerName == null) {
+      this.headerName = matcher.group(1);
+    } else if (!this.headerName.equals(matcher.group(1))) {
+      throw new IllegalArgumentException("Selector " + selector + " of '" + this.destination + "' does not select on " + this.headerName + ".");
+    }
+    if (this.handlers.putIfAbsent(matcher.group(2), handler) != null) {
+      throw new IllegalArgumentException("Operation '" + matcher.group(2) + "' of '" + this.destination + "' is handled twice.");
+    }
+    this.metrics.put(matcher.group(2), this.listenerMetrics.handler(this.destination, matcher.group(2)));
+    return this;
+  }
+
+  /**
+   * @return false if the event's operation has no handler, in which case the event is ignored.
+   */
+  public boolean dispatch(final String tenant, final Map<String, Object> headers, final String payload) throws Exception {
+    final Object operation = this.headerName == null ? null : headers.get(this.headerName);
+    final Handler handler = operation == null ? null : this.handlers.get(operation.toString());
+    if (handler == null) {
+      return false;
+    }
+    final Object publishedAt = headers.get(JmsHeaders.TIMESTAMP);
+    try (final ListenerMetrics.Invocation invocation = this.listenerMetrics.begin(this.metrics.get(operation.toString()),
+        tenant, publishedAt instanceof Long ? (Long) publishedAt : 0L)) {
+      try {
+        handler.handle(tenant, payload);
+      } catch (final Exception ex) {
+        invocation.failed();
+        throw ex;
+      }
+    }
+    return true;
+  }
+
+  public String getDestination() {
+    return destination;
+  }
+}
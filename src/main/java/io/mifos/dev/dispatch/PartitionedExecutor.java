@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.dispatch;
+
+import org.slf4j.Logger;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a pool of workers while keeping the tasks of the same key in submission order.
+ *
+ * Keys are hashed onto a fixed number of lanes. A lane runs its tasks one after the other and occupies at most one
+ * worker at a time, so tasks of one key never overtake each other while different lanes run in parallel. The number of
+ * workers follows the backlog: it is raised by one worker per backlogPerWorker queued tasks, up to maxWorkers, and idle
+ * workers above minWorkers retire after the keep alive time.
+ *
+ * The backlog is bounded: once maxBacklog tasks are queued or running, {@link #execute} blocks the submitting thread
+ * until a task has completed, so a consumer cannot pull messages from the broker faster than they are handled.
+ */
+public class PartitionedExecutor {
+
+  private static final long KEEP_ALIVE_SECONDS = 30L;
+  private static final long RESIZE_INTERVAL_MILLIS = 250L;
+  private static final int TASKS_PER_TURN = 32;
+
+  private final String name;
+  private final Logger logger;
+  private final int minWorkers;
+  private final int maxWorkers;
+  private final int backlogPerWorker;
+  private final Lane[] lanes;
+  private final ThreadPoolExecutor workers;
+  private final ScheduledExecutorService resizer;
+  private final AtomicInteger backlog = new AtomicInteger();
+  private final Semaphore capacity;
+  private final int maxBacklog;
+
+  public PartitionedExecutor(final String name,
+                             final Logger logger,
+                             final int minWorkers,
+                             final int maxWorkers,
+                             final int lanes,
+                             final int backlogPerWorker,
+                             final int maxBacklog) {
+    super();
+    this.name = name;
+    this.logger = logger;
+    this.minWorkers = Math.max(1, minWorkers);
+    this.maxWorkers = Math.max(this.minWorkers, maxWorkers);
+    this.backlogPerWorker = Math.max(1, backlogPerWorker);
+    this.maxBacklog = Math.max(1, maxBacklog);
+    this.capacity = new Semaphore(this.maxBacklog);
+    this.lanes = new Lane[Math.max(1, lanes)];
+    for (int i = 0; i < this.lanes.length; i++) {
+      this.lanes[i] = new Lane();
+    }
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    this.workers = new ThreadPoolExecutor(this.minWorkers, this.maxWorkers, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> daemon(runnable, name + "-worker-" + threadCount.incrementAndGet()));
+    this.resizer = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, name + "-resizer"));
+    this.resizer.scheduleWithFixedDelay(this::resize, RESIZE_INTERVAL_MILLIS, RESIZE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues the task on the lane of its key, waiting while the backlog is at its maximum.
+   */
+  public void execute(final String tenant, final String key, final Runnable task) throws InterruptedException {
+    if (!this.capacity.tryAcquire()) {
+      this.logger.debug("Listener backlog for '{}' at its maximum of {}, waiting for a worker.", this.name, this.maxBacklog);
+      this.capacity.acquire();
+    }
+    this.backlog.incrementAndGet();
+    this.lanes[(Objects.hash(tenant, key) & Integer.MAX_VALUE) % this.lanes.length].submit(task);
+  }
+
+  public int getBacklog() {
+    return this.backlog.get();
+  }
+
+  public int getMaxBacklog() {
+    return this.maxBacklog;
+  }
+
+  public int getWorkers() {
+    return this.workers.getPoolSize();
+  }
+
+  public void shutdown() {
+    this.resizer.shutdownNow();
+    this.workers.shutdown();
+  }
+
+  private void resize() {
+    final int target = Math.min(this.maxWorkers,
+        Math.max(this.minWorkers, (this.backlog.get() + this.backlogPerWorker - 1) / this.backlogPerWorker));
+    final int current = this.workers.getCorePoolSize();
+    if (target != current) {
+      this.workers.setCorePoolSize(target);
+      this.workers.allowCoreThreadTimeOut(target > this.minWorkers);
+      this.logger.debug("Listener workers for '{}' resized from {} to {} at a backlog of {}.",
+          this.name, current, target, this.backlog.get());
+    }
+  }
+
+  private static Thread daemon(final Runnable runnable, final String name) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private class Lane implements Runnable {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private void submit(final Runnable task) {
+      this.tasks.add(task);
+      if (this.scheduled.compareAndSet(false, true)) {
+        PartitionedExecutor.this.workers.execute(this);
+      }
+    }
+
+    /**
+     * Runs a bounded number of tasks and then yields the worker, so that a busy lane cannot starve the others.
+     */
+    @Override
+    public void run() {
+      Runnable task;
+      int ran = 0;
+      while (ran++ < TASKS_PER_TURN && (task = this.tasks.poll()) != null) {
+        PartitionedExecutor.this.backlog.decrementAndGet();
+        try {
+          task.run();
+        } catch (final RuntimeException ex) {
+          PartitionedExecutor.this.logger.warn("Listener task for '{}' failed: {}", PartitionedExecutor.this.name, ex.getMessage());
+        } finally {
+          PartitionedExecutor.this.capacity.release();
+        }
+      }
+      this.scheduled.set(false);
+      if (!this.tasks.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+        PartitionedExecutor.this.workers.execute(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.dispatch;
+
+import io.mifos.dev.metrics.EventLag;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.jms.ConnectionFactory;
+
+@Configuration
+public class PartitionedListenerConfiguration {
+
+  public static final String CONTAINER_FACTORY = "partitionedListenerContainerFactory";
+
+  public PartitionedListenerConfiguration() {
+    super();
+  }
+
+  @Bean(name = CONTAINER_FACTORY, destroyMethod = "shutdown")
+  public PartitionedListenerContainerFactory partitionedListenerContainerFactory(
+      final ConnectionFactory connectionFactory,
+      final Environment environment,
+      @Qualifier("test-logger") final Logger logger,
+      final EventLag eventLag) {
+    final PartitionedListenerContainerFactory factory = new PartitionedListenerContainerFactory(environment, logger, eventLag);
+    factory.setPubSubDomain(true);
+    factory.setConnectionFactory(connectionFactory);
+    return factory;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.dispatch;
+
+import io.mifos.core.lang.config.TenantHeaderFilter;
+import io.mifos.dev.metrics.EventLag;
+import org.slf4j.Logger;
+import org.springframework.core.env.Environment;
+import org.springframework.jms.config.DefaultJmsListenerContainerFactory;
+import org.springframework.jms.listener.DefaultMessageListenerContainer;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates listener containers which hand every received message to a {@link PartitionedExecutor} of their destination
+ * instead of processing it on the consumer thread.
+ *
+ * The listeners subscribe to topics, where concurrent consumers would each receive every message, so each container
+ * keeps a single consumer and gains its concurrency from the workers behind it. Messages are keyed by tenant and
+ * payload: the payload of the events handled here is the identifier of the entity, or for portfolio events the
+ * identifiers of the product and the entity, so events of one entity are handled in the order they were sent.
+ *
+ * The workers call the listener with the message alone. The JMS session belongs to the consumer thread and is not
+ * shared with them; the listeners here send no replies, so they do not need it. A listener failing on a worker is
+ * reported to the container's error handling as if it had failed on the consumer thread. Once the backlog of a
+ * destination reaches its maximum, the consumer waits for the workers before it takes the next message, so messages
+ * stay in the broker instead of piling up in memory.
+ *
+ * Messages are traced in the {@link EventLag} from the moment they are taken from the broker, so the time they wait
+ * for a worker counts towards their lag.
+ *
+ * The workers of a destination are configured with demoserver.listener.[destination].minWorkers, maxWorkers and
+ * maxBacklog, falling back to demoserver.listener.minWorkers, maxWorkers and maxBacklog.
+ */
+public class PartitionedListenerContainerFactory extends DefaultJmsListenerContainerFactory {
+
+  private final Environment environment;
+  private final Logger logger;
+  private final EventLag eventLag;
+  private final Map<String, PartitionedExecutor> executors = new ConcurrentHashMap<>();
+
+  public PartitionedListenerContainerFactory(final Environment environment, final Logger logger, final EventLag eventLag) {
+    super();
+    this.environment = environment;
+    this.logger = logger;
+    this.eventLag = eventLag;
+    this.setConcurrency("1");
+  }
+
+  public Map<String, PartitionedExecutor> getExecutors() {
+    return this.executors;
+  }
+
+  public void shutdown() {
+    this.executors.values().forEach(PartitionedExecutor::shutdown);
+  }
+
+  @Override
+  protected DefaultMessageListenerContainer createContainerInstance() {
+    return new PartitionedListenerContainer();
+  }
+
+  private PartitionedExecutor executorFor(final String destination) {
+    return this.executors.computeIfAbsent(destination, name -> {
+      final int processors = Runtime.getRuntime().availableProcessors();
+      final int minWorkers = this.property(name, "minWorkers", 1);
+      final int maxWorkers = this.property(name, "maxWorkers", processors);
+      this.logger.info("Listener workers for '{}': {} to {}.", name, minWorkers, maxWorkers);
+      return new PartitionedExecutor(name, this.logger, minWorkers, maxWorkers,
+          this.property(name, "lanes", 4 * maxWorkers), this.property(name, "backlogPerWorker", 16),
+          this.property(name, "maxBacklog", 64 * maxWorkers));
+    });
+  }
+
+  private int property(final String destination, final String key, final int defaultValue) {
+    return this.environment.getProperty("demoserver.listener." + destination + "." + key, Integer.class,
+        this.environment.getProperty("demoserver.listener." + key, Integer.class, defaultValue));
+  }
+
+  private class PartitionedListenerContainer extends DefaultMessageListenerContainer {
+
+    @Override
+    protected void invokeListener(final Session session, final Message message) throws JMSException {
+      final String tenant = message.getStringProperty(TenantHeaderFilter.TENANT_HEADER);
+      final String key = message instanceof TextMessage ? ((TextMessage) message).getText() : message.getJMSMessageID();
+      final EventLag.Trace trace = eventLag.received(this.getDestinationName(), message.getJMSTimestamp());
+      final Runnable task = () -> eventLag.run(trace, () -> {
+        try {
+          this.handle(message);
+        } finally {
+          trace.release();
+        }
+      });
+      try {
+        executorFor(this.getDestinationName()).execute(tenant, key, task);
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        logger.info("Interrupted while waiting for a listener worker of '{}', handling message {} on the consumer.",
+            this.getDestinationName(), key);
+        task.run();
+      }
+    }
+
+    private void handle(final Message message) {
+      final Object listener = this.getMessageListener();
+      if (!(listener instanceof MessageListener)) {
+        logger.warn("Listener of '{}' cannot be called without a session, dropping message.", this.getDestinationName());
+        return;
+      }
+      try {
+        ((MessageListener) listener).onMessage(message);
+      } catch (final RuntimeException ex) {
+        this.handleListenerException(ex);
+      }
+    }
+  }
+}
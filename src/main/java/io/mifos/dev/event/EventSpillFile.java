@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.event;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Append-only, memory-mapped file of events evicted from {@link TenantEventRecorder}. The file is written in chunks;
+ * each record is a length prefixed UTF-8 line of recorded time, tenant, operation and raw payload separated by tabs.
+ * A record never spans two chunks, a negative length marks the unused rest of a chunk.
+ *
+ * Only the chunk being written is mapped, the older ones are read through the channel into one buffer which every
+ * query reuses, allocated once there is an older chunk to read. The file holds at most a maximum number of chunks;
+ * once it is full, the next chunk overwrites the oldest one, whose events are lost.
+ */
+class EventSpillFile implements Closeable {
+
+  static final int CHUNK_SIZE = 16 * 1024 * 1024;
+  private static final int END_OF_CHUNK = -1;
+  private static final char SEPARATOR = '\t';
+
+  private final FileChannel channel;
+  private final int maxChunks;
+  private MappedByteBuffer current;
+  private ByteBuffer reader;
+  private long chunks;
+  private long spilled;
+
+  /**
+   * @param maxBytes the size the file may grow to, rounded down to whole chunks but at least one.
+   */
+  EventSpillFile(final Path path, final long maxBytes) throws IOException {
+    super();
+    Files.deleteIfExists(path);
+    if (path.getParent() != null) {
+      Files.createDirectories(path.getParent());
+    }
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.maxChunks = (int) Math.max(1L, Math.min(Integer.MAX_VALUE, maxBytes / CHUNK_SIZE));
+    this.nextChunk();
+  }
+
+  /**
+   * @return false if the record is larger than a chunk and was dropped.
+   */
+  synchronized boolean append(final RecordedEvent event) throws IOException {
+    final byte[] record = (event.getRecordedAt() + String.valueOf(SEPARATOR) + event.getTenant() + SEPARATOR
+        + event.getOperation() + SEPARATOR + event.getRawPayload()).getBytes(StandardCharsets.UTF_8);
+    if (record.length + 2 * Integer.BYTES > CHUNK_SIZE) {
+      return false;
+    }
+    if (this.current.remaining() < record.length + 2 * Integer.BYTES) {
+      this.current.putInt(END_OF_CHUNK);
+      this.nextChunk();
+    }
+    this.current.putInt(record.length);
+    this.current.put(record);
+    this.spilled++;
+    return true;
+  }
+
+  /**
+   * Reads the chunks still in the file, oldest first. Queries are serialized by the lock of the file, so they can share
+   * the reader buffer.
+   */
+  synchronized List<RecordedEvent> find(final String tenant, final String operation, final Predicate<String> rawPayloadMatcher) throws IOException {
+    final List<RecordedEvent> found = new ArrayList<>();
+    for (long chunk = Math.max(0L, this.chunks - this.maxChunks); chunk < this.chunks - 1; chunk++) {
+      if (this.reader == null) {
+        this.reader = ByteBuffer.allocate(CHUNK_SIZE);
+      }
+      final ByteBuffer reader = this.reader;
+      reader.clear();
+      final long position = this.offset(chunk);
+      while (reader.hasRemaining() && this.channel.read(reader, position + reader.position()) >= 0) {
+        //until the chunk is read completely
+      }
+      reader.flip();
+      scan(reader, tenant, operation, rawPayloadMatcher, found);
+    }
+    final ByteBuffer written = this.current.duplicate();
+    written.flip();
+    scan(written, tenant, operation, rawPayloadMatcher, found);
+    return found;
+  }
+
+  synchronized long getSpilled() {
+    return this.spilled;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    this.current = null;
+    this.reader = null;
+    this.channel.close();
+  }
+
+  private static void scan(final ByteBuffer reader,
+                           final String tenant,
+                           final String operation,
+                           final Predicate<String> rawPayloadMatcher,
+                           final List<RecordedEvent> found) {
+    while (reader.remaining() >= Integer.BYTES) {
+      final int length = reader.getInt();
+      if (length <= 0) {
+        break;
+      }
+      final byte[] record = new byte[length];
+      reader.get(record);
+      final String[] fields = new String(record, StandardCharsets.UTF_8).split(String.valueOf(SEPARATOR), 4);
+      if ((tenant == null || tenant.equals(fields[1]))
+          && (operation == null || operation.equals(fields[2]))
+          && rawPayloadMatcher.test(fields[3])) {
+        found.add(new RecordedEvent(fields[1], fields[2], null, fields[3], Long.parseLong(fields[0])));
+      }
+    }
+  }
+
+  /**
+   * Maps the next chunk, in place of the oldest one once the file holds the maximum number of chunks. Records the
+   * replaced chunk left behind are not read, as only the written part of the current chunk is. The previous chunk is no
+   * longer referenced and is unmapped once collected.
+   */
+  private void nextChunk() throws IOException {
+    this.current = this.channel.map(FileChannel.MapMode.READ_WRITE, this.offset(this.chunks), CHUNK_SIZE);
+    this.chunks++;
+  }
+
+  private long offset(final long chunk) {
+    return (chunk % this.maxChunks) * CHUNK_SIZE;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.event;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Outcome of waiting for a set of events. Latencies are measured from the start of the wait; events which had already
+ * been recorded when the wait started count as zero.
+ */
+public class EventWaitResult<T> {
+
+  private final Map<T, Long> latencies;
+  private final Set<T> missing;
+  private final long elapsed;
+
+  EventWaitResult(final Map<T, Long> latencies, final Set<T> missing, final long elapsed) {
+    super();
+    this.latencies = Collections.unmodifiableMap(latencies);
+    this.missing = Collections.unmodifiableSet(missing);
+    this.elapsed = elapsed;
+  }
+
+  public boolean isComplete() {
+    return this.missing.isEmpty();
+  }
+
+  public Set<T> getMissing() {
+    return missing;
+  }
+
+  public Map<T, Long> getLatencies() {
+    return latencies;
+  }
+
+  public long getElapsed() {
+    return elapsed;
+  }
+
+  public long getMaxLatency() {
+    return this.latencies.values().stream().mapToLong(Long::longValue).max().orElse(0L);
+  }
+
+  @Override
+  public String toString() {
+    return "EventWaitResult{" +
+        "received=" + latencies.size() +
+        ", missing=" + missing +
+        ", elapsed=" + elapsed +
+        ", maxLatency=" + getMaxLatency() +
+        '}';
+  }
+}
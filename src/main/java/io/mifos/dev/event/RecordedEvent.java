@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.event;
+
+public class RecordedEvent {
+
+  private static final int OBJECT_OVERHEAD = 128;
+
+  private final String tenant;
+  private final String operation;
+  private final Object payload;
+  private final String rawPayload;
+  private final long recordedAt;
+
+  public RecordedEvent(final String tenant,
+                       final String operation,
+                       final Object payload,
+                       final String rawPayload,
+                       final long recordedAt) {
+    super();
+    this.tenant = tenant;
+    this.operation = operation;
+    this.payload = payload;
+    this.rawPayload = rawPayload;
+    this.recordedAt = recordedAt;
+  }
+
+  public String getTenant() {
+    return tenant;
+  }
+
+  public String getOperation() {
+    return operation;
+  }
+
+  public Object getPayload() {
+    return payload;
+  }
+
+  public String getRawPayload() {
+    return rawPayload;
+  }
+
+  public long getRecordedAt() {
+    return recordedAt;
+  }
+
+  /**
+   * Rough heap footprint, counting the raw payload twice to account for its deserialized form.
+   */
+  long estimatedSize() {
+    return OBJECT_OVERHEAD + 2L * (this.rawPayload == null ? 0 : 2L * this.rawPayload.length());
+  }
+
+  @Override
+  public String toString() {
+    return "RecordedEvent{" +
+        "tenant='" + tenant + '\'' +
+        ", operation='" + operation + '\'' +
+        ", payload=" + payload +
+        '}';
+  }
+}
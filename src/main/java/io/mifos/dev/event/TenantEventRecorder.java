@@ -0,0 +1,455 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.event;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.mifos.core.lang.TenantContextHolder;
+import io.mifos.dev.helper.PayloadDecoder;
+import io.mifos.dev.metrics.ListenerMetrics;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Records the events received by the listeners so that provisioning can wait for them.
+ *
+ * Waits issued inside a tenant context only match events of that tenant, so tenants can be provisioned concurrently
+ * without one tenant's initialization events releasing another tenant's waits. Outside a tenant context events of any
+ * tenant match.
+ *
+ * Events are indexed by tenant, operation and payload, so an exact wait is a single lookup no matter how many events
+ * have been recorded. Waiters sleep on their own condition and are only woken by an event they can match: exact waiters
+ * by an event with their key, predicate waiters by an event of their operation. Exact matching relies on the payload
+ * types implementing hashCode consistently with equals, which the event classes of the services do.
+ *
+ * Retention is bounded by a maximum count, an estimated byte budget and a time to live. The oldest events are evicted
+ * first and, if a spill file is configured, appended to it where {@link #findSpilled} can still find them.
+ */
+@Component
+public class TenantEventRecorder {
+
+  private static final Deque<RecordedEvent> EMPTY = new ArrayDeque<>(0);
+
+  private final Logger logger;
+  private final ListenerMetrics listenerMetrics;
+  private final long maxWait;
+  private final long maxWaitPerEvent;
+  private final int maxCount;
+  private final long maxBytes;
+  private final long timeToLive;
+  private final EventSpillFile spillFile;
+  private final Gson gson = new Gson();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<EventKey, Deque<RecordedEvent>> byPayload = new HashMap<>();
+  private final Map<EventKey, Deque<RecordedEvent>> byOperation = new HashMap<>();
+  private final Map<EventKey, Signal> payloadSignals = new HashMap<>();
+  private final Map<EventKey, List<Waiter>> operationWaiters = new HashMap<>();
+  private final Deque<RecordedEvent> retained = new ArrayDeque<>();
+  private long retainedBytes;
+
+  @Autowired
+  public TenantEventRecorder(@Qualifier("test-logger") final Logger logger,
+                             final ListenerMetrics listenerMetrics,
+                             @Value("${demoserver.events.maxWait:60000}") final long maxWait,
+                             @Value("${demoserver.events.maxWaitPerEvent:250}") final long maxWaitPerEvent,
+                             @Value("${demoserver.events.maxCount:100000}") final int maxCount,
+                             @Value("${demoserver.events.maxBytes:67108864}") final long maxBytes,
+                             @Value("${demoserver.events.ttl:3600000}") final long timeToLive,
+                             @Value("${demoserver.events.spill:}") final String spillPath,
+                             @Value("${demoserver.events.spillMaxBytes:268435456}") final long spillMaxBytes) throws IOException {
+    super();
+    this.logger = logger;
+    this.listenerMetrics = listenerMetrics;
+    this.maxWait = maxWait;
+    this.maxWaitPerEvent = maxWaitPerEvent;
+    this.maxCount = maxCount;
+    this.maxBytes = maxBytes;
+    this.timeToLive = timeToLive;
+    this.spillFile = spillPath.isEmpty() ? null : new EventSpillFile(Paths.get(spillPath), spillMaxBytes);
+  }
+
+  public <T> void event(final String tenant, final String operation, final String payload, final Class<T> payloadType) {
+    this.listenerMetrics.time(ListenerMetrics.Phase.RECORD, () -> this.record(tenant, operation, payload, payloadType));
+  }
+
+  private <T> void record(final String tenant, final String operation, final String payload, final Class<T> payloadType) {
+    final Object payloadObject;
+    final String identifier = payloadType == String.class ? PayloadDecoder.string(payload) : null;
+    if (identifier != null) {
+      payloadObject = identifier;
+    } else {
+      try {
+        payloadObject = this.gson.fromJson(payload, payloadType);
+      } catch (final JsonParseException ex) {
+        this.logger.warn("Could not read payload of event '{}' for tenant '{}': {}", operation, tenant, payload);
+        return;
+      }
+    }
+
+    final RecordedEvent event = new RecordedEvent(tenant, operation, payloadObject, payload, System.currentTimeMillis());
+    this.lock.lock();
+    try {
+      this.retained.addLast(event);
+      this.retainedBytes += event.estimatedSize();
+      for (final String scope : tenant == null ? new String[]{null} : new String[]{tenant, null}) {
+        final EventKey payloadKey = new EventKey(scope, operation, payloadObject);
+        this.byPayload.computeIfAbsent(payloadKey, key -> new ArrayDeque<>()).addLast(event);
+        final Signal signal = this.payloadSignals.get(payloadKey);
+        if (signal != null) {
+          signal.condition.signalAll();
+        }
+
+        final EventKey operationKey = new EventKey(scope, operation, null);
+        this.byOperation.computeIfAbsent(operationKey, key -> new ArrayDeque<>()).addLast(event);
+        final List<Waiter> waiters = this.operationWaiters.get(operationKey);
+        if (waiters != null) {
+          waiters.forEach(waiter -> waiter.offer(event));
+        }
+      }
+      this.evict(event.getRecordedAt());
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public <T> boolean wait(final String operation, final T payload) throws InterruptedException {
+    final EventKey key = new EventKey(currentTenant(), operation, payload);
+    long remaining = TimeUnit.MILLISECONDS.toNanos(this.maxWait);
+    this.lock.lock();
+    try {
+      if (this.byPayload.containsKey(key)) {
+        return true;
+      }
+      final Signal signal = this.payloadSignals.computeIfAbsent(key, x -> new Signal(this.lock.newCondition()));
+      signal.waiters++;
+      try {
+        while (!this.byPayload.containsKey(key)) {
+          if (remaining <= 0L) {
+            this.logger.warn("Event '{}' with payload {} for tenant '{}' not received within {} ms.",
+                operation, payload, key.tenantOrAny(), this.maxWait);
+            return false;
+          }
+          remaining = signal.condition.awaitNanos(remaining);
+        }
+        return true;
+      } finally {
+        if (--signal.waiters == 0) {
+          this.payloadSignals.remove(key);
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public <T> boolean waitForMatch(final String operation, final Predicate<T> payloadMatcher) throws InterruptedException {
+    return this.waitForMatch(operation, payloadMatcher, 0L);
+  }
+
+  /**
+   * Waits for a matching event recorded at or after the given time, ignoring earlier ones still retained.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> boolean waitForMatch(final String operation, final Predicate<T> payloadMatcher, final long since) throws InterruptedException {
+    final Waiter waiter = new Waiter(this.lock.newCondition()) {
+      @Override
+      void offer(final RecordedEvent event) {
+        if (event.getRecordedAt() < since) {
+          return;
+        }
+        try {
+          if (payloadMatcher.test((T) event.getPayload())) {
+            this.complete();
+          }
+        } catch (final ClassCastException ex) {
+          //not a payload this matcher can handle
+        }
+      }
+    };
+
+    final EventKey operationKey = new EventKey(currentTenant(), operation, null);
+    final boolean matched = this.await(operationKey, waiter, this.maxWait,
+        () -> this.byOperation.getOrDefault(operationKey, EMPTY).forEach(waiter::offer));
+    if (!matched) {
+      this.logger.warn("No matching event '{}' for tenant '{}' received within {} ms.", operation, operationKey.tenantOrAny(), this.maxWait);
+    }
+    return matched;
+  }
+
+  /**
+   * Waits until every one of the expected payloads has been recorded for the operation, for the maximum wait plus the
+   * maximum wait per event for each of them.
+   */
+  public <T> EventWaitResult<T> waitForAll(final String operation, final Collection<T> expected) throws InterruptedException {
+    return this.waitForAll(operation, expected, this.maxWait + this.maxWaitPerEvent * expected.size());
+  }
+
+  /**
+   * Waits until every one of the expected payloads has been recorded for the operation, or the timeout in
+   * milliseconds has passed.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> EventWaitResult<T> waitForAll(final String operation, final Collection<T> expected, final long timeout) throws InterruptedException {
+    final long startedAt = System.currentTimeMillis();
+    final Set<T> missing = new HashSet<>(expected);
+    final Map<T, Long> latencies = new LinkedHashMap<>();
+    final Waiter waiter = new Waiter(this.lock.newCondition()) {
+      @Override
+      void offer(final RecordedEvent event) {
+        if (missing.remove(event.getPayload())) {
+          latencies.put((T) event.getPayload(), Math.max(0L, event.getRecordedAt() - startedAt));
+          if (missing.isEmpty()) {
+            this.complete();
+          }
+        }
+      }
+    };
+
+    final EventKey operationKey = new EventKey(currentTenant(), operation, null);
+    this.await(operationKey, waiter, timeout, () -> {
+      expected.forEach(payload -> {
+        final Deque<RecordedEvent> recorded = this.byPayload.get(new EventKey(operationKey.tenant, operation, payload));
+        if (recorded != null) {
+          waiter.offer(recorded.getFirst());
+        }
+      });
+      if (missing.isEmpty()) {
+        waiter.complete();
+      }
+    });
+
+    final EventWaitResult<T> result = new EventWaitResult<>(latencies, missing, System.currentTimeMillis() - startedAt);
+    if (!result.isComplete()) {
+      this.logger.warn("Events '{}' for tenant '{}' not received within {} ms: {}", operation, operationKey.tenantOrAny(), timeout, missing);
+    }
+    return result;
+  }
+
+  public void clear() {
+    this.lock.lock();
+    try {
+      this.byPayload.clear();
+      this.byOperation.clear();
+      this.retained.clear();
+      this.retainedBytes = 0L;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  /**
+   * Finds events which were evicted to the spill file, null tenant or operation match any.
+   */
+  public List<RecordedEvent> findSpilled(final String tenant, final String operation, final Predicate<String> rawPayloadMatcher) {
+    if (this.spillFile == null) {
+      return Collections.emptyList();
+    }
+    try {
+      return this.spillFile.find(tenant, operation, rawPayloadMatcher);
+    } catch (final IOException ex) {
+      this.logger.warn("Could not read spilled events: {}", ex.getMessage());
+      return Collections.emptyList();
+    }
+  }
+
+  public int getRetainedCount() {
+    this.lock.lock();
+    try {
+      return this.retained.size();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public long getRetainedBytes() {
+    this.lock.lock();
+    try {
+      return this.retainedBytes;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    if (this.spillFile != null) {
+      this.spillFile.close();
+    }
+  }
+
+  private void evict(final long now) {
+    while (!this.retained.isEmpty()
+        && (this.retained.size() > this.maxCount
+        || this.retainedBytes > this.maxBytes
+        || this.retained.peekFirst().getRecordedAt() < now - this.timeToLive)) {
+      final RecordedEvent oldest = this.retained.pollFirst();
+      this.retainedBytes -= oldest.estimatedSize();
+      for (final String scope : oldest.getTenant() == null ? new String[]{null} : new String[]{oldest.getTenant(), null}) {
+        unindex(this.byPayload, new EventKey(scope, oldest.getOperation(), oldest.getPayload()), oldest);
+        unindex(this.byOperation, new EventKey(scope, oldest.getOperation(), null), oldest);
+      }
+      this.spill(oldest);
+    }
+  }
+
+  /**
+   * Events are indexed and evicted in the order they were recorded, so an evicted event is the first of each of its
+   * indexes, if it is still there after a {@link #clear}.
+   */
+  private static void unindex(final Map<EventKey, Deque<RecordedEvent>> index, final EventKey key, final RecordedEvent event) {
+    final Deque<RecordedEvent> events = index.get(key);
+    if (events == null || events.peekFirst() != event) {
+      return;
+    }
+    events.pollFirst();
+    if (events.isEmpty()) {
+      index.remove(key);
+    }
+  }
+
+  private void spill(final RecordedEvent event) {
+    if (this.spillFile == null) {
+      return;
+    }
+    try {
+      if (!this.spillFile.append(event)) {
+        this.logger.warn("Event '{}' for tenant '{}' too large to spill.", event.getOperation(), event.getTenant());
+      }
+    } catch (final IOException ex) {
+      this.logger.warn("Could not spill event '{}' for tenant '{}': {}", event.getOperation(), event.getTenant(), ex.getMessage());
+    }
+  }
+
+  /**
+   * @param offerRecorded offers the already recorded events the waiter may be interested in, runs under the lock.
+   */
+  private boolean await(final EventKey operationKey, final Waiter waiter, final long timeout, final Runnable offerRecorded) throws InterruptedException {
+    long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+    this.lock.lock();
+    try {
+      offerRecorded.run();
+      if (waiter.done) {
+        return true;
+      }
+
+      final List<Waiter> waiters = this.operationWaiters.computeIfAbsent(operationKey, key -> new ArrayList<>());
+      waiters.add(waiter);
+      try {
+        while (!waiter.done) {
+          if (remaining <= 0L) {
+            return false;
+          }
+          remaining = waiter.condition.awaitNanos(remaining);
+        }
+        return true;
+      } finally {
+        waiters.remove(waiter);
+        if (waiters.isEmpty()) {
+          this.operationWaiters.remove(operationKey);
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private static String currentTenant() {
+    return TenantContextHolder.identifier().orElse(null);
+  }
+
+  private static class Signal {
+    private final Condition condition;
+    private int waiters;
+
+    private Signal(final Condition condition) {
+      this.condition = condition;
+    }
+  }
+
+  private static abstract class Waiter {
+    final Condition condition;
+    boolean done;
+
+    Waiter(final Condition condition) {
+      this.condition = condition;
+    }
+
+    abstract void offer(final RecordedEvent event);
+
+    void complete() {
+      this.done = true;
+      this.condition.signal();
+    }
+  }
+
+  /**
+   * Index key; a null tenant stands for events of any tenant, a null payload for any payload of the operation.
+   */
+  private static class EventKey {
+    private final String tenant;
+    private final String operation;
+    private final Object payload;
+
+    private EventKey(final String tenant, final String operation, final Object payload) {
+      this.tenant = tenant;
+      this.operation = operation;
+      this.payload = payload;
+    }
+
+    private String tenantOrAny() {
+      return this.tenant == null ? "*" : this.tenant;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final EventKey eventKey = (EventKey) o;
+      return Objects.equals(tenant, eventKey.tenant) &&
+          Objects.equals(operation, eventKey.operation) &&
+          Objects.equals(payload, eventKey.payload);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tenant, operation, payload);
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.helper;
+
+/**
+ * Decodes the payloads of the events the listeners receive by scanning the message text, without regular expressions
+ * or an object mapping.
+ *
+ * Most payloads are a JSON string holding the identifier of an entity, the rest are small flat JSON objects of which
+ * the listeners need one or two string fields. A decoded value is a substring of the payload; only values containing
+ * escape sequences are copied through a per-thread buffer.
+ */
+public final class PayloadDecoder {
+
+  private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+  private PayloadDecoder() {
+    super();
+  }
+
+  /**
+   * @return the payload without a leading and a trailing double quote, e.g. customer-1 for "customer-1".
+   */
+  public static String identifier(final String payload) {
+    final int length = payload.length();
+    final int start = length > 0 && payload.charAt(0) == '"' ? 1 : 0;
+    final int end = length > start && payload.charAt(length - 1) == '"' ? length - 1 : length;
+    return payload.substring(start, end);
+  }
+
+  /**
+   * @return the value of a payload which is a JSON string, or null if it is anything else.
+   */
+  public static String string(final String payload) {
+    final int length = payload.length();
+    if (length < 2 || payload.charAt(0) != '"' || endOfString(payload, 1) != length - 1) {
+      return null;
+    }
+    return unescape(payload, 1, length - 1);
+  }
+
+  /**
+   * @return the value of the named top-level field of a payload which is a JSON object, as text; null if the payload
+   * is no object, lacks the field or the field is null.
+   */
+  public static String field(final String payload, final String name) {
+    final int length = payload.length();
+    int position = skipWhitespace(payload, 0);
+    if (position >= length || payload.charAt(position) != '{') {
+      return null;
+    }
+    position++;
+
+    while (true) {
+      position = skipWhitespace(payload, position);
+      if (position >= length || payload.charAt(position) != '"') {
+        return null;
+      }
+      final int keyStart = position + 1;
+      final int keyEnd = endOfString(payload, keyStart);
+      if (keyEnd < 0) {
+        return null;
+      }
+      position = skipWhitespace(payload, keyEnd + 1);
+      if (position >= length || payload.charAt(position) != ':') {
+        return null;
+      }
+      position = skipWhitespace(payload, position + 1);
+      if (position >= length) {
+        return null;
+      }
+
+      final boolean matches = keyEnd - keyStart == name.length() && payload.regionMatches(keyStart, name, 0, name.length());
+      final int valueEnd;
+      if (payload.charAt(position) == '"') {
+        final int closingQuote = endOfString(payload, position + 1);
+        if (closingQuote < 0) {
+          return null;
+        }
+        if (matches) {
+          return unescape(payload, position + 1, closingQuote);
+        }
+        valueEnd = closingQuote + 1;
+      } else {
+        valueEnd = skipValue(payload, position);
+        if (valueEnd < 0) {
+          return null;
+        }
+        if (matches) {
+          return valueEnd - position == 4 && payload.startsWith("null", position) ? null : payload.substring(position, valueEnd);
+        }
+      }
+
+      position = skipWhitespace(payload, valueEnd);
+      if (position >= length || payload.charAt(position) != ',') {
+        return null;
+      }
+      position++;
+    }
+  }
+
+  private static int skipWhitespace(final String text, final int from) {
+    int position = from;
+    while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * @return the position of the quote closing the string starting at from, or -1 if it is not closed.
+   */
+  private static int endOfString(final String text, final int from) {
+    for (int position = from; position < text.length(); position++) {
+      final char c = text.charAt(position);
+      if (c == '\\') {
+        position++;
+      } else if (c == '"') {
+        return position;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the position after the number, literal, object or array starting at from, or -1 if it is not closed.
+   */
+  private static int skipValue(final String text, final int from) {
+    int depth = 0;
+    int position = from;
+    while (position < text.length()) {
+      final char c = text.charAt(position);
+      if (c == '"') {
+        position = endOfString(text, position + 1);
+        if (position < 0) {
+          return -1;
+        }
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        if (depth == 0) {
+          return position;
+        }
+        depth--;
+        if (depth == 0) {
+          return position + 1;
+        }
+      } else if (depth == 0 && (c == ',' || Character.isWhitespace(c))) {
+        return position;
+      }
+      position++;
+    }
+    return depth == 0 ? position : -1;
+  }
+
+  private static String unescape(final String text, final int start, final int end) {
+    final int escape = text.indexOf('\\', start);
+    if (escape < 0 || escape >= end) {
+      return text.substring(start, end);
+    }
+
+    final StringBuilder buffer = BUFFER.get();
+    buffer.setLength(0);
+    buffer.append(text, start, escape);
+    for (int position = escape; position < end; position++) {
+      final char c = text.charAt(position);
+      if (c != '\\' || position + 1 >= end) {
+        buffer.append(c);
+        continue;
+      }
+      final char escaped = text.charAt(++position);
+      switch (escaped) {
+        case 'b':
+          buffer.append('\b');
+          break;
+        case 'f':
+          buffer.append('\f');
+          break;
+        case 'n':
+          buffer.append('\n');
+          break;
+        case 'r':
+          buffer.append('\r');
+          break;
+        case 't':
+          buffer.append('\t');
+          break;
+        case 'u':
+          final int code = position + 4 < end ? hex(text, position + 1) : -1;
+          if (code < 0) {
+            buffer.append(escaped);
+          } else {
+            buffer.append((char) code);
+            position += 4;
+          }
+          break;
+        default:
+          buffer.append(escaped);
+      }
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * @return the value of the four hex digits starting at from, or -1 if they are not all hex digits.
+   */
+  private static int hex(final String text, final int from) {
+    int value = 0;
+    for (int position = from; position < from + 4; position++) {
+      final int digit = Character.digit(text.charAt(position), 16);
+      if (digit < 0) {
+        return -1;
+      }
+      value = value * 16 + digit;
+    }
+    return value;
+  }
+}
@@ -7,7 +7,6 @@ public class StringHelper {
     }
 
     public static String cleanString(final String payload){
-        final String identifier = payload.replaceAll("^\"|\"$", "");
-        return identifier;
+        return PayloadDecoder.identifier(payload);
     }
 }
@@ -19,20 +19,26 @@ import io.mifos.accounting.api.v1.EventConstants;
 import io.mifos.accounting.api.v1.domain.Account;
 import io.mifos.accounting.api.v1.domain.JournalEntry;
 import io.mifos.accounting.api.v1.domain.Ledger;
-import io.mifos.core.api.context.AutoGuest;
-import io.mifos.core.api.context.AutoUserContext;
-import io.mifos.core.lang.AutoTenantContext;
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
 import io.mifos.dev.ServiceRunner;
-import io.mifos.identity.api.v1.domain.Authentication;
+import io.mifos.dev.cache.EntityCache;
+import io.mifos.dev.dispatch.EventDispatchTable;
+import io.mifos.dev.dispatch.PartitionedListenerConfiguration;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.helper.PayloadDecoder;
+import io.mifos.dev.metrics.ListenerMetrics;
+import io.mifos.dev.sync.EntityUpdateCoalescer;
+import io.mifos.dev.sync.SyncUserSession;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 /**
  * @author Myrle Krantz
  */
@@ -40,7 +46,11 @@ import org.springframework.stereotype.Component;
 @Component
 public class AccountingListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
+  private final EventDispatchTable dispatchTable;
+  private final EntityCache entityCache;
+  private final SyncUserSession syncUserSession;
+  private final EntityUpdateCoalescer entityUpdateCoalescer;
 
   private final ServiceRunner serviceRunner = new ServiceRunner();
 
@@ -49,283 +59,182 @@ public class AccountingListener {
   private Logger logger;
 
   @Autowired
-  public AccountingListener(final EventRecorder eventRecorder) {
+  public AccountingListener(final TenantEventRecorder eventRecorder,
+                            final EntityCache entityCache,
+                            final SyncUserSession syncUserSession,
+                            final EntityUpdateCoalescer entityUpdateCoalescer,
+                            final ListenerMetrics listenerMetrics) {
     this.eventRecorder = eventRecorder;
+    this.entityCache = entityCache;
+    this.syncUserSession = syncUserSession;
+    this.entityUpdateCoalescer = entityUpdateCoalescer;
+    this.dispatchTable = new EventDispatchTable(EventConstants.DESTINATION, listenerMetrics)
+        .on(EventConstants.SELECTOR_INITIALIZE, this::onInitialization)
+        .on(EventConstants.SELECTOR_POST_LEDGER, this::onPostLedger)
+        .on(EventConstants.SELECTOR_PUT_LEDGER, this::onPutLedger)
+        .on(EventConstants.SELECTOR_DELETE_LEDGER, this::onDeleteLedger)
+        .on(EventConstants.SELECTOR_POST_ACCOUNT, this::onCreateAccount)
+        .on(EventConstants.SELECTOR_PUT_ACCOUNT, this::onChangeAccount)
+        .on(EventConstants.SELECTOR_CLOSE_ACCOUNT, this::onCloseAccount)
+        .on(EventConstants.SELECTOR_LOCK_ACCOUNT, this::onLockAccount)
+        .on(EventConstants.SELECTOR_UNLOCK_ACCOUNT, this::onUnlockAccount)
+        .on(EventConstants.SELECTOR_REOPEN_ACCOUNT, this::onReopenAccount)
+        .on(EventConstants.SELECTOR_DELETE_ACCOUNT, this::onDeleteAccount)
+        .on(EventConstants.SELECTOR_POST_JOURNAL_ENTRY, this::onPostJournalEntry)
+        .on(EventConstants.SELECTOR_RELEASE_JOURNAL_ENTRY, this::onJournalEntryProcessed);
   }
 
   @JmsListener(
+          subscription = EventConstants.DESTINATION,
           destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_INITIALIZE,
-          subscription = EventConstants.DESTINATION
+          containerFactory = PartitionedListenerConfiguration.CONTAINER_FACTORY
   )
-  public void onInitialization(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                      @Headers final Map<String, Object> headers,
+                      final String payload) throws Exception {
+    this.dispatchTable.dispatch(tenant, headers, payload);
+  }
+
+  public void onInitialization(final String tenant,
                                final String payload) {
     this.eventRecorder.event(tenant, EventConstants.INITIALIZE, payload, String.class);
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_LEDGER,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onPostLedger(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onPostLedger(final String tenant,
                            final String payload) {
     this.eventRecorder.event(tenant, EventConstants.POST_LEDGER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Ledger ledger = serviceRunner.getLedgerManager().api().findLedger(identifier);
-        logger.info("Created ledger account {}", ledger.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "ledger", identifier, () -> {
+      final Ledger ledger = this.entityCache.get(tenant, "ledger", identifier,
+          () -> serviceRunner.getLedgerManager().api().findLedger(identifier));
+      logger.info("Created ledger account {}", ledger.getName());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_LEDGER,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onPutLedger(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onPutLedger(final String tenant,
                           final String payload) {
     this.eventRecorder.event(tenant, EventConstants.PUT_LEDGER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Ledger ledger = serviceRunner.getLedgerManager().api().findLedger(identifier);
-        logger.info("Modified ledger account {}", ledger.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.update(tenant, "ledger", identifier, () -> {
+      final Ledger ledger = this.entityCache.refresh(tenant, "ledger", identifier,
+          () -> serviceRunner.getLedgerManager().api().findLedger(identifier));
+      logger.info("Modified ledger account {}", ledger.getName());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_LEDGER,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onDeleteLedger(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteLedger(final String tenant,
                              final String payload) {
     this.eventRecorder.event(tenant, EventConstants.DELETE_LEDGER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    logger.info("Deleted ledger account, {}", identifier);
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityCache.invalidate(tenant, "ledger", identifier);
+    this.entityUpdateCoalescer.delete(tenant, "ledger", identifier, () -> logger.info("Deleted ledger account, {}", identifier));
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_ACCOUNT,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onCreateAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCreateAccount(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.POST_ACCOUNT, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Account account = serviceRunner.getLedgerManager().api().findAccount(identifier);
-        logger.info("Created account {}", account.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "account", identifier, () -> {
+      final Account account = this.entityCache.get(tenant, "account", identifier,
+          () -> serviceRunner.getLedgerManager().api().findAccount(identifier));
+      logger.info("Created account {}", account.getName());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_ACCOUNT,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onChangeAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onChangeAccount(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.PUT_ACCOUNT, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Account account = serviceRunner.getLedgerManager().api().findAccount(identifier);
-        logger.info("Modified account {}", account.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.update(tenant, "account", identifier, () -> {
+      final Account account = this.entityCache.refresh(tenant, "account", identifier,
+          () -> serviceRunner.getLedgerManager().api().findAccount(identifier));
+      logger.info("Modified account {}", account.getName());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_CLOSE_ACCOUNT,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onCloseAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCloseAccount(final String tenant,
                              final String payload) {
     this.eventRecorder.event(tenant, EventConstants.CLOSE_ACCOUNT, payload, String.class);
 
-    String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Account account = serviceRunner.getLedgerManager().api().findAccount(identifier);
-        logger.info("Account closed: {} {}", account.getName(), account.getState());
-      }
-    }
+    String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "account", identifier, () -> {
+      final Account account = this.entityCache.refresh(tenant, "account", identifier,
+          () -> serviceRunner.getLedgerManager().api().findAccount(identifier));
+      logger.info("Account closed: {} {}", account.getName(), account.getState());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_LOCK_ACCOUNT,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onLockAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onLockAccount(final String tenant,
                             final String payload) {
     this.eventRecorder.event(tenant, EventConstants.LOCK_ACCOUNT, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Account account = serviceRunner.getLedgerManager().api().findAccount(identifier);
-        logger.info("Account locked: {} {} ", account.getName(), account.getState());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "account", identifier, () -> {
+      final Account account = this.entityCache.refresh(tenant, "account", identifier,
+          () -> serviceRunner.getLedgerManager().api().findAccount(identifier));
+      logger.info("Account locked: {} {} ", account.getName(), account.getState());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_UNLOCK_ACCOUNT,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onUnlockAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onUnlockAccount(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.UNLOCK_ACCOUNT, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Account account = serviceRunner.getLedgerManager().api().findAccount(identifier);
-        logger.info("Account unlocked: {} {} ", account.getName(), account.getState());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "account", identifier, () -> {
+      final Account account = this.entityCache.refresh(tenant, "account", identifier,
+          () -> serviceRunner.getLedgerManager().api().findAccount(identifier));
+      logger.info("Account unlocked: {} {} ", account.getName(), account.getState());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_REOPEN_ACCOUNT,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onReopenAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onReopenAccount(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.REOPEN_ACCOUNT, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Account account = serviceRunner.getLedgerManager().api().findAccount(identifier);
-        logger.info("Account reopened: {} {} ", account.getName(), account.getState());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "account", identifier, () -> {
+      final Account account = this.entityCache.refresh(tenant, "account", identifier,
+          () -> serviceRunner.getLedgerManager().api().findAccount(identifier));
+      logger.info("Account reopened: {} {} ", account.getName(), account.getState());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_ACCOUNT,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onDeleteAccount(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteAccount(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.DELETE_ACCOUNT, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    logger.info("Deleted account, {}", identifier);
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityCache.invalidate(tenant, "account", identifier);
+    this.entityUpdateCoalescer.delete(tenant, "account", identifier, () -> logger.info("Deleted account, {}", identifier));
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_JOURNAL_ENTRY,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onPostJournalEntry(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onPostJournalEntry(final String tenant,
                                  final String payload) {
     this.eventRecorder.event(tenant, EventConstants.POST_JOURNAL_ENTRY, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final JournalEntry journalEntry = serviceRunner.getLedgerManager().api().findJournalEntry(identifier);
-        logger.info("Journal entry created ( creditor:{}, debtor:{} )", journalEntry.getCreditors(), journalEntry.getDebtors());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final JournalEntry journalEntry = this.entityCache.get(tenant, "journal entry", identifier,
+          () -> serviceRunner.getLedgerManager().api().findJournalEntry(identifier));
+      logger.info("Journal entry created ( creditor:{}, debtor:{} )", journalEntry.getCreditors(), journalEntry.getDebtors());
+    });
   }
 
-  @JmsListener(
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_RELEASE_JOURNAL_ENTRY,
-          subscription = EventConstants.DESTINATION
-  )
-  public void onJournalEntryProcessed(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onJournalEntryProcessed(final String tenant,
                                       final String payload) {
     this.eventRecorder.event(tenant, EventConstants.RELEASE_JOURNAL_ENTRY, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final JournalEntry journalEntry = serviceRunner.getLedgerManager().api().findJournalEntry(identifier);
-        logger.info("Journal entry processed ( {} {} )", journalEntry.getCreditors(), journalEntry.getDebtors());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final JournalEntry journalEntry = this.entityCache.refresh(tenant, "journal entry", identifier,
+          () -> serviceRunner.getLedgerManager().api().findJournalEntry(identifier));
+      logger.info("Journal entry processed ( {} {} )", journalEntry.getCreditors(), journalEntry.getDebtors());
+    });
   }
 }
@@ -17,7 +17,7 @@ package io.mifos.dev.listener;
 
 import io.mifos.cheque.api.v1.EventConstants;
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
+import io.mifos.dev.event.TenantEventRecorder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
@@ -27,10 +27,10 @@ import org.springframework.stereotype.Component;
 @Component
 public class ChequesListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
 
   @Autowired
-  public ChequesListener(final EventRecorder eventRecorder) {
+  public ChequesListener(final TenantEventRecorder eventRecorder) {
     this.eventRecorder = eventRecorder;
   }
 
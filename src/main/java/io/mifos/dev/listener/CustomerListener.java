@@ -15,28 +15,36 @@
  */
 package io.mifos.dev.listener;
 
-import io.mifos.core.api.context.AutoGuest;
-import io.mifos.core.api.context.AutoUserContext;
-import io.mifos.core.lang.AutoTenantContext;
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
 import io.mifos.customer.api.v1.CustomerEventConstants;
 import io.mifos.customer.api.v1.domain.Customer;
 import io.mifos.customer.api.v1.events.ScanEvent;
 import io.mifos.dev.ServiceRunner;
-import io.mifos.identity.api.v1.domain.Authentication;
+import io.mifos.dev.cache.EntityCache;
+import io.mifos.dev.dispatch.EventDispatchTable;
+import io.mifos.dev.dispatch.PartitionedListenerConfiguration;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.helper.PayloadDecoder;
+import io.mifos.dev.metrics.ListenerMetrics;
+import io.mifos.dev.sync.EntityUpdateCoalescer;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 @SuppressWarnings("unused")
 @Component
 public class CustomerListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
+  private final EventDispatchTable dispatchTable;
+  private final EntityCache entityCache;
+  private final EntityUpdateCoalescer entityUpdateCoalescer;
   private final ServiceRunner serviceRunner = new ServiceRunner();
 
   @Autowired
@@ -44,232 +52,158 @@ public class CustomerListener {
   private Logger logger;
 
   @Autowired
-  public CustomerListener(final EventRecorder eventRecorder) {
+  public CustomerListener(final TenantEventRecorder eventRecorder,
+                          final EntityCache entityCache,
+                          final EntityUpdateCoalescer entityUpdateCoalescer,
+                          final ListenerMetrics listenerMetrics) {
     this.eventRecorder = eventRecorder;
+    this.entityCache = entityCache;
+    this.entityUpdateCoalescer = entityUpdateCoalescer;
+    this.dispatchTable = new EventDispatchTable(CustomerEventConstants.DESTINATION, listenerMetrics)
+        .on(CustomerEventConstants.SELECTOR_INITIALIZE, this::onInitialized)
+        .on(CustomerEventConstants.SELECTOR_POST_CUSTOMER, this::customerCreatedEvent)
+        .on(CustomerEventConstants.SELECTOR_PUT_CUSTOMER, this::customerUpdatedEvents)
+        .on(CustomerEventConstants.SELECTOR_ACTIVATE_CUSTOMER, this::customerActivatedEvent)
+        .on(CustomerEventConstants.SELECTOR_LOCK_CUSTOMER, this::customerLockedEvent)
+        .on(CustomerEventConstants.SELECTOR_UNLOCK_CUSTOMER, this::customerUnlockedEvent)
+        .on(CustomerEventConstants.SELECTOR_CLOSE_CUSTOMER, this::customerClosedEvent)
+        .on(CustomerEventConstants.SELECTOR_REOPEN_CUSTOMER, this::customerReopenedEvent)
+        .on(CustomerEventConstants.SELECTOR_PUT_ADDRESS, this::addressChangedEvent)
+        .on(CustomerEventConstants.SELECTOR_PUT_CONTACT_DETAILS, this::contactDetailsChangedEvent)
+        .on(CustomerEventConstants.SELECTOR_POST_IDENTIFICATION_CARD, this::identificationCardCreateEvent)
+        .on(CustomerEventConstants.SELECTOR_PUT_IDENTIFICATION_CARD, this::identificationCardChangedEvent)
+        .on(CustomerEventConstants.SELECTOR_DELETE_IDENTIFICATION_CARD, this::identificationCardDeletedEvent)
+        .on(CustomerEventConstants.SELECTOR_POST_IDENTIFICATION_CARD_SCAN, this::identificationCardScanCreateEvent)
+        .on(CustomerEventConstants.SELECTOR_DELETE_IDENTIFICATION_CARD_SCAN, this::identificationCardScanDeleteEvent)
+        .on(CustomerEventConstants.SELECTOR_PUT_PORTRAIT, this::portraitPutEvent)
+        .on(CustomerEventConstants.SELECTOR_DELETE_PORTRAIT, this::portraitDeleteEvent);
   }
 
   @JmsListener(
           subscription = CustomerEventConstants.DESTINATION,
           destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_INITIALIZE
+          containerFactory = PartitionedListenerConfiguration.CONTAINER_FACTORY
   )
-  public void onInitialized(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                      @Headers final Map<String, Object> headers,
+                      final String payload) throws Exception {
+    this.dispatchTable.dispatch(tenant, headers, payload);
+  }
+
+  public void onInitialized(final String tenant,
                             final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.INITIALIZE, payload, String.class);
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_POST_CUSTOMER
-  )
-  public void customerCreatedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void customerCreatedEvent(final String tenant,
                                    final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.POST_CUSTOMER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Created customer {}", customer.getGivenName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.get(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Created customer {}", customer.getGivenName());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_PUT_CUSTOMER
-  )
-  public void customerUpdatedEvents(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void customerUpdatedEvents(final String tenant,
                                     final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.PUT_CUSTOMER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Updated customer {}", customer.getGivenName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.update(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.refresh(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Updated customer {}", customer.getGivenName());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_ACTIVATE_CUSTOMER
-  )
-  public void customerActivatedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void customerActivatedEvent(final String tenant,
                                      final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.ACTIVATE_CUSTOMER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Customer activated: {} {}", customer.getGivenName(), customer.getCurrentState());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.refresh(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Customer activated: {} {}", customer.getGivenName(), customer.getCurrentState());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_LOCK_CUSTOMER
-  )
-  public void customerLockedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void customerLockedEvent(final String tenant,
                                   final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.LOCK_CUSTOMER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Customer locked: {} {}", customer.getGivenName(), customer.getCurrentState());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.refresh(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Customer locked: {} {}", customer.getGivenName(), customer.getCurrentState());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_UNLOCK_CUSTOMER
-  )
-  public void customerUnlockedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void customerUnlockedEvent(final String tenant,
                                     final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.UNLOCK_CUSTOMER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Customer unlocked: {} {}", customer.getGivenName(), customer.getCurrentState());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.refresh(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Customer unlocked: {} {}", customer.getGivenName(), customer.getCurrentState());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_CLOSE_CUSTOMER
-  )
-  public void customerClosedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void customerClosedEvent(final String tenant,
                                   final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.CLOSE_CUSTOMER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Customer closed: {} {}", customer.getGivenName(), customer.getCurrentState());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.refresh(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Customer closed: {} {}", customer.getGivenName(), customer.getCurrentState());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_REOPEN_CUSTOMER
-  )
-  public void customerReopenedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void customerReopenedEvent(final String tenant,
                                     final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.REOPEN_CUSTOMER, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Customer reopen: {} {}", customer.getGivenName(), customer.getCurrentState());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.apply(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.refresh(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Customer reopen: {} {}", customer.getGivenName(), customer.getCurrentState());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_PUT_ADDRESS
-  )
-  public void addressChangedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void addressChangedEvent(final String tenant,
                                   final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.PUT_ADDRESS, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Customer address modified: {} {}...", customer.getGivenName(), customer.getAddress().getCountry());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.update(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.refresh(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Customer address modified: {} {}...", customer.getGivenName(), customer.getAddress().getCountry());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_PUT_CONTACT_DETAILS
-  )
-  public void contactDetailsChangedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void contactDetailsChangedEvent(final String tenant,
                                          final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.PUT_CONTACT_DETAILS, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Customer customer = serviceRunner.getCustomerManager().api().findCustomer(identifier);
-        logger.info("Customer contact details modified: {} {}...", customer.getGivenName(), customer.getContactDetails().get(0).getValue());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityUpdateCoalescer.update(tenant, "customer", identifier, () -> {
+      final Customer customer = this.entityCache.refresh(tenant, "customer", identifier,
+          () -> serviceRunner.getCustomerManager().api().findCustomer(identifier));
+      logger.info("Customer contact details modified: {} {}...", customer.getGivenName(), customer.getContactDetails().get(0).getValue());
+    });
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_POST_IDENTIFICATION_CARD
-  )
-  public void identificationCardCreateEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void identificationCardCreateEvent(final String tenant,
                                             final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.POST_IDENTIFICATION_CARD, payload, String.class);
 
@@ -289,11 +223,7 @@ public class CustomerListener {
     }*/
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_PUT_IDENTIFICATION_CARD
-  )
-  public void identificationCardChangedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void identificationCardChangedEvent(final String tenant,
                                              final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.PUT_IDENTIFICATION_CARD, payload, String.class);
 
@@ -313,51 +243,31 @@ public class CustomerListener {
     }*/
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_DELETE_IDENTIFICATION_CARD
-  )
-  public void identificationCardDeletedEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void identificationCardDeletedEvent(final String tenant,
                                              final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.DELETE_IDENTIFICATION_CARD, payload, String.class);
     logger.info("Identification card delete event {}", payload);
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_POST_IDENTIFICATION_CARD_SCAN
-  )
-  public void identificationCardScanCreateEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void identificationCardScanCreateEvent(final String tenant,
                                                 final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.POST_IDENTIFICATION_CARD_SCAN, payload, ScanEvent.class);
     logger.info("Identification card scan create event {}", payload);
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_DELETE_IDENTIFICATION_CARD_SCAN
-  )
-  public void identificationCardScanDeleteEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void identificationCardScanDeleteEvent(final String tenant,
                                                 final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.DELETE_IDENTIFICATION_CARD_SCAN, payload, ScanEvent.class);
     logger.info("Identification card scan delete event {}", payload);
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_PUT_PORTRAIT
-  )
-  public void portraitPutEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void portraitPutEvent(final String tenant,
                                final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.POST_PORTRAIT, payload, String.class);
     logger.info("Portrait put event {}", payload);
   }
 
-  @JmsListener(
-          destination = CustomerEventConstants.DESTINATION,
-          selector = CustomerEventConstants.SELECTOR_DELETE_PORTRAIT
-  )
-  public void portraitDeleteEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void portraitDeleteEvent(final String tenant,
                                   final String payload) {
     this.eventRecorder.event(tenant, CustomerEventConstants.DELETE_PORTRAIT, payload, String.class);
     logger.info("Portrait delete event {}", payload);
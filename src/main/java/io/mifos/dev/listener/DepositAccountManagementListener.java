@@ -16,31 +16,65 @@
 package io.mifos.dev.listener;
 
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
 import io.mifos.deposit.api.v1.EventConstants;
+import io.mifos.dev.dispatch.EventDispatchTable;
+import io.mifos.dev.dispatch.PartitionedListenerConfiguration;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.metrics.ListenerMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 @SuppressWarnings("unused")
 @Component
 public class DepositAccountManagementListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
+  private final EventDispatchTable dispatchTable;
 
   @Autowired
-  public DepositAccountManagementListener(final EventRecorder eventRecorder) {
+  public DepositAccountManagementListener(final TenantEventRecorder eventRecorder,
+                                          final ListenerMetrics listenerMetrics) {
     this.eventRecorder = eventRecorder;
+    this.dispatchTable = new EventDispatchTable(EventConstants.DESTINATION, listenerMetrics)
+        .on(EventConstants.SELECTOR_INITIALIZE, this::onInitialized)
+        .on(EventConstants.SELECTOR_POST_PRODUCT_DEFINITION, this::onCreateProductDefinition)
+        .on(EventConstants.SELECTOR_POST_PRODUCT_DEFINITION_COMMAND, this::onProductDefinitionCommand)
+        .on(EventConstants.SELECTOR_POST_PRODUCT_INSTANCE, this::onCreateProductInstance);
   }
 
   @JmsListener(
       subscription = EventConstants.DESTINATION,
       destination = EventConstants.DESTINATION,
-      selector = EventConstants.SELECTOR_INITIALIZE
+      containerFactory = PartitionedListenerConfiguration.CONTAINER_FACTORY
   )
-  public void onInitialized(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                      @Headers final Map<String, Object> headers,
+                      final String payload) throws Exception {
+    this.dispatchTable.dispatch(tenant, headers, payload);
+  }
+
+  public void onInitialized(final String tenant,
                             final String payload) {
     this.eventRecorder.event(tenant, EventConstants.INITIALIZE, payload, String.class);
   }
+
+  public void onCreateProductDefinition(final String tenant,
+                                        final String payload) {
+    this.eventRecorder.event(tenant, EventConstants.POST_PRODUCT_DEFINITION, payload, String.class);
+  }
+
+  public void onProductDefinitionCommand(final String tenant,
+                                         final String payload) {
+    this.eventRecorder.event(tenant, EventConstants.POST_PRODUCT_DEFINITION_COMMAND, payload, String.class);
+  }
+
+  public void onCreateProductInstance(final String tenant,
+                                      final String payload) {
+    this.eventRecorder.event(tenant, EventConstants.POST_PRODUCT_INSTANCE, payload, String.class);
+  }
 }
@@ -15,14 +15,17 @@
  */
 package io.mifos.dev.listener;
 
-import io.mifos.core.api.context.AutoGuest;
-import io.mifos.core.api.context.AutoUserContext;
-import io.mifos.core.lang.AutoTenantContext;
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
 import io.mifos.dev.ServiceRunner;
-import io.mifos.dev.helper.StringHelper;
-import io.mifos.identity.api.v1.domain.Authentication;
+import io.mifos.dev.cache.EntityCache;
+import io.mifos.dev.dispatch.EventDispatchTable;
+import io.mifos.dev.dispatch.PartitionedListenerConfiguration;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.helper.PayloadDecoder;
+import io.mifos.dev.metrics.ListenerMetrics;
+import io.mifos.dev.sync.SyncOperation;
+import io.mifos.dev.sync.SyncOutbox;
+import io.mifos.dev.sync.SyncUserSession;
 import io.mifos.identity.api.v1.domain.PermittableGroup;
 import io.mifos.identity.api.v1.domain.Role;
 import io.mifos.identity.api.v1.domain.User;
@@ -35,8 +38,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 /**
  * @author Myrle Krantz
  */
@@ -44,7 +50,11 @@ import org.springframework.stereotype.Component;
 @Component
 public class IdentityListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
+  private final EventDispatchTable dispatchTable;
+  private final EntityCache entityCache;
+  private final SyncUserSession syncUserSession;
+  private final SyncOutbox syncOutbox;
 
   private final ServiceRunner serviceRunner = new ServiceRunner();
 
@@ -53,208 +63,146 @@ public class IdentityListener {
   private Logger logger;
 
   @Autowired
-  public IdentityListener(final EventRecorder eventRecorder) {
+  public IdentityListener(final TenantEventRecorder eventRecorder,
+                          final EntityCache entityCache,
+                          final SyncUserSession syncUserSession,
+                          final SyncOutbox syncOutbox,
+                          final ListenerMetrics listenerMetrics) {
     this.eventRecorder = eventRecorder;
+    this.entityCache = entityCache;
+    this.syncUserSession = syncUserSession;
+    this.syncOutbox = syncOutbox;
+    this.dispatchTable = new EventDispatchTable(EventConstants.DESTINATION, listenerMetrics)
+        .on(EventConstants.SELECTOR_POST_USER, this::onCreateUser)
+        .on(EventConstants.SELECTOR_PUT_USER_ROLEIDENTIFIER, this::onChangeUserRole)
+        .on(EventConstants.SELECTOR_PUT_USER_PASSWORD, this::onChangeUserPassword)
+        .on(EventConstants.SELECTOR_POST_PERMITTABLE_GROUP, this::onCreatePermittableGroup)
+        .on(EventConstants.SELECTOR_POST_APPLICATION_PERMISSION, this::onCreateApplicationPermission)
+        .on(EventConstants.SELECTOR_PUT_APPLICATION_SIGNATURE, this::onSetApplicationSignature)
+        .on(EventConstants.SELECTOR_PUT_APPLICATION_PERMISSION_USER_ENABLED, this::onPutApplicationPermissionEnabledForUser)
+        .on(EventConstants.SELECTOR_POST_ROLE, this::onCreateRole)
+        .on(EventConstants.SELECTOR_PUT_ROLE, this::onChangeRole)
+        .on(EventConstants.SELECTOR_DELETE_ROLE, this::onDeleteRole);
   }
 
   @JmsListener(
           subscription = EventConstants.DESTINATION,
           destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_USER
+          containerFactory = PartitionedListenerConfiguration.CONTAINER_FACTORY
   )
+  public void onEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                      @Headers final Map<String, Object> headers,
+                      final String payload) throws Exception {
+    this.dispatchTable.dispatch(tenant, headers, payload);
+  }
+
   public void onCreateUser(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_POST_USER, payload, String.class);
 
-    final String identifier = StringHelper.cleanString(payload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final User user = serviceRunner.getIdentityManager().api().getUser(identifier);
-        serviceRunner.getSyncManager().api().createUser(user);
-        logger.info("Synced created user {} with role {}", user.getIdentifier(), user.getRole());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final User user = this.entityCache.get(tenant, "user", identifier,
+          () -> serviceRunner.getIdentityManager().api().getUser(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.CREATE_USER, identifier, user);
+      logger.info("Synced created user {} with role {}", user.getIdentifier(), user.getRole());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_USER_ROLEIDENTIFIER
-  )
   public void onChangeUserRole(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_PUT_USER_ROLEIDENTIFIER, payload, String.class);
 
-    final String identifier = StringHelper.cleanString(payload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final User user = serviceRunner.getIdentityManager().api().getUser(identifier);
-        serviceRunner.getSyncManager().api().updateUser(user);
-        logger.info("Synced Updated user {} role {}", user.getIdentifier(), user.getRole());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final User user = this.entityCache.refresh(tenant, "user", identifier,
+          () -> serviceRunner.getIdentityManager().api().getUser(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_USER, identifier, user);
+      logger.info("Synced Updated user {} role {}", user.getIdentifier(), user.getRole());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_USER_PASSWORD
-  )
   public void onChangeUserPassword(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_PUT_USER_PASSWORD, payload, String.class);
 
-    final String identifier = StringHelper.cleanString(payload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final User user = serviceRunner.getIdentityManager().api().getUser(identifier);
-        serviceRunner.getSyncManager().api().updateUser(user);
-        logger.info("Updated user {} password", user.getIdentifier());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final User user = this.entityCache.refresh(tenant, "user", identifier,
+          () -> serviceRunner.getIdentityManager().api().getUser(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_USER, identifier, user);
+      logger.info("Updated user {} password", user.getIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_PERMITTABLE_GROUP
-  )
   public void onCreatePermittableGroup(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_POST_PERMITTABLE_GROUP, payload, String.class);
-    final String identifier = StringHelper.cleanString(payload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final PermittableGroup permittableGroup = serviceRunner.getIdentityManager().api().getPermittableGroup(identifier);
-        serviceRunner.getSyncManager().api().createPermittableGroup(permittableGroup);
-        logger.info("Synced Created Permiitablegroup {} password", permittableGroup.getIdentifier());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final PermittableGroup permittableGroup = this.entityCache.get(tenant, "permittable group", identifier,
+          () -> serviceRunner.getIdentityManager().api().getPermittableGroup(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.CREATE_PERMITTABLE_GROUP, identifier, permittableGroup);
+      logger.info("Synced Created Permiitablegroup {} password", permittableGroup.getIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_APPLICATION_PERMISSION
-  )
   public void onCreateApplicationPermission(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_POST_APPLICATION_PERMISSION, payload, ApplicationPermissionEvent.class);
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_APPLICATION_SIGNATURE
-  )
   public void onSetApplicationSignature(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_PUT_APPLICATION_SIGNATURE, payload, ApplicationSignatureEvent.class);
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_APPLICATION_PERMISSION_USER_ENABLED
-  )
   public void onPutApplicationPermissionEnabledForUser(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_PUT_APPLICATION_PERMISSION_USER_ENABLED, payload, ApplicationPermissionUserEvent.class);
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_ROLE
-  )
   public void onCreateRole(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_POST_ROLE, payload, String.class);
 
-    final String identifier = StringHelper.cleanString(payload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Role role = serviceRunner.getIdentityManager().api().getRole(identifier);
-        logger.info("Created role, {}", role.getIdentifier());
-        role.getPermissions().forEach(permission -> logger.info("{}", permission.getPermittableEndpointGroupIdentifier()));
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final Role role = this.entityCache.get(tenant, "role", identifier,
+          () -> serviceRunner.getIdentityManager().api().getRole(identifier));
+      logger.info("Created role, {}", role.getIdentifier());
+      role.getPermissions().forEach(permission -> logger.info("{}", permission.getPermittableEndpointGroupIdentifier()));
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_ROLE
-  )
   public void onChangeRole(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_PUT_ROLE, payload, String.class);
 
-    final String identifier = StringHelper.cleanString(payload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Role role = serviceRunner.getIdentityManager().api().getRole(identifier);
-        logger.info("Updated role, {}", role.getIdentifier());
-        role.getPermissions().forEach(permission -> logger.info("{}", permission.getPermittableEndpointGroupIdentifier()));
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final Role role = this.entityCache.refresh(tenant, "role", identifier,
+          () -> serviceRunner.getIdentityManager().api().getRole(identifier));
+      logger.info("Updated role, {}", role.getIdentifier());
+      role.getPermissions().forEach(permission -> logger.info("{}", permission.getPermittableEndpointGroupIdentifier()));
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_ROLE
-  )
   public void onDeleteRole(
-          @Header(TenantHeaderFilter.TENANT_HEADER)final String tenant,
+          final String tenant,
           final String payload) throws Exception {
     eventRecorder.event(tenant, EventConstants.OPERATION_DELETE_ROLE, payload, String.class);
-    final String identifier = StringHelper.cleanString(payload);
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityCache.invalidate(tenant, "role", identifier);
     logger.info("Deleted role, {}", identifier);
   }
 }
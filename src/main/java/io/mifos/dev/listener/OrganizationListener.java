@@ -15,14 +15,17 @@
  */
 package io.mifos.dev.listener;
 
-import io.mifos.core.api.context.AutoGuest;
-import io.mifos.core.api.context.AutoUserContext;
-import io.mifos.core.lang.AutoTenantContext;
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
 import io.mifos.dev.ServiceRunner;
-import io.mifos.dev.helper.StringHelper;
-import io.mifos.identity.api.v1.domain.Authentication;
+import io.mifos.dev.cache.EntityCache;
+import io.mifos.dev.dispatch.EventDispatchTable;
+import io.mifos.dev.dispatch.PartitionedListenerConfiguration;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.helper.PayloadDecoder;
+import io.mifos.dev.metrics.ListenerMetrics;
+import io.mifos.dev.sync.EntityUpdateCoalescer;
+import io.mifos.dev.sync.SyncOperation;
+import io.mifos.dev.sync.SyncOutbox;
 import io.mifos.office.api.v1.EventConstants;
 import io.mifos.office.api.v1.domain.Employee;
 import io.mifos.office.api.v1.domain.Office;
@@ -31,8 +34,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 /**
  * @author Myrle Krantz
  */
@@ -40,7 +46,11 @@ import org.springframework.stereotype.Component;
 @Component
 public class OrganizationListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
+  private final EventDispatchTable dispatchTable;
+  private final EntityCache entityCache;
+  private final EntityUpdateCoalescer entityUpdateCoalescer;
+  private final SyncOutbox syncOutbox;
 
   private final ServiceRunner serviceRunner = new ServiceRunner();
 
@@ -49,257 +59,170 @@ public class OrganizationListener {
   private Logger logger;
 
   @Autowired
-  public OrganizationListener(final EventRecorder eventRecorder) {
+  public OrganizationListener(final TenantEventRecorder eventRecorder,
+                              final EntityCache entityCache,
+                              final EntityUpdateCoalescer entityUpdateCoalescer,
+                              final SyncOutbox syncOutbox,
+                              final ListenerMetrics listenerMetrics) {
     this.eventRecorder = eventRecorder;
+    this.entityCache = entityCache;
+    this.entityUpdateCoalescer = entityUpdateCoalescer;
+    this.syncOutbox = syncOutbox;
+    this.dispatchTable = new EventDispatchTable(EventConstants.DESTINATION, listenerMetrics)
+        .on(EventConstants.SELECTOR_INITIALIZE, this::onInitialized)
+        .on(EventConstants.SELECTOR_POST_EMPLOYEE, this::onCreateEmployee)
+        .on(EventConstants.SELECTOR_PUT_EMPLOYEE, this::onUpdateEmployee)
+        .on(EventConstants.SELECTOR_DELETE_EMPLOYEE, this::onDeleteEmployee)
+        .on(EventConstants.SELECTOR_PUT_CONTACT_DETAIL, this::onSetContactDetail)
+        .on(EventConstants.SELECTOR_DELETE_CONTACT_DETAIL, this::onDeleteContactDetail)
+        .on(EventConstants.SELECTOR_POST_OFFICE, this::onCreateOffice)
+        .on(EventConstants.SELECTOR_PUT_OFFICE, this::onUpdateOffice)
+        .on(EventConstants.SELECTOR_DELETE_OFFICE, this::onDeleteOffice)
+        .on(EventConstants.SELECTOR_PUT_ADDRESS, this::onSetAddress)
+        .on(EventConstants.SELECTOR_DELETE_ADDRESS, this::onDeleteAddress)
+        .on(EventConstants.SELECTOR_PUT_REFERENCE, this::onPutAReference);
   }
 
   @JmsListener(
           subscription = EventConstants.DESTINATION,
           destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_INITIALIZE
+          containerFactory = PartitionedListenerConfiguration.CONTAINER_FACTORY
   )
-  public void onInitialized(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                      @Headers final Map<String, Object> headers,
+                      final String payload) throws Exception {
+    this.dispatchTable.dispatch(tenant, headers, payload);
+  }
+
+  public void onInitialized(final String tenant,
                             final String payload) {
     this.eventRecorder.event(tenant, EventConstants.INITIALIZE, payload, String.class);
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_EMPLOYEE
-  )
-  public void onCreateEmployee(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCreateEmployee(final String tenant,
                                final String eventPayload) throws Exception {
-
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Employee employee = serviceRunner.getOrganizationManager().api().findEmployee(identifier);
-        serviceRunner.getSyncManager().api().createEmployee(employee);
-        logger.info("Synced newly create employee {}", employee.getIdentifier());
-      }
-    }
+    this.eventRecorder.event(tenant, EventConstants.POST_EMPLOYEE, eventPayload, String.class);
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.apply(tenant, "employee", identifier, () -> {
+      final Employee employee = this.entityCache.get(tenant, "employee", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findEmployee(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.CREATE_EMPLOYEE, identifier, employee);
+      logger.info("Synced newly create employee {}", employee.getIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_EMPLOYEE
-  )
-  public void onUpdateEmployee(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onUpdateEmployee(final String tenant,
                                final String eventPayload) throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Employee employee = serviceRunner.getOrganizationManager().api().findEmployee(identifier);
-        serviceRunner.getSyncManager().api().updateEmployee(employee);
-        logger.info("Synced update employee {}", employee.getIdentifier());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.update(tenant, "employee", identifier, () -> {
+      final Employee employee = this.entityCache.refresh(tenant, "employee", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findEmployee(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_EMPLOYEE, identifier, employee);
+      logger.info("Synced update employee {}", employee.getIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_EMPLOYEE
-  )
-  public void onDeleteEmployee(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteEmployee(final String tenant,
                                final String eventPayload) throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    serviceRunner.getSyncManager().api().deleteEmployee(identifier);
-    logger.info("Synced delete Employee {}", identifier);
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityCache.invalidate(tenant, "employee", identifier);
+    this.entityUpdateCoalescer.delete(tenant, "employee", identifier, () -> {
+      this.syncOutbox.append(tenant, SyncOperation.DELETE_EMPLOYEE, identifier, identifier);
+      logger.info("Synced delete Employee {}", identifier);
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_CONTACT_DETAIL
-  )
-  public void onSetContactDetail(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onSetContactDetail(final String tenant,
                                  final String eventPayload) throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Employee employee = serviceRunner.getOrganizationManager().api().findEmployee(identifier);
-        serviceRunner.getSyncManager().api().updateEmployee(employee);
-        logger.info("Synced contact details {}", employee.getIdentifier());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.update(tenant, "employee", identifier, () -> {
+      final Employee employee = this.entityCache.refresh(tenant, "employee", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findEmployee(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_EMPLOYEE, identifier, employee);
+      logger.info("Synced contact details {}", employee.getIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_CONTACT_DETAIL
-  )
-  public void onDeleteContactDetail(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteContactDetail(final String tenant,
                                     final String eventPayload) throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Employee employee = serviceRunner.getOrganizationManager().api().findEmployee(identifier);
-        serviceRunner.getSyncManager().api().updateEmployee(employee);
-        logger.info("Synced deleted contact details {}", employee.getIdentifier());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.update(tenant, "employee", identifier, () -> {
+      final Employee employee = this.entityCache.refresh(tenant, "employee", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findEmployee(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_EMPLOYEE, identifier, employee);
+      logger.info("Synced deleted contact details {}", employee.getIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_OFFICE
-  )
-  public void onCreateOffice(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCreateOffice(final String tenant,
                              final String eventPayload)
           throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Office office = serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier);
-        serviceRunner.getSyncManager().api().createOffice(office);
-        logger.info("Sync created office: {}", office.getName());
-
-      }
-    }
+    this.eventRecorder.event(tenant, EventConstants.POST_OFFICE, eventPayload, String.class);
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.apply(tenant, "office", identifier, () -> {
+      final Office office = this.entityCache.get(tenant, "office", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.CREATE_OFFICE, identifier, office);
+      logger.info("Sync created office: {}", office.getName());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_OFFICE
-  )
-  public void onUpdateOffice(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onUpdateOffice(final String tenant,
                              final String eventPayload)
           throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Office office = serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier);
-        serviceRunner.getSyncManager().api().updateOffice(office);
-        logger.info("Sync updated office: {}", office.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.update(tenant, "office", identifier, () -> {
+      final Office office = this.entityCache.refresh(tenant, "office", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_OFFICE, identifier, office);
+      logger.info("Sync updated office: {}", office.getName());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_OFFICE
-  )
-  public void onDeleteOffice(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteOffice(final String tenant,
                              final String eventPayload)
           throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    serviceRunner.getSyncManager().api().deleteOffice(identifier);
-    logger.info("Sync deleted office: {}", identifier);
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityCache.invalidate(tenant, "office", identifier);
+    this.entityUpdateCoalescer.delete(tenant, "office", identifier, () -> {
+      this.syncOutbox.append(tenant, SyncOperation.DELETE_OFFICE, identifier, identifier);
+      logger.info("Sync deleted office: {}", identifier);
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_ADDRESS
-  )
-  public void onSetAddress(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onSetAddress(final String tenant,
                            final String eventPayload)
           throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Office office = serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier);
-        serviceRunner.getSyncManager().api().updateOffice(office);
-        logger.info("Sync set office address: {}", office.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.update(tenant, "office", identifier, () -> {
+      final Office office = this.entityCache.refresh(tenant, "office", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_OFFICE, identifier, office);
+      logger.info("Sync set office address: {}", office.getName());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_ADDRESS
-  )
-  public void onDeleteAddress(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteAddress(final String tenant,
                               final String eventPayload)
           throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Office office = serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier);
-        serviceRunner.getSyncManager().api().updateOffice(office);
-        logger.info("Sync deleted office address: {}", office.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.update(tenant, "office", identifier, () -> {
+      final Office office = this.entityCache.refresh(tenant, "office", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_OFFICE, identifier, office);
+      logger.info("Sync deleted office address: {}", office.getName());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_REFERENCE
-  )
-  public void onPutAReference(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onPutAReference(final String tenant,
                               final String eventPayload)
           throws Exception {
-    final String identifier = StringHelper.cleanString(eventPayload);
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Office office = serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier);
-        serviceRunner.getSyncManager().api().updateOffice(office);
-        logger.info("Sync add put reference: {}", office.getName());
-
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(eventPayload);
+    this.entityUpdateCoalescer.update(tenant, "office", identifier, () -> {
+      final Office office = this.entityCache.refresh(tenant, "office", identifier,
+          () -> serviceRunner.getOrganizationManager().api().findOfficeByIdentifier(identifier));
+      this.syncOutbox.append(tenant, SyncOperation.UPDATE_OFFICE, identifier, office);
+      logger.info("Sync add put reference: {}", office.getName());
+    });
   }
 }
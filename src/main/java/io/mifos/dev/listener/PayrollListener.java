@@ -16,7 +16,7 @@
 package io.mifos.dev.listener;
 
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
+import io.mifos.dev.event.TenantEventRecorder;
 import io.mifos.payroll.api.v1.EventConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jms.annotation.JmsListener;
@@ -26,10 +26,10 @@ import org.springframework.stereotype.Component;
 @SuppressWarnings("unused")
 @Component
 public class PayrollListener {
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
 
   @Autowired
-  public PayrollListener(final EventRecorder eventRecorder) {
+  public PayrollListener(final TenantEventRecorder eventRecorder) {
     this.eventRecorder = eventRecorder;
   }
 
@@ -15,15 +15,15 @@
  */
 package io.mifos.dev.listener;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import io.mifos.core.api.context.AutoGuest;
-import io.mifos.core.api.context.AutoUserContext;
-import io.mifos.core.lang.AutoTenantContext;
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
 import io.mifos.dev.ServiceRunner;
-import io.mifos.identity.api.v1.domain.Authentication;
+import io.mifos.dev.cache.EntityCache;
+import io.mifos.dev.dispatch.EventDispatchTable;
+import io.mifos.dev.dispatch.PartitionedListenerConfiguration;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.helper.PayloadDecoder;
+import io.mifos.dev.metrics.ListenerMetrics;
+import io.mifos.dev.sync.SyncUserSession;
 import io.mifos.portfolio.api.v1.domain.BalanceSegmentSet;
 import io.mifos.portfolio.api.v1.domain.Case;
 import io.mifos.portfolio.api.v1.domain.ChargeDefinition;
@@ -37,8 +37,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 /**
  * @author Myrle Krantz
  */
@@ -46,7 +49,10 @@ import org.springframework.stereotype.Component;
 @Component
 public class PortfolioListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
+  private final EventDispatchTable dispatchTable;
+  private final EntityCache entityCache;
+  private final SyncUserSession syncUserSession;
 
   private final ServiceRunner serviceRunner = new ServiceRunner();
 
@@ -55,270 +61,183 @@ public class PortfolioListener {
   private Logger logger;
 
   @Autowired
-  public PortfolioListener(final EventRecorder eventRecorder) {
+  public PortfolioListener(final TenantEventRecorder eventRecorder,
+                           final EntityCache entityCache,
+                           final SyncUserSession syncUserSession,
+                           final ListenerMetrics listenerMetrics) {
     this.eventRecorder = eventRecorder;
+    this.entityCache = entityCache;
+    this.syncUserSession = syncUserSession;
+    this.dispatchTable = new EventDispatchTable(EventConstants.DESTINATION, listenerMetrics)
+        .on(EventConstants.SELECTOR_INITIALIZE, this::onInitialization)
+        .on(EventConstants.SELECTOR_POST_PRODUCT, this::onCreateProduct)
+        .on(EventConstants.SELECTOR_PUT_PRODUCT, this::onChangeProduct)
+        .on(EventConstants.SELECTOR_PUT_PRODUCT_ENABLE, this::onEnableProduct)
+        .on(EventConstants.SELECTOR_DELETE_PRODUCT, this::onDeleteProduct)
+        .on(EventConstants.SELECTOR_POST_CHARGE_DEFINITION, this::onCreateProductChargeDefinition)
+        .on(EventConstants.SELECTOR_PUT_CHARGE_DEFINITION, this::onChangeProductChargeDefinition)
+        .on(EventConstants.SELECTOR_DELETE_PRODUCT_CHARGE_DEFINITION, this::onDeleteProductChargeDefinition)
+        .on(EventConstants.SELECTOR_POST_CASE, this::onCreateCase)
+        .on(EventConstants.SELECTOR_PUT_CASE, this::onChangeCase)
+        .on(EventConstants.SELECTOR_POST_BALANCE_SEGMENT_SET, this::onCreateBalanceSegmentSet)
+        .on(EventConstants.SELECTOR_PUT_BALANCE_SEGMENT_SET, this::onChangeBalanceSegmentSet)
+        .on(EventConstants.SELECTOR_DELETE_BALANCE_SEGMENT_SET, this::onDeleteBalanceSegmentSet);
   }
 
   @JmsListener(
           subscription = EventConstants.DESTINATION,
           destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_INITIALIZE
+          containerFactory = PartitionedListenerConfiguration.CONTAINER_FACTORY
   )
-  public void onInitialization(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                      @Headers final Map<String, Object> headers,
+                      final String payload) throws Exception {
+    this.dispatchTable.dispatch(tenant, headers, payload);
+  }
+
+  public void onInitialization(final String tenant,
                                final String payload) {
     this.eventRecorder.event(tenant, EventConstants.INITIALIZE, payload, String.class);
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_PRODUCT
-  )
-  public void onCreateProduct(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCreateProduct(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.POST_PRODUCT, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Product product = serviceRunner.getPortfolioManager().api().getProduct(identifier);
-        logger.info("Create product {}", product.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final Product product = this.entityCache.get(tenant, "product", identifier,
+          () -> serviceRunner.getPortfolioManager().api().getProduct(identifier));
+      logger.info("Create product {}", product.getName());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_PRODUCT
-  )
-  public void onChangeProduct(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onChangeProduct(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.PUT_PRODUCT, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Product product = serviceRunner.getPortfolioManager().api().getProduct(identifier);
-        logger.info("Update product {}", product.getName());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final Product product = this.entityCache.refresh(tenant, "product", identifier,
+          () -> serviceRunner.getPortfolioManager().api().getProduct(identifier));
+      logger.info("Update product {}", product.getName());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_PRODUCT_ENABLE
-  )
-  public void onEnableProduct(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onEnableProduct(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.PUT_PRODUCT_ENABLE, payload, String.class);
 
-    final String identifier = payload.replaceAll("^\"|\"$", "");
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Product product = serviceRunner.getPortfolioManager().api().getProduct(identifier);
-        logger.info("Enable product: {} {}", product.getName(), product.isEnabled());
-      }
-    }
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.syncUserSession.run(tenant, () -> {
+      final Product product = this.entityCache.refresh(tenant, "product", identifier,
+          () -> serviceRunner.getPortfolioManager().api().getProduct(identifier));
+      logger.info("Enable product: {} {}", product.getName(), product.isEnabled());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_PRODUCT
-  )
-  public void onDeleteProduct(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteProduct(final String tenant,
                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.DELETE_PRODUCT, payload, String.class);
-    final String identifier = payload.replaceAll("^\"|\"$", "");
+    final String identifier = PayloadDecoder.identifier(payload);
+    this.entityCache.invalidate(tenant, "product", identifier);
     logger.info("Deleted product, {}", identifier);
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_CHARGE_DEFINITION
-  )
-  public void onCreateProductChargeDefinition(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCreateProductChargeDefinition(final String tenant,
                                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.POST_CHARGE_DEFINITION, payload, ChargeDefinitionEvent.class);
 
-    final JsonObject jsonObj = new JsonParser().parse(payload).getAsJsonObject();
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final ChargeDefinition chargeDefinition = serviceRunner.getPortfolioManager().api().getChargeDefinition(jsonObj.get("productIdentifier").getAsString(), jsonObj.get("chargeDefinitionIdentifier").getAsString());
-        logger.info("Create product charge definition: {}", chargeDefinition.getName());
-      }
-    }
+    final String productIdentifier = PayloadDecoder.field(payload, "productIdentifier");
+    final String chargeDefinitionIdentifier = PayloadDecoder.field(payload, "chargeDefinitionIdentifier");
+    this.syncUserSession.run(tenant, () -> {
+      final ChargeDefinition chargeDefinition = this.entityCache.get(tenant, "charge definition", productIdentifier + "/" + chargeDefinitionIdentifier,
+          () -> serviceRunner.getPortfolioManager().api().getChargeDefinition(productIdentifier, chargeDefinitionIdentifier));
+      logger.info("Create product charge definition: {}", chargeDefinition.getName());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_CHARGE_DEFINITION
-  )
-  public void onChangeProductChargeDefinition(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onChangeProductChargeDefinition(final String tenant,
                                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.PUT_CHARGE_DEFINITION, payload, ChargeDefinitionEvent.class);
 
-    final JsonObject jsonObj = new JsonParser().parse(payload).getAsJsonObject();
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final ChargeDefinition chargeDefinition = serviceRunner.getPortfolioManager().api().getChargeDefinition(jsonObj.get("productIdentifier").getAsString(), jsonObj.get("chargeDefinitionIdentifier").getAsString());
-        logger.info("Update product charge definition: {}", chargeDefinition.getName());
-      }
-    }
+    final String productIdentifier = PayloadDecoder.field(payload, "productIdentifier");
+    final String chargeDefinitionIdentifier = PayloadDecoder.field(payload, "chargeDefinitionIdentifier");
+    this.syncUserSession.run(tenant, () -> {
+      final ChargeDefinition chargeDefinition = this.entityCache.refresh(tenant, "charge definition", productIdentifier + "/" + chargeDefinitionIdentifier,
+          () -> serviceRunner.getPortfolioManager().api().getChargeDefinition(productIdentifier, chargeDefinitionIdentifier));
+      logger.info("Update product charge definition: {}", chargeDefinition.getName());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_PRODUCT_CHARGE_DEFINITION
-  )
-  public void onDeleteProductChargeDefinition(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteProductChargeDefinition(final String tenant,
                                               final String payload) {
     this.eventRecorder.event(tenant, EventConstants.DELETE_PRODUCT_CHARGE_DEFINITION, payload, ChargeDefinitionEvent.class);
-    final JsonObject jsonObj = new JsonParser().parse(payload).getAsJsonObject();
-    logger.info("Deleted product charge: {}, for product {}", jsonObj.get("productIdentifier").getAsString(), jsonObj.get("chargeDefinitionIdentifier").getAsString());
+    final String productIdentifier = PayloadDecoder.field(payload, "productIdentifier");
+    final String chargeDefinitionIdentifier = PayloadDecoder.field(payload, "chargeDefinitionIdentifier");
+    this.entityCache.invalidate(tenant, "charge definition", productIdentifier + "/" + chargeDefinitionIdentifier);
+    logger.info("Deleted product charge: {}, for product {}", productIdentifier, chargeDefinitionIdentifier);
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_CASE
-  )
-  public void onCreateCase(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCreateCase(final String tenant,
                            final String payload) {
     this.eventRecorder.event(tenant, EventConstants.POST_CASE, payload, CaseEvent.class);
 
-    final JsonObject jsonObj = new JsonParser().parse(payload).getAsJsonObject();
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Case newCase = serviceRunner.getPortfolioManager().api().getCase(jsonObj.get("productIdentifier").getAsString(), jsonObj.get("caseIdentifier").getAsString());
-        logger.info("Create case: {}", newCase.getProductIdentifier());
-      }
-    }
+    final String productIdentifier = PayloadDecoder.field(payload, "productIdentifier");
+    final String caseIdentifier = PayloadDecoder.field(payload, "caseIdentifier");
+    this.syncUserSession.run(tenant, () -> {
+      final Case newCase = this.entityCache.get(tenant, "case", productIdentifier + "/" + caseIdentifier,
+          () -> serviceRunner.getPortfolioManager().api().getCase(productIdentifier, caseIdentifier));
+      logger.info("Create case: {}", newCase.getProductIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_CASE
-  )
-  public void onChangeCase(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onChangeCase(final String tenant,
                            final String payload) {
     this.eventRecorder.event(tenant, EventConstants.PUT_CASE, payload, CaseEvent.class);
 
-    final JsonObject jsonObj = new JsonParser().parse(payload).getAsJsonObject();
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final Case newCase = serviceRunner.getPortfolioManager().api().getCase(jsonObj.get("productIdentifier").getAsString(), jsonObj.get("caseIdentifier").getAsString());
-        logger.info("Update case: {}", newCase.getProductIdentifier());
-      }
-    }
+    final String productIdentifier = PayloadDecoder.field(payload, "productIdentifier");
+    final String caseIdentifier = PayloadDecoder.field(payload, "caseIdentifier");
+    this.syncUserSession.run(tenant, () -> {
+      final Case newCase = this.entityCache.refresh(tenant, "case", productIdentifier + "/" + caseIdentifier,
+          () -> serviceRunner.getPortfolioManager().api().getCase(productIdentifier, caseIdentifier));
+      logger.info("Update case: {}", newCase.getProductIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_BALANCE_SEGMENT_SET
-  )
-  public void onCreateBalanceSegmentSet(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCreateBalanceSegmentSet(final String tenant,
                                         final String payload) {
     this.eventRecorder.event(tenant, EventConstants.POST_BALANCE_SEGMENT_SET, payload, BalanceSegmentSetEvent.class);
 
-    final JsonObject jsonObj = new JsonParser().parse(payload).getAsJsonObject();
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final BalanceSegmentSet balanceSegmentSet = serviceRunner.getPortfolioManager().api().getBalanceSegmentSet(jsonObj.get("productIdentifier").getAsString(), jsonObj.get("balanceSegmentSetIdentifier").getAsString());
-        logger.info("Create balance segment set: {}", balanceSegmentSet.getIdentifier());
-      }
-    }
+    final String productIdentifier = PayloadDecoder.field(payload, "productIdentifier");
+    final String balanceSegmentSetIdentifier = PayloadDecoder.field(payload, "balanceSegmentSetIdentifier");
+    this.syncUserSession.run(tenant, () -> {
+      final BalanceSegmentSet balanceSegmentSet = this.entityCache.get(tenant, "balance segment set", productIdentifier + "/" + balanceSegmentSetIdentifier,
+          () -> serviceRunner.getPortfolioManager().api().getBalanceSegmentSet(productIdentifier, balanceSegmentSetIdentifier));
+      logger.info("Create balance segment set: {}", balanceSegmentSet.getIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_PUT_BALANCE_SEGMENT_SET
-  )
-  public void onChangeBalanceSegmentSet(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onChangeBalanceSegmentSet(final String tenant,
                                         final String payload) {
     this.eventRecorder.event(tenant, EventConstants.PUT_BALANCE_SEGMENT_SET, payload, BalanceSegmentSetEvent.class);
 
-    final JsonObject jsonObj = new JsonParser().parse(payload).getAsJsonObject();
-    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
-      final Authentication syncGatewayAuthentication;
-
-      try (final AutoGuest ignored2 = new AutoGuest()) {
-        syncGatewayAuthentication = serviceRunner.getIdentityManager().api().login(serviceRunner.getSyncUser().getIdentifier(), serviceRunner.getSyncUser().getPassword());
-      }
-
-      try (final AutoUserContext ignored2 = new AutoUserContext(serviceRunner.getSyncUser().getIdentifier(), syncGatewayAuthentication.getAccessToken())) {
-        final BalanceSegmentSet balanceSegmentSet = serviceRunner.getPortfolioManager().api().getBalanceSegmentSet(jsonObj.get("productIdentifier").getAsString(), jsonObj.get("balanceSegmentSetIdentifier").getAsString());
-        logger.info("Update balance segment set: {}", balanceSegmentSet.getIdentifier());
-      }
-    }
+    final String productIdentifier = PayloadDecoder.field(payload, "productIdentifier");
+    final String balanceSegmentSetIdentifier = PayloadDecoder.field(payload, "balanceSegmentSetIdentifier");
+    this.syncUserSession.run(tenant, () -> {
+      final BalanceSegmentSet balanceSegmentSet = this.entityCache.refresh(tenant, "balance segment set", productIdentifier + "/" + balanceSegmentSetIdentifier,
+          () -> serviceRunner.getPortfolioManager().api().getBalanceSegmentSet(productIdentifier, balanceSegmentSetIdentifier));
+      logger.info("Update balance segment set: {}", balanceSegmentSet.getIdentifier());
+    });
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_DELETE_BALANCE_SEGMENT_SET
-  )
-  public void onDeleteBalanceSegmentSet(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onDeleteBalanceSegmentSet(final String tenant,
                                         final String payload) {
     this.eventRecorder.event(tenant, EventConstants.DELETE_BALANCE_SEGMENT_SET, payload, BalanceSegmentSetEvent.class);
-    final JsonObject jsonObj = new JsonParser().parse(payload).getAsJsonObject();
-    logger.info("Delete balance segment set: {}", jsonObj.get("productIdentifier").getAsString(), jsonObj.get("balanceSegmentSetIdentifier").getAsString());
+    final String productIdentifier = PayloadDecoder.field(payload, "productIdentifier");
+    final String balanceSegmentSetIdentifier = PayloadDecoder.field(payload, "balanceSegmentSetIdentifier");
+    this.entityCache.invalidate(tenant, "balance segment set", productIdentifier + "/" + balanceSegmentSetIdentifier);
+    logger.info("Delete balance segment set: {}", productIdentifier, balanceSegmentSetIdentifier);
   }
 
 }
\ No newline at end of file
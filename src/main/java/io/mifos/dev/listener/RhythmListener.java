@@ -16,14 +16,19 @@
 package io.mifos.dev.listener;
 
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
+import io.mifos.dev.dispatch.EventDispatchTable;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.metrics.ListenerMetrics;
 import io.mifos.rhythm.api.v1.events.BeatEvent;
 import io.mifos.rhythm.api.v1.events.EventConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jms.annotation.JmsListener;
 import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+
 /**
  * @author Myrle Krantz
  */
@@ -31,29 +36,34 @@ import org.springframework.stereotype.Component;
 @Component
 public class RhythmListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
+  private final EventDispatchTable dispatchTable;
 
   @Autowired
-  public RhythmListener(final EventRecorder eventRecorder) {
+  public RhythmListener(final TenantEventRecorder eventRecorder,
+                        final ListenerMetrics listenerMetrics) {
     this.eventRecorder = eventRecorder;
+    this.dispatchTable = new EventDispatchTable(EventConstants.DESTINATION, listenerMetrics)
+        .on(EventConstants.SELECTOR_INITIALIZE, this::onInitialization)
+        .on(EventConstants.SELECTOR_POST_BEAT, this::onCreateBeat);
   }
 
   @JmsListener(
           subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_INITIALIZE
+          destination = EventConstants.DESTINATION
   )
-  public void onInitialization(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onEvent(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+                      @Headers final Map<String, Object> headers,
+                      final String payload) throws Exception {
+    this.dispatchTable.dispatch(tenant, headers, payload);
+  }
+
+  public void onInitialization(final String tenant,
                                final String payload) {
     this.eventRecorder.event(tenant, EventConstants.INITIALIZE, payload, String.class);
   }
 
-  @JmsListener(
-          subscription = EventConstants.DESTINATION,
-          destination = EventConstants.DESTINATION,
-          selector = EventConstants.SELECTOR_POST_BEAT
-  )
-  public void onCreateBeat(@Header(TenantHeaderFilter.TENANT_HEADER) final String tenant,
+  public void onCreateBeat(final String tenant,
                            final String payload) {
     this.eventRecorder.event(tenant, EventConstants.POST_BEAT, payload, BeatEvent.class);
   }
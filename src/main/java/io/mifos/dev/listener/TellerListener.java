@@ -16,7 +16,7 @@
 package io.mifos.dev.listener;
 
 import io.mifos.core.lang.config.TenantHeaderFilter;
-import io.mifos.core.test.listener.EventRecorder;
+import io.mifos.dev.event.TenantEventRecorder;
 import io.mifos.teller.api.v1.EventConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jms.annotation.JmsListener;
@@ -27,10 +27,10 @@ import org.springframework.stereotype.Component;
 @Component
 public class TellerListener {
 
-  private final EventRecorder eventRecorder;
+  private final TenantEventRecorder eventRecorder;
 
   @Autowired
-  public TellerListener(final EventRecorder eventRecorder) {
+  public TellerListener(final TenantEventRecorder eventRecorder) {
     this.eventRecorder = eventRecorder;
   }
 
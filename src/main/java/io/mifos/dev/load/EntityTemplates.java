@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.load;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds the domain objects sent to the services from the JSON templates in /load on the classpath, e.g.
+ * /load/customer.json. Placeholders of the form ${name} are replaced before the JSON is mapped to the domain type, so
+ * the shape of the generated entities can be changed without touching the code. A "parameters" member written as a
+ * nested object is passed on as a string, which is how the portfolio API carries product and case parameters.
+ */
+public class EntityTemplates {
+
+  private static final String PARAMETERS = "parameters";
+
+  private final Gson gson = new Gson();
+  private final JsonParser parser = new JsonParser();
+  private final ConcurrentMap<String, String> templates = new ConcurrentHashMap<>();
+
+  public EntityTemplates() {
+    super();
+  }
+
+  public <T> T create(final String template, final Map<String, String> values, final Class<T> type) {
+    final JsonElement json = this.parser.parse(this.render(template, values));
+    if (json.isJsonObject()) {
+      final JsonObject object = json.getAsJsonObject();
+      final JsonElement parameters = object.get(PARAMETERS);
+      if (parameters != null && parameters.isJsonObject()) {
+        object.add(PARAMETERS, new JsonPrimitive(parameters.toString()));
+      }
+    }
+    return this.gson.fromJson(json, type);
+  }
+
+  public String render(final String template, final Map<String, String> values) {
+    final String text = this.templates.computeIfAbsent(template, EntityTemplates::load);
+    final StringBuilder rendered = new StringBuilder(text.length() + 64);
+    int from = 0;
+    int start;
+    while ((start = text.indexOf("${", from)) >= 0) {
+      final int end = text.indexOf('}', start);
+      if (end < 0) {
+        break;
+      }
+      final String name = text.substring(start + 2, end);
+      final String value = values.get(name);
+      if (value == null) {
+        throw new IllegalArgumentException("No value for placeholder '" + name + "' of template '" + template + "'.");
+      }
+      rendered.append(text, from, start).append(value);
+      from = end + 1;
+    }
+    return rendered.append(text, from, text.length()).toString();
+  }
+
+  private static String load(final String template) {
+    final String resource = "/load/" + template + ".json";
+    try (final InputStream in = EntityTemplates.class.getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IllegalArgumentException("Template " + resource + " not found on the classpath.");
+      }
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } catch (final IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+}
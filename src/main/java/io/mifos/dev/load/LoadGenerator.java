@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.load;
+
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.metrics.HistogramSnapshot;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Base64Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts a synthetic workload on the services of a running demo server: a weighted mix of customer creations, office
+ * and employee updates, ledger accounts, journal entries, loan products and cases, sent as the operator user of one
+ * tenant at a target rate.
+ *
+ * Requests are scheduled open loop: the send time of each request is fixed in advance, by the target rate, whether or
+ * not earlier requests have returned. Requests which cannot be sent on time because all workers are busy queue up and
+ * their latency includes the time queued, so a saturated server shows as growing latencies instead of as a lower
+ * request rate. Latencies of requests scheduled during the warm up are not recorded.
+ */
+@Component
+public class LoadGenerator {
+
+  private static final long DRAIN_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+  private final Logger logger;
+  private final TenantEventRecorder eventRecorder;
+  private final EntityTemplates templates = new EntityTemplates();
+  private final double rate;
+  private final long durationMillis;
+  private final long warmupMillis;
+  private final String mix;
+  private final String tenant;
+  private final int workers;
+  private final boolean poissonArrivals;
+  private final String user;
+  private final String password;
+  private final String transactionType;
+  private final Map<LoadOperation, OperationStats> stats = new EnumMap<>(LoadOperation.class);
+  private final AtomicLong scheduled = new AtomicLong();
+  private final AtomicInteger maxBacklog = new AtomicInteger();
+  private volatile long measuredFrom;
+  private volatile long measuredUntil;
+  private volatile boolean running;
+
+  @Autowired
+  public LoadGenerator(@Qualifier("test-logger") final Logger logger,
+                       final TenantEventRecorder eventRecorder,
+                       @Value("${demoserver.load.rate:0}") final double rate,
+                       @Value("${demoserver.load.duration:60}") final long durationSeconds,
+                       @Value("${demoserver.load.warmup:10}") final long warmupSeconds,
+                       @Value("${demoserver.load.mix:customer=25,office=5,employee=10,account=10,journal=35,product=2,case=13}") final String mix,
+                       @Value("${demoserver.load.tenant:playground}") final String tenant,
+                       @Value("${demoserver.load.workers:32}") final int workers,
+                       @Value("${demoserver.load.arrivals:poisson}") final String arrivals,
+                       @Value("${demoserver.load.user:operator}") final String user,
+                       @Value("${demoserver.load.password:init1@l}") final String password,
+                       @Value("${demoserver.load.transactionType:ACCO}") final String transactionType) {
+    super();
+    this.logger = logger;
+    this.eventRecorder = eventRecorder;
+    this.rate = rate;
+    this.durationMillis = TimeUnit.SECONDS.toMillis(durationSeconds);
+    this.warmupMillis = TimeUnit.SECONDS.toMillis(warmupSeconds);
+    this.mix = mix;
+    this.tenant = tenant;
+    this.workers = Math.max(1, workers);
+    this.poissonArrivals = !arrivals.equals("uniform");
+    this.user = user;
+    this.password = Base64Utils.encodeToString(password.getBytes(StandardCharsets.UTF_8));
+    this.transactionType = transactionType;
+    for (final LoadOperation operation : LoadOperation.values()) {
+      this.stats.put(operation, new OperationStats(operation));
+    }
+  }
+
+  public boolean isEnabled() {
+    return this.rate > 0.0;
+  }
+
+  /**
+   * Creates the entities the mix needs, then sends requests for the configured duration and waits for the outstanding
+   * ones before logging the report.
+   */
+  public void run() throws InterruptedException {
+    final LoadMix loadMix = LoadMix.parse(this.mix);
+    final LoadWorkload workload = new LoadWorkload(new OperatorSession(this.tenant, this.user, this.password),
+        this.eventRecorder, this.templates, this.transactionType, runPrefix());
+    this.logger.info("Setting up load of {} requests/s with mix {} against tenant '{}'.", this.rate, loadMix, this.tenant);
+    workload.setUp(loadMix);
+
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(this.workers, this.workers, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          final Thread thread = new Thread(runnable, "load-generator");
+          thread.setDaemon(true);
+          return thread;
+        });
+    this.reset();
+    this.running = true;
+    try {
+      this.schedule(loadMix, workload, executor);
+    } finally {
+      executor.shutdown();
+      if (!executor.awaitTermination(DRAIN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        this.logger.warn("{} load requests still outstanding after {} ms, abandoning them.",
+            executor.getQueue().size() + executor.getActiveCount(), DRAIN_TIMEOUT);
+        executor.shutdownNow();
+      }
+      this.measuredUntil = System.currentTimeMillis();
+      this.running = false;
+    }
+    this.logReport();
+  }
+
+  private void schedule(final LoadMix loadMix, final LoadWorkload workload, final ExecutorService executor) {
+    final Random random = ThreadLocalRandom.current();
+    final long meanIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / this.rate);
+    final long start = System.nanoTime();
+    final long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(this.warmupMillis);
+    final long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(this.durationMillis);
+    this.measuredFrom = System.currentTimeMillis() + this.warmupMillis;
+
+    long intended = start;
+    long sequence = 0L;
+    while (intended - end < 0L) {
+      final long wait = intended - System.nanoTime();
+      if (wait > 0L) {
+        LockSupport.parkNanos(wait);
+        continue;
+      }
+      final LoadOperation operation = loadMix.next(random);
+      final long scheduledAt = intended;
+      final long number = sequence++;
+      executor.execute(() -> this.send(workload, operation, number, scheduledAt, scheduledAt - measureFrom >= 0L));
+      this.scheduled.incrementAndGet();
+      this.maxBacklog.accumulateAndGet(((ThreadPoolExecutor) executor).getQueue().size(), Math::max);
+      intended += this.poissonArrivals
+          ? (long) (-Math.log(1.0 - random.nextDouble()) * meanIntervalNanos)
+          : meanIntervalNanos;
+    }
+  }
+
+  private void send(final LoadWorkload workload,
+                    final LoadOperation operation,
+                    final long sequence,
+                    final long scheduledAt,
+                    final boolean measured) {
+    final long startedAt = System.nanoTime();
+    try {
+      workload.execute(operation, sequence);
+      if (measured) {
+        final long now = System.nanoTime();
+        this.stats.get(operation).succeeded(now - scheduledAt, now - startedAt);
+      }
+    } catch (final RuntimeException ex) {
+      if (measured) {
+        final long now = System.nanoTime();
+        this.stats.get(operation).failed(now - scheduledAt, now - startedAt, ex);
+      }
+      this.logger.debug("Load request {} {} failed: {}", operation.getKey(), sequence, ex.getMessage());
+    }
+  }
+
+  /**
+   * Throughput and latency percentiles per operation of the current or the last run.
+   */
+  public Map<String, Object> report() {
+    final long until = this.running ? System.currentTimeMillis() : this.measuredUntil;
+    final double seconds = Math.max(1L, until - this.measuredFrom) / 1000.0;
+    final Map<String, Object> report = new LinkedHashMap<>();
+    report.put("running", this.running);
+    report.put("tenant", this.tenant);
+    report.put("targetRate", this.rate);
+    report.put("scheduled", this.scheduled.get());
+    report.put("maxBacklog", this.maxBacklog.get());
+    final Map<String, Object> operations = new LinkedHashMap<>();
+    long completed = 0L;
+    for (final OperationStats operationStats : this.stats.values()) {
+      final long count = operationStats.getSucceeded() + operationStats.getFailed();
+      if (count == 0L) {
+        continue;
+      }
+      completed += count;
+      final Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("succeeded", operationStats.getSucceeded());
+      entry.put("failed", operationStats.getFailed());
+      entry.put("throughput", count / seconds);
+      entry.put("latency", operationStats.getLatency());
+      entry.put("serviceTime", operationStats.getServiceTime());
+      entry.put("lastError", operationStats.getLastError());
+      operations.put(operationStats.getOperation().getKey(), entry);
+    }
+    report.put("throughput", completed / seconds);
+    report.put("operations", operations);
+    return report;
+  }
+
+  private void logReport() {
+    final Map<String, Object> report = this.report();
+    this.logger.info("Load run finished: {} requests scheduled at a target of {}/s, {} requests/s measured, "
+        + "at most {} requests queued.", report.get("scheduled"), this.rate, report.get("throughput"), report.get("maxBacklog"));
+    for (final OperationStats operationStats : this.stats.values()) {
+      final long count = operationStats.getSucceeded() + operationStats.getFailed();
+      if (count == 0L) {
+        continue;
+      }
+      final HistogramSnapshot latency = operationStats.getLatency();
+      this.logger.info("  {}: {} ok, {} failed, latency p50={} p90={} p99={} p99.9={} max={} {}{}",
+          operationStats.getOperation().getKey(), operationStats.getSucceeded(), operationStats.getFailed(),
+          latency.getP50(), latency.getP90(), latency.getP99(), latency.getP999(), latency.getMax(), latency.getUnit(),
+          operationStats.getLastError() == null ? "" : ", last error: " + operationStats.getLastError());
+    }
+  }
+
+  private void reset() {
+    this.stats.values().forEach(OperationStats::reset);
+    this.scheduled.set(0L);
+    this.maxBacklog.set(0);
+  }
+
+  /**
+   * "l" followed by three random base 36 digits.
+   */
+  private static String runPrefix() {
+    final int twoDigits = Character.MAX_RADIX * Character.MAX_RADIX;
+    final int threeDigits = twoDigits + ThreadLocalRandom.current().nextInt(twoDigits * (Character.MAX_RADIX - 1));
+    return "l" + Integer.toString(threeDigits, Character.MAX_RADIX);
+  }
+}
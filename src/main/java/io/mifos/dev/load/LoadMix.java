@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Weighted choice between load operations, parsed from a list like "customer=30,journal=50,case=20".
+ */
+public class LoadMix {
+
+  private final Map<LoadOperation, Integer> weights;
+  private final LoadOperation[] operations;
+  private final int[] cumulativeWeights;
+  private final int totalWeight;
+
+  private LoadMix(final Map<LoadOperation, Integer> weights) {
+    super();
+    this.weights = weights;
+    this.operations = new LoadOperation[weights.size()];
+    this.cumulativeWeights = new int[weights.size()];
+    int total = 0;
+    int index = 0;
+    for (final Map.Entry<LoadOperation, Integer> weight : weights.entrySet()) {
+      total += weight.getValue();
+      this.operations[index] = weight.getKey();
+      this.cumulativeWeights[index] = total;
+      index++;
+    }
+    this.totalWeight = total;
+  }
+
+  public static LoadMix parse(final String mix) {
+    final Map<LoadOperation, Integer> weights = new EnumMap<>(LoadOperation.class);
+    for (final String entry : mix.split(",")) {
+      if (entry.trim().isEmpty()) {
+        continue;
+      }
+      final String[] keyAndWeight = entry.split("=");
+      if (keyAndWeight.length != 2) {
+        throw new IllegalArgumentException("Load mix entry '" + entry + "' is not of the form operation=weight.");
+      }
+      final int weight = Integer.parseInt(keyAndWeight[1].trim());
+      if (weight < 0) {
+        throw new IllegalArgumentException("Load mix weight of '" + keyAndWeight[0].trim() + "' is negative.");
+      }
+      if (weight > 0) {
+        weights.merge(LoadOperation.forKey(keyAndWeight[0].trim()), weight, Integer::sum);
+      }
+    }
+    if (weights.isEmpty()) {
+      throw new IllegalArgumentException("Load mix '" + mix + "' has no operation with a positive weight.");
+    }
+    return new LoadMix(weights);
+  }
+
+  public LoadOperation next(final Random random) {
+    final int pick = random.nextInt(this.totalWeight);
+    for (int index = 0; index < this.cumulativeWeights.length; index++) {
+      if (pick < this.cumulativeWeights[index]) {
+        return this.operations[index];
+      }
+    }
+    return this.operations[this.operations.length - 1];
+  }
+
+  public boolean includes(final LoadOperation... operations) {
+    for (final LoadOperation operation : operations) {
+      if (this.weights.containsKey(operation)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return this.weights.toString();
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.load;
+
+/**
+ * The kinds of requests the load generator sends, keyed by the names used in demoserver.load.mix.
+ */
+public enum LoadOperation {
+  CUSTOMER("customer"),
+  OFFICE("office"),
+  EMPLOYEE("employee"),
+  ACCOUNT("account"),
+  JOURNAL_ENTRY("journal"),
+  PRODUCT("product"),
+  CASE("case");
+
+  private final String key;
+
+  LoadOperation(final String key) {
+    this.key = key;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public static LoadOperation forKey(final String key) {
+    for (final LoadOperation operation : values()) {
+      if (operation.key.equals(key)) {
+        return operation;
+      }
+    }
+    throw new IllegalArgumentException("Unknown load operation '" + key + "'.");
+  }
+}
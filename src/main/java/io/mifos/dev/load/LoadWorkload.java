@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.load;
+
+import io.mifos.accounting.api.v1.domain.Account;
+import io.mifos.accounting.api.v1.domain.JournalEntry;
+import io.mifos.accounting.api.v1.domain.Ledger;
+import io.mifos.core.lang.AutoTenantContext;
+import io.mifos.core.lang.DateConverter;
+import io.mifos.customer.api.v1.CustomerEventConstants;
+import io.mifos.customer.api.v1.domain.Customer;
+import io.mifos.dev.ServiceRunner;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.office.api.v1.EventConstants;
+import io.mifos.office.api.v1.domain.Employee;
+import io.mifos.office.api.v1.domain.Office;
+import io.mifos.portfolio.api.v1.domain.Case;
+import io.mifos.portfolio.api.v1.domain.Product;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static io.mifos.accounting.api.v1.EventConstants.POST_ACCOUNT;
+import static io.mifos.accounting.api.v1.EventConstants.POST_LEDGER;
+import static io.mifos.portfolio.api.v1.events.EventConstants.POST_PRODUCT;
+import static io.mifos.portfolio.api.v1.events.EventConstants.PUT_PRODUCT_ENABLE;
+
+/**
+ * The requests of one load run against one tenant, and the entities they need to exist beforehand: an office with
+ * employees to update, an asset and a revenue ledger with an account each to post journal entries to and to assign to
+ * products, and an enabled product with customers to open cases for. Only the entities needed by the operations in the
+ * mix are created.
+ *
+ * Identifiers start with a random prefix per run, so that runs against the same tenant do not collide.
+ */
+class LoadWorkload {
+
+  private static final int EMPLOYEES = 8;
+  private static final int CUSTOMERS = 8;
+
+  private final OperatorSession session;
+  private final TenantEventRecorder eventRecorder;
+  private final EntityTemplates templates;
+  private final String transactionType;
+  private final String prefix;
+  private final List<String> employees = new ArrayList<>();
+  private final List<String> customers = new ArrayList<>();
+  private String office;
+  private String assetLedger;
+  private String revenueLedger;
+  private String assetAccount;
+  private String revenueAccount;
+  private String product;
+
+  LoadWorkload(final OperatorSession session,
+               final TenantEventRecorder eventRecorder,
+               final EntityTemplates templates,
+               final String transactionType,
+               final String prefix) {
+    super();
+    this.session = session;
+    this.eventRecorder = eventRecorder;
+    this.templates = templates;
+    this.transactionType = transactionType;
+    this.prefix = prefix;
+  }
+
+  void setUp(final LoadMix mix) throws InterruptedException {
+    if (mix.includes(LoadOperation.CUSTOMER, LoadOperation.OFFICE, LoadOperation.EMPLOYEE, LoadOperation.CASE)) {
+      this.office = this.fixture("o");
+      final Office office = this.templates.create("office", this.values(this.office, 0L), Office.class);
+      this.session.run(() -> ServiceRunner.getOrganizationManager().api().createOffice(office));
+      this.await(EventConstants.POST_OFFICE, this.office);
+    }
+
+    if (mix.includes(LoadOperation.EMPLOYEE)) {
+      for (int index = 0; index < EMPLOYEES; index++) {
+        final String identifier = this.fixture("e" + index);
+        final Employee employee = this.templates.create("employee", this.values(identifier, index), Employee.class);
+        this.session.run(() -> ServiceRunner.getOrganizationManager().api().createEmployee(employee));
+        this.employees.add(identifier);
+      }
+      for (final String identifier : this.employees) {
+        this.await(EventConstants.POST_EMPLOYEE, identifier);
+      }
+    }
+
+    if (mix.includes(LoadOperation.ACCOUNT, LoadOperation.JOURNAL_ENTRY, LoadOperation.PRODUCT, LoadOperation.CASE)) {
+      this.assetLedger = this.createLedger(this.fixture("la"), "ASSET");
+      this.revenueLedger = this.createLedger(this.fixture("lr"), "REVENUE");
+      this.assetAccount = this.createAccount(this.fixture("aa"), this.assetLedger, "ASSET");
+      this.revenueAccount = this.createAccount(this.fixture("ar"), this.revenueLedger, "REVENUE");
+    }
+
+    if (mix.includes(LoadOperation.CASE)) {
+      for (int index = 0; index < CUSTOMERS; index++) {
+        final String identifier = this.fixture("c" + index);
+        final Customer customer = this.templates.create("customer", this.values(identifier, index), Customer.class);
+        this.session.run(() -> ServiceRunner.getCustomerManager().api().createCustomer(customer));
+        this.customers.add(identifier);
+      }
+      for (final String identifier : this.customers) {
+        this.await(CustomerEventConstants.POST_CUSTOMER, identifier);
+      }
+
+      this.product = this.fixture("p");
+      final Product product = this.templates.create("product", this.values(this.product, 0L), Product.class);
+      this.session.run(() -> ServiceRunner.getPortfolioManager().api().createProduct(product));
+      this.await(POST_PRODUCT, this.product);
+      this.session.run(() -> ServiceRunner.getPortfolioManager().api().enableProduct(this.product, Boolean.TRUE));
+      this.await(PUT_PRODUCT_ENABLE, this.product);
+    }
+  }
+
+  void execute(final LoadOperation operation, final long sequence) {
+    switch (operation) {
+      case CUSTOMER: {
+        final Customer customer = this.templates.create("customer", this.values(this.identifier("c", sequence), sequence), Customer.class);
+        this.session.run(() -> ServiceRunner.getCustomerManager().api().createCustomer(customer));
+        break;
+      }
+      case OFFICE: {
+        final Office office = this.templates.create("office", this.values(this.office, sequence), Office.class);
+        this.session.run(() -> ServiceRunner.getOrganizationManager().api().updateOffice(this.office, office));
+        break;
+      }
+      case EMPLOYEE: {
+        final String identifier = this.employees.get((int) (sequence % this.employees.size()));
+        final Employee employee = this.templates.create("employee", this.values(identifier, sequence), Employee.class);
+        this.session.run(() -> ServiceRunner.getOrganizationManager().api().updateEmployee(identifier, employee));
+        break;
+      }
+      case ACCOUNT: {
+        final Map<String, String> values = this.values(this.identifier("a", sequence), sequence);
+        values.put("ledger", this.assetLedger);
+        values.put("type", "ASSET");
+        final Account account = this.templates.create("account", values, Account.class);
+        this.session.run(() -> ServiceRunner.getLedgerManager().api().createAccount(account));
+        break;
+      }
+      case JOURNAL_ENTRY: {
+        final Map<String, String> values = this.values(this.identifier("j", sequence), sequence);
+        values.put("transactionDate", DateConverter.toIsoString(LocalDateTime.now(Clock.systemUTC())));
+        values.put("transactionType", this.transactionType);
+        values.put("clerk", this.session.getUser());
+        values.put("debtor", this.assetAccount);
+        values.put("creditor", this.revenueAccount);
+        final JournalEntry journalEntry = this.templates.create("journal-entry", values, JournalEntry.class);
+        this.session.run(() -> ServiceRunner.getLedgerManager().api().createJournalEntry(journalEntry));
+        break;
+      }
+      case PRODUCT: {
+        final Product product = this.templates.create("product", this.values(this.identifier("p", sequence), sequence), Product.class);
+        this.session.run(() -> ServiceRunner.getPortfolioManager().api().createProduct(product));
+        break;
+      }
+      case CASE: {
+        final Map<String, String> values = this.values(this.identifier("k", sequence), sequence);
+        values.put("product", this.product);
+        values.put("customer", this.customers.get((int) (sequence % this.customers.size())));
+        final Case loanCase = this.templates.create("case", values, Case.class);
+        this.session.run(() -> ServiceRunner.getPortfolioManager().api().createCase(this.product, loanCase));
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("Unsupported load operation " + operation);
+    }
+  }
+
+  private String createLedger(final String identifier, final String type) throws InterruptedException {
+    final Map<String, String> values = this.values(identifier, 0L);
+    values.put("type", type);
+    final Ledger ledger = this.templates.create("ledger", values, Ledger.class);
+    this.session.run(() -> ServiceRunner.getLedgerManager().api().createLedger(ledger));
+    this.await(POST_LEDGER, identifier);
+    return identifier;
+  }
+
+  private String createAccount(final String identifier, final String ledger, final String type) throws InterruptedException {
+    final Map<String, String> values = this.values(identifier, 0L);
+    values.put("ledger", ledger);
+    values.put("type", type);
+    final Account account = this.templates.create("account", values, Account.class);
+    this.session.run(() -> ServiceRunner.getLedgerManager().api().createAccount(account));
+    this.await(POST_ACCOUNT, identifier);
+    return identifier;
+  }
+
+  /**
+   * The values every template may refer to, besides the identifier of the entity and a sequence number to vary it by.
+   */
+  private Map<String, String> values(final String identifier, final long sequence) {
+    final Map<String, String> values = new HashMap<>();
+    values.put("identifier", identifier);
+    values.put("sequence", Long.toString(sequence));
+    values.put("officeName", "Load office");
+    values.put("productName", "Load product " + sequence);
+    values.put("ledgerName", "Load ledger " + identifier);
+    values.put("accountName", "Load account " + identifier);
+    SyntheticValues.person(ThreadLocalRandom.current(), values);
+    SyntheticValues.loan(ThreadLocalRandom.current(), values);
+    putIfSet(values, "office", this.office);
+    putIfSet(values, "assetLedger", this.assetLedger);
+    putIfSet(values, "revenueLedger", this.revenueLedger);
+    putIfSet(values, "assetAccount", this.assetAccount);
+    putIfSet(values, "revenueAccount", this.revenueAccount);
+    return values;
+  }
+
+  private String identifier(final String kind, final long sequence) {
+    return this.prefix + kind + Long.toString(sequence, Character.MAX_RADIX);
+  }
+
+  private String fixture(final String name) {
+    return this.prefix + "z" + name;
+  }
+
+  private void await(final String operation, final String identifier) throws InterruptedException {
+    try (final AutoTenantContext ignored = new AutoTenantContext(this.session.getTenant())) {
+      if (!this.eventRecorder.wait(operation, identifier)) {
+        throw new IllegalStateException("Load fixture " + identifier + " was not created, no " + operation + " event.");
+      }
+    }
+  }
+
+  private static void putIfSet(final Map<String, String> values, final String name, final String value) {
+    if (value != null) {
+      values.put(name, value);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.load;
+
+import io.mifos.dev.metrics.Histogram;
+import io.mifos.dev.metrics.HistogramSnapshot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of the requests of one load operation. The latency is taken from the time a request was scheduled to be
+ * sent, so that requests queued behind slow ones count with their waiting time; the service time only covers the call
+ * itself.
+ */
+public class OperationStats {
+
+  private static final String UNIT = "us";
+
+  private final LoadOperation operation;
+  private final Histogram latency;
+  private final Histogram serviceTime;
+  private final AtomicLong succeeded = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private volatile String lastError;
+
+  OperationStats(final LoadOperation operation) {
+    super();
+    this.operation = operation;
+    this.latency = new Histogram(operation.getKey() + " latency", UNIT);
+    this.serviceTime = new Histogram(operation.getKey() + " service time", UNIT);
+  }
+
+  void succeeded(final long latencyNanos, final long serviceNanos) {
+    this.succeeded.incrementAndGet();
+    this.record(latencyNanos, serviceNanos);
+  }
+
+  void failed(final long latencyNanos, final long serviceNanos, final Throwable cause) {
+    this.failed.incrementAndGet();
+    this.lastError = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+    this.record(latencyNanos, serviceNanos);
+  }
+
+  void reset() {
+    this.latency.reset();
+    this.serviceTime.reset();
+    this.succeeded.set(0L);
+    this.failed.set(0L);
+    this.lastError = null;
+  }
+
+  private void record(final long latencyNanos, final long serviceNanos) {
+    this.latency.record(latencyNanos / 1_000L);
+    this.serviceTime.record(serviceNanos / 1_000L);
+  }
+
+  public LoadOperation getOperation() {
+    return operation;
+  }
+
+  public long getSucceeded() {
+    return this.succeeded.get();
+  }
+
+  public long getFailed() {
+    return this.failed.get();
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  public HistogramSnapshot getLatency() {
+    return this.latency.snapshot();
+  }
+
+  public HistogramSnapshot getServiceTime() {
+    return this.serviceTime.snapshot();
+  }
+
+  @Override
+  public String toString() {
+    return this.latency.toString();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.load;
+
+import io.mifos.core.api.context.AutoGuest;
+import io.mifos.core.api.context.AutoUserContext;
+import io.mifos.core.api.util.InvalidTokenException;
+import io.mifos.core.lang.AutoTenantContext;
+import io.mifos.dev.ServiceRunner;
+import io.mifos.identity.api.v1.domain.Authentication;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs calls as one user of one tenant, logging in on first use and again once a call is rejected with an invalid
+ * token.
+ */
+public class OperatorSession {
+
+  private final String tenant;
+  private final String user;
+  private final String password;
+  private volatile String accessToken;
+
+  /**
+   * @param password as the identity service expects it, i.e. Base64 encoded.
+   */
+  public OperatorSession(final String tenant, final String user, final String password) {
+    super();
+    this.tenant = tenant;
+    this.user = user;
+    this.password = password;
+  }
+
+  public String getTenant() {
+    return tenant;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public void run(final Runnable action) {
+    this.call(() -> {
+      action.run();
+      return null;
+    });
+  }
+
+  public <T> T call(final Supplier<T> action) {
+    try (final AutoTenantContext ignored = new AutoTenantContext(this.tenant)) {
+      final String token = this.token();
+      try {
+        return this.callAs(token, action);
+      } catch (final InvalidTokenException ex) {
+        this.invalidate(token);
+        return this.callAs(this.token(), action);
+      }
+    }
+  }
+
+  private <T> T callAs(final String token, final Supplier<T> action) {
+    try (final AutoUserContext ignored = new AutoUserContext(this.user, token)) {
+      return action.get();
+    }
+  }
+
+  private synchronized String token() {
+    if (this.accessToken == null) {
+      final Authentication authentication;
+      try (final AutoGuest ignored = new AutoGuest()) {
+        authentication = ServiceRunner.getIdentityManager().api().login(this.user, this.password);
+      }
+      this.accessToken = authentication.getAccessToken();
+    }
+    return this.accessToken;
+  }
+
+  private synchronized void invalidate(final String token) {
+    if (token.equals(this.accessToken)) {
+      this.accessToken = null;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.load;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Plausible template values for people and loans, drawn from a given random source so that seeded data comes out the
+ * same on every run.
+ */
+public final class SyntheticValues {
+
+  private static final String[] GIVEN_NAMES = {
+      "Aaliyah", "Akeem", "Alicia", "Andre", "Brianna", "Carlton", "Chantal", "Dwayne", "Elroy", "Esther", "Glenroy",
+      "Hyacinth", "Imani", "Jamal", "Janelle", "Kareem", "Keisha", "Leroy", "Marcia", "Nadia", "Oneika", "Patrice",
+      "Rohan", "Shanice", "Tamika", "Trevor", "Verna", "Winston", "Yolanda", "Zahra"
+  };
+  private static final String[] SURNAMES = {
+      "Archibald", "Browne", "Claxton", "Daniel", "Edwards", "Francis", "Galloway", "Hanley", "Isaac", "Jeffers",
+      "Liburd", "Martin", "Nisbett", "Pemberton", "Richards", "Skerritt", "Thomas", "Tyson", "Warner", "Williams"
+  };
+  private static final String[] STREETS = {
+      "Bay Road", "Cayon Street", "Central Street", "Church Street", "College Street", "Fort Street", "Market Street",
+      "Pond Road", "Victoria Road", "West Independence Square"
+  };
+
+  private SyntheticValues() {
+    super();
+  }
+
+  public static void person(final Random random, final Map<String, String> values) {
+    values.put("givenName", GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)]);
+    values.put("surname", SURNAMES[random.nextInt(SURNAMES.length)]);
+    values.put("birthYear", Integer.toString(1940 + random.nextInt(60)));
+    values.put("birthMonth", Integer.toString(1 + random.nextInt(12)));
+    values.put("birthDay", Integer.toString(1 + random.nextInt(28)));
+    values.put("street", (1 + random.nextInt(200)) + " " + STREETS[random.nextInt(STREETS.length)]);
+    values.put("phone", String.format("%07d", random.nextInt(10_000_000)));
+  }
+
+  public static void loan(final Random random, final Map<String, String> values) {
+    values.put("maximumBalance", Integer.toString(500 + 100 * random.nextInt(196)));
+    values.put("interest", String.format("%d.%02d", 3 + random.nextInt(9), 25 * random.nextInt(4)));
+    values.put("termMonths", Integer.toString(6 * (1 + random.nextInt(6))));
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.metrics;
+
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how far the listeners run behind the services, per destination, operation and tenant: the lag from the
+ * JMSTimestamp a message was published with to its receipt by the listener container, and from its receipt to the
+ * completion of all work it caused, including held back updates and the delivery of its calls to the sync manager.
+ *
+ * Each received message is traced until the work it caused has completed; {@link #getOldestUnprocessedAge} is the age
+ * of the oldest message still traced, which is the number to watch to tell whether syncing keeps up. Messages still
+ * waiting in the broker are not seen. Registered with the platform MBean server as io.mifos.dev:type=EventLag.
+ */
+@Component
+public class EventLag implements EventLagMXBean {
+
+  private static final String UNIT = "ms";
+
+  private final Logger logger;
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+  private final ObjectName name;
+  private final ThreadLocal<Trace> current = new ThreadLocal<>();
+  private final Set<Trace> inFlight = ConcurrentHashMap.newKeySet();
+  private final ConcurrentMap<LagKey, Histogram> publishToReceive = new ConcurrentHashMap<>();
+  private final ConcurrentMap<LagKey, Histogram> receiveToComplete = new ConcurrentHashMap<>();
+  private final Histogram publishToReceiveAll = new Histogram("publish to receive", UNIT);
+  private final Histogram receiveToCompleteAll = new Histogram("receive to complete", UNIT);
+
+  @Autowired
+  public EventLag(@Qualifier("test-logger") final Logger logger) throws JMException {
+    super();
+    this.logger = logger;
+    this.name = new ObjectName("io.mifos.dev:type=EventLag");
+    if (this.mBeanServer.isRegistered(this.name)) {
+      this.mBeanServer.unregisterMBean(this.name);
+    }
+    this.mBeanServer.registerMBean(this, this.name);
+  }
+
+  /**
+   * Starts tracing a message as it is taken from the broker. The trace is held once for the caller, who releases it
+   * once the listener has returned.
+   *
+   * @param publishedAt the JMSTimestamp of the message, 0 if the producer did not set one.
+   */
+  public Trace received(final String destination, final long publishedAt) {
+    final Trace trace = new Trace(destination, publishedAt, System.currentTimeMillis());
+    this.inFlight.add(trace);
+    return trace;
+  }
+
+  /**
+   * Runs the listener for the traced message, making the trace the current one of the calling thread.
+   */
+  public void run(final Trace trace, final Runnable listener) {
+    final Trace previous = this.current.get();
+    this.current.set(trace);
+    try {
+      listener.run();
+    } finally {
+      if (previous == null) {
+        this.current.remove();
+      } else {
+        this.current.set(previous);
+      }
+    }
+  }
+
+  /**
+   * @return the trace of the message the calling thread is handling, or null.
+   */
+  public Trace current() {
+    return this.current.get();
+  }
+
+  /**
+   * Attributes the message to the operation and tenant it turned out to be for, once its handler is known.
+   */
+  public void identify(final Trace trace, final String operation, final String tenant) {
+    if (trace.operation != null) {
+      return;
+    }
+    trace.operation = operation;
+    trace.tenant = tenant;
+    if (trace.publishedAt > 0L) {
+      final long lag = trace.receivedAt - trace.publishedAt;
+      this.publishToReceiveAll.record(lag);
+      this.histogram(this.publishToReceive, new LagKey(trace.destination, operation, tenant), "publish to receive").record(lag);
+    }
+  }
+
+  @Override
+  public long getOldestUnprocessedAge() {
+    final long now = System.currentTimeMillis();
+    long oldest = now;
+    for (final Trace trace : this.inFlight) {
+      oldest = Math.min(oldest, trace.publishedAt > 0L ? trace.publishedAt : trace.receivedAt);
+    }
+    return now - oldest;
+  }
+
+  @Override
+  public int getUnprocessed() {
+    return this.inFlight.size();
+  }
+
+  @Override
+  public HistogramSnapshot getPublishToReceive() {
+    return this.publishToReceiveAll.snapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getReceiveToComplete() {
+    return this.receiveToCompleteAll.snapshot();
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> getPublishToReceiveByOperation() {
+    return snapshots(this.publishToReceive);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> getReceiveToCompleteByOperation() {
+    return snapshots(this.receiveToComplete);
+  }
+
+  @Override
+  public void reset() {
+    this.publishToReceive.clear();
+    this.receiveToComplete.clear();
+    this.publishToReceiveAll.reset();
+    this.receiveToCompleteAll.reset();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    this.logger.info("{}; {}; {} messages unprocessed.", this.publishToReceiveAll, this.receiveToCompleteAll, this.inFlight.size());
+    try {
+      this.mBeanServer.unregisterMBean(this.name);
+    } catch (final JMException ignored) {
+      //already gone
+    }
+  }
+
+  private void completed(final Trace trace) {
+    this.inFlight.remove(trace);
+    if (trace.operation == null) {
+      return;
+    }
+    final long lag = System.currentTimeMillis() - trace.receivedAt;
+    this.receiveToCompleteAll.record(lag);
+    this.histogram(this.receiveToComplete, new LagKey(trace.destination, trace.operation, trace.tenant), "receive to complete").record(lag);
+  }
+
+  private Histogram histogram(final ConcurrentMap<LagKey, Histogram> histograms, final LagKey key, final String what) {
+    return histograms.computeIfAbsent(key, x -> new Histogram(key + " " + what, UNIT));
+  }
+
+  private static Map<String, HistogramSnapshot> snapshots(final ConcurrentMap<LagKey, Histogram> histograms) {
+    final Map<String, HistogramSnapshot> snapshots = new TreeMap<>();
+    histograms.forEach((key, histogram) -> snapshots.put(key.toString(), histogram.snapshot()));
+    return snapshots;
+  }
+
+  /**
+   * A received message and the work it caused. Every piece of work holds the trace until it is done; the message
+   * is complete once the last hold is released.
+   */
+  public class Trace {
+    private final String destination;
+    private final long publishedAt;
+    private final long receivedAt;
+    private final AtomicInteger holds = new AtomicInteger(1);
+    private volatile String operation;
+    private volatile String tenant;
+
+    private Trace(final String destination, final long publishedAt, final long receivedAt) {
+      this.destination = destination;
+      this.publishedAt = publishedAt;
+      this.receivedAt = receivedAt;
+    }
+
+    public void hold() {
+      this.holds.incrementAndGet();
+    }
+
+    public void release() {
+      if (this.holds.decrementAndGet() == 0) {
+        EventLag.this.completed(this);
+      }
+    }
+  }
+
+  private static class LagKey {
+    private final String destination;
+    private final String operation;
+    private final String tenant;
+
+    private LagKey(final String destination, final String operation, final String tenant) {
+      this.destination = destination;
+      this.operation = operation;
+      this.tenant = tenant;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final LagKey lagKey = (LagKey) o;
+      return Objects.equals(destination, lagKey.destination) &&
+          Objects.equals(operation, lagKey.operation) &&
+          Objects.equals(tenant, lagKey.tenant);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(destination, operation, tenant);
+    }
+
+    @Override
+    public String toString() {
+      return destination + "/" + operation + "/" + tenant;
+    }
+  }
+}
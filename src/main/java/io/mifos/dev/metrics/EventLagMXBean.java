@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the event lag. Lags and ages are in milliseconds; the maps are keyed by destination/operation/tenant.
+ */
+public interface EventLagMXBean {
+
+  long getOldestUnprocessedAge();
+
+  int getUnprocessed();
+
+  HistogramSnapshot getPublishToReceive();
+
+  HistogramSnapshot getReceiveToComplete();
+
+  Map<String, HistogramSnapshot> getPublishToReceiveByOperation();
+
+  Map<String, HistogramSnapshot> getReceiveToCompleteByOperation();
+
+  void reset();
+}
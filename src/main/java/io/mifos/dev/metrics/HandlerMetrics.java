@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and counters of one event handler, i.e. one operation of one destination.
+ */
+public class HandlerMetrics implements HandlerMetricsMXBean {
+
+  private static final String UNIT = "us";
+
+  private final String destination;
+  private final String operation;
+  private final Histogram handle;
+  private final Histogram deferred;
+  private final Map<ListenerMetrics.Phase, Histogram> phases = new EnumMap<>(ListenerMetrics.Phase.class);
+  private final ConcurrentMap<String, TenantCounts> tenants = new ConcurrentHashMap<>();
+
+  HandlerMetrics(final String destination, final String operation) {
+    super();
+    this.destination = destination;
+    this.operation = operation;
+    this.handle = new Histogram(destination + " " + operation + " handle", UNIT);
+    this.deferred = new Histogram(destination + " " + operation + " deferred", UNIT);
+    for (final ListenerMetrics.Phase phase : ListenerMetrics.Phase.values()) {
+      this.phases.put(phase, new Histogram(destination + " " + operation + " " + phase.name().toLowerCase(), UNIT));
+    }
+  }
+
+  @Override
+  public String getDestination() {
+    return destination;
+  }
+
+  @Override
+  public String getOperation() {
+    return operation;
+  }
+
+  @Override
+  public long getEvents() {
+    return this.tenants.values().stream().mapToLong(counts -> counts.events.get()).sum();
+  }
+
+  @Override
+  public long getFailures() {
+    return this.tenants.values().stream().mapToLong(counts -> counts.failures.get()).sum();
+  }
+
+  @Override
+  public Map<String, Long> getEventsByTenant() {
+    final Map<String, Long> events = new TreeMap<>();
+    this.tenants.forEach((tenant, counts) -> events.put(tenant, counts.events.get()));
+    return events;
+  }
+
+  @Override
+  public Map<String, Long> getFailuresByTenant() {
+    final Map<String, Long> failures = new TreeMap<>();
+    this.tenants.forEach((tenant, counts) -> failures.put(tenant, counts.failures.get()));
+    return failures;
+  }
+
+  @Override
+  public HistogramSnapshot getHandle() {
+    return this.handle.snapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getDeferred() {
+    return this.deferred.snapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getLogin() {
+    return this.phases.get(ListenerMetrics.Phase.LOGIN).snapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getFetch() {
+    return this.phases.get(ListenerMetrics.Phase.FETCH).snapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getSync() {
+    return this.phases.get(ListenerMetrics.Phase.SYNC).snapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getRecord() {
+    return this.phases.get(ListenerMetrics.Phase.RECORD).snapshot();
+  }
+
+  @Override
+  public void reset() {
+    this.handle.reset();
+    this.deferred.reset();
+    this.phases.values().forEach(Histogram::reset);
+    this.tenants.clear();
+  }
+
+  void recordHandled(final String tenant, final long micros, final boolean failed) {
+    this.handle.record(micros);
+    final TenantCounts counts = this.counts(tenant);
+    counts.events.incrementAndGet();
+    if (failed) {
+      counts.failures.incrementAndGet();
+    }
+  }
+
+  void recordDeferred(final String tenant, final long micros, final boolean failed) {
+    this.deferred.record(micros);
+    if (failed) {
+      this.counts(tenant).failures.incrementAndGet();
+    }
+  }
+
+  void recordPhase(final ListenerMetrics.Phase phase, final long micros) {
+    this.phases.get(phase).record(micros);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s: %d events, %d failures; %s; %s", this.destination, this.operation,
+        getEvents(), getFailures(), this.handle, this.deferred);
+  }
+
+  private TenantCounts counts(final String tenant) {
+    return this.tenants.computeIfAbsent(tenant == null ? "" : tenant, x -> new TenantCounts());
+  }
+
+  private static class TenantCounts {
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of one event handler. Latencies are in microseconds.
+ */
+public interface HandlerMetricsMXBean {
+
+  String getDestination();
+
+  String getOperation();
+
+  long getEvents();
+
+  long getFailures();
+
+  Map<String, Long> getEventsByTenant();
+
+  Map<String, Long> getFailuresByTenant();
+
+  /**
+   * Time the listener thread spent in the handler.
+   */
+  HistogramSnapshot getHandle();
+
+  /**
+   * Time spent in work the handler deferred to the update coalescer.
+   */
+  HistogramSnapshot getDeferred();
+
+  HistogramSnapshot getLogin();
+
+  HistogramSnapshot getFetch();
+
+  HistogramSnapshot getSync();
+
+  HistogramSnapshot getRecord();
+
+  void reset();
+}
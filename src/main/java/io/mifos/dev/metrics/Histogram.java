@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, bucketed like HdrHistogram: values below 32 are counted exactly, larger
+ * ones in 32 linear sub-buckets per power of two. Percentiles are reported as the upper bound of the bucket they fall
+ * into, so they are at most about 3% above the actual value.
+ */
+public class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final String name;
+  private final String unit;
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public Histogram(final String name, final String unit) {
+    super();
+    this.name = name;
+    this.unit = unit;
+  }
+
+  public void record(final long value) {
+    final long sample = Math.max(0L, value);
+    this.buckets.incrementAndGet(bucket(sample));
+    this.count.incrementAndGet();
+    this.sum.addAndGet(sample);
+    this.max.accumulateAndGet(sample, Math::max);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getUnit() {
+    return unit;
+  }
+
+  public long getCount() {
+    return this.count.get();
+  }
+
+  public long getSum() {
+    return this.sum.get();
+  }
+
+  public long getMax() {
+    return this.max.get();
+  }
+
+  public double getMean() {
+    final long samples = this.count.get();
+    return samples == 0L ? 0.0 : (double) this.sum.get() / samples;
+  }
+
+  /**
+   * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile.
+   */
+  public long getPercentile(final double quantile) {
+    final long samples = this.count.get();
+    if (samples == 0L) {
+      return 0L;
+    }
+    final long rank = Math.max(1L, (long) Math.ceil(quantile * samples));
+    long seen = 0L;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += this.buckets.get(bucket);
+      if (seen >= rank) {
+        return Math.min(upperBound(bucket), this.max.get());
+      }
+    }
+    return this.max.get();
+  }
+
+  public HistogramSnapshot snapshot() {
+    return new HistogramSnapshot(this.unit, getCount(), getMean(), getPercentile(0.5), getPercentile(0.9),
+        getPercentile(0.99), getPercentile(0.999), getMax());
+  }
+
+  public void reset() {
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      this.buckets.set(bucket, 0L);
+    }
+    this.count.set(0L);
+    this.sum.set(0L);
+    this.max.set(0L);
+  }
+
+  /**
+   * @return the bucket of the value: the value itself below {@link #SUB_BUCKETS}, otherwise the power of two it falls
+   * into and the linear sub-bucket within it given by the bits below its highest one.
+   */
+  private static int bucket(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  private static long upperBound(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    final long lowerBound = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    return lowerBound + (1L << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d %s",
+        this.name, getCount(), getMean(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getMax(), this.unit);
+  }
+}
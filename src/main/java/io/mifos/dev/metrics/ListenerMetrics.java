@@ -0,0 +1,336 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.metrics;
+
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Latencies and counters of the event handlers of the listeners, registered with the platform MBean server under
+ * io.mifos.dev:type=EventHandler.
+ *
+ * The handler being run is tracked per thread, so the session, cache, outbox and event recorder can attribute the time
+ * they spend to its login, fetch, sync and record phases without the listeners passing anything along. Work a handler
+ * hands to another thread is attributed to it if wrapped with {@link #propagate}, or, for work which outlives it such as
+ * the calls to the sync manager, if run within {@link #attribute}. Outside a handler timing is a no-op.
+ *
+ * The handler also carries the {@link EventLag.Trace} of its message. Deferred work and calls to the sync manager hold
+ * the trace until they are done, so the message counts as processed only once all of them are.
+ */
+@Component
+public class ListenerMetrics {
+
+  public enum Phase {
+    LOGIN,
+    FETCH,
+    SYNC,
+    RECORD
+  }
+
+  private static final String DOMAIN = "io.mifos.dev";
+
+  private final Logger logger;
+  private final EventLag eventLag;
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+  private final ConcurrentMap<String, HandlerMetrics> handlers = new ConcurrentHashMap<>();
+  private final List<ObjectName> registered = new ArrayList<>();
+  private final ThreadLocal<Invocation> current = new ThreadLocal<>();
+
+  @Autowired
+  public ListenerMetrics(@Qualifier("test-logger") final Logger logger,
+                         final EventLag eventLag) {
+    super();
+    this.logger = logger;
+    this.eventLag = eventLag;
+  }
+
+  /**
+   * @return the metrics of the operation of the destination, registering them on first use.
+   */
+  public HandlerMetrics handler(final String destination, final String operation) {
+    return this.handlers.computeIfAbsent(destination + "/" + operation, key -> {
+      final HandlerMetrics metrics = new HandlerMetrics(destination, operation);
+      this.register(metrics);
+      return metrics;
+    });
+  }
+
+  public List<HandlerMetrics> getHandlers() {
+    final List<HandlerMetrics> sorted = new ArrayList<>(this.handlers.values());
+    sorted.sort(Comparator.comparing(HandlerMetrics::getDestination).thenComparing(HandlerMetrics::getOperation));
+    return sorted;
+  }
+
+  /**
+   * Marks the calling thread as running the handler for the tenant until the returned invocation is closed. The
+   * message is traced from here if the listener container did not already start tracing it.
+   *
+   * @param publishedAt the JMSTimestamp of the message, 0 if unknown.
+   */
+  public Invocation begin(final HandlerMetrics handler, final String tenant, final long publishedAt) {
+    final EventLag.Trace received = this.eventLag.current();
+    final EventLag.Trace trace = received != null ? received : this.eventLag.received(handler.getDestination(), publishedAt);
+    this.eventLag.identify(trace, handler.getOperation(), tenant);
+    return this.enter(handler, tenant, trace, received == null, false);
+  }
+
+  public <T> T time(final Phase phase, final Supplier<T> action) {
+    final Invocation invocation = this.current.get();
+    if (invocation == null) {
+      return action.get();
+    }
+    final long startedAt = System.nanoTime();
+    try {
+      return action.get();
+    } finally {
+      invocation.handler.recordPhase(phase, micros(startedAt));
+    }
+  }
+
+  public void time(final Phase phase, final Runnable action) {
+    this.time(phase, () -> {
+      action.run();
+      return null;
+    });
+  }
+
+  /**
+   * @return the action, attributed to the handler running on the calling thread wherever it is run later. The message
+   * of the handler is not processed before the action has run or has been {@link #discard discarded}.
+   */
+  public Runnable propagate(final Runnable action) {
+    final Invocation invocation = this.current.get();
+    if (invocation == null || invocation.trace == null) {
+      return action;
+    }
+    invocation.trace.hold();
+    return new Deferred(invocation.handler, invocation.tenant, invocation.trace, action);
+  }
+
+  /**
+   * @return the newer action, which completes the message of the older one as well, for an action replacing another
+   * before it ran.
+   */
+  public Runnable supersede(final Runnable older, final Runnable newer) {
+    if (!(older instanceof Deferred)) {
+      return newer;
+    }
+    if (newer instanceof Deferred) {
+      ((Deferred) newer).superseded.add((Deferred) older);
+      return newer;
+    }
+    return () -> {
+      try {
+        newer.run();
+      } finally {
+        ((Deferred) older).release();
+      }
+    };
+  }
+
+  /**
+   * Completes the message of an action which will never run.
+   */
+  public void discard(final Runnable action) {
+    if (action instanceof Deferred) {
+      ((Deferred) action).release();
+    }
+  }
+
+  /**
+   * Holds the message of the handler running on the calling thread until the returned release is run.
+   */
+  public Runnable hold() {
+    final Invocation invocation = this.current.get();
+    if (invocation == null || invocation.trace == null) {
+      return () -> { };
+    }
+    invocation.trace.hold();
+    return invocation.trace::release;
+  }
+
+  /**
+   * @return the handler running on the calling thread, null outside a handler.
+   */
+  public HandlerMetrics currentHandler() {
+    final Invocation invocation = this.current.get();
+    return invocation == null ? null : invocation.handler;
+  }
+
+  /**
+   * Runs the action with the phases timed within it attributed to the handler, without counting it as a run of the
+   * handler or holding its message. Runs the action untimed if the handler is null.
+   */
+  public void attribute(final HandlerMetrics handler, final Runnable action) {
+    if (handler == null) {
+      action.run();
+      return;
+    }
+    final Invocation previous = this.current.get();
+    this.current.set(new Invocation(handler, null, null, false, false, previous));
+    try {
+      action.run();
+    } finally {
+      if (previous == null) {
+        this.current.remove();
+      } else {
+        this.current.set(previous);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    this.getHandlers().stream()
+        .filter(handler -> handler.getEvents() > 0)
+        .forEach(handler -> this.logger.info("{}", handler));
+    synchronized (this.registered) {
+      for (final ObjectName name : this.registered) {
+        try {
+          this.mBeanServer.unregisterMBean(name);
+        } catch (final JMException ignored) {
+          //already gone
+        }
+      }
+      this.registered.clear();
+    }
+  }
+
+  private Invocation enter(final HandlerMetrics handler,
+                           final String tenant,
+                           final EventLag.Trace trace,
+                           final boolean ownsTrace,
+                           final boolean deferred) {
+    final Invocation invocation = new Invocation(handler, tenant, trace, ownsTrace, deferred, this.current.get());
+    this.current.set(invocation);
+    return invocation;
+  }
+
+  private void register(final HandlerMetrics metrics) {
+    try {
+      final ObjectName name = new ObjectName(DOMAIN + ":type=EventHandler,destination="
+          + ObjectName.quote(metrics.getDestination()) + ",operation=" + ObjectName.quote(metrics.getOperation()));
+      if (this.mBeanServer.isRegistered(name)) {
+        this.mBeanServer.unregisterMBean(name);
+      }
+      this.mBeanServer.registerMBean(metrics, name);
+      synchronized (this.registered) {
+        this.registered.add(name);
+      }
+    } catch (final JMException ex) {
+      this.logger.warn("Could not register metrics of {} {} with JMX: {}", metrics.getDestination(), metrics.getOperation(), ex.getMessage());
+    }
+  }
+
+  private static long micros(final long startedAt) {
+    return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt);
+  }
+
+  public class Invocation implements AutoCloseable {
+    private final HandlerMetrics handler;
+    private final String tenant;
+    private final EventLag.Trace trace;
+    private final boolean ownsTrace;
+    private final boolean deferred;
+    private final Invocation previous;
+    private final long startedAt = System.nanoTime();
+    private boolean failed;
+
+    private Invocation(final HandlerMetrics handler,
+                       final String tenant,
+                       final EventLag.Trace trace,
+                       final boolean ownsTrace,
+                       final boolean deferred,
+                       final Invocation previous) {
+      this.handler = handler;
+      this.tenant = tenant;
+      this.trace = trace;
+      this.ownsTrace = ownsTrace;
+      this.deferred = deferred;
+      this.previous = previous;
+    }
+
+    public void failed() {
+      this.failed = true;
+    }
+
+    @Override
+    public void close() {
+      if (this.deferred) {
+        this.handler.recordDeferred(this.tenant, micros(this.startedAt), this.failed);
+      } else {
+        this.handler.recordHandled(this.tenant, micros(this.startedAt), this.failed);
+      }
+      if (this.previous == null) {
+        ListenerMetrics.this.current.remove();
+      } else {
+        ListenerMetrics.this.current.set(this.previous);
+      }
+      if (this.ownsTrace) {
+        this.trace.release();
+      }
+    }
+  }
+
+  private class Deferred implements Runnable {
+    private final HandlerMetrics handler;
+    private final String tenant;
+    private final EventLag.Trace trace;
+    private final Runnable action;
+    private final List<Deferred> superseded = new ArrayList<>();
+
+    private Deferred(final HandlerMetrics handler, final String tenant, final EventLag.Trace trace, final Runnable action) {
+      this.handler = handler;
+      this.tenant = tenant;
+      this.trace = trace;
+      this.action = action;
+    }
+
+    @Override
+    public void run() {
+      try (final Invocation invocation = enter(this.handler, this.tenant, this.trace, true, true)) {
+        try {
+          this.action.run();
+        } catch (final RuntimeException ex) {
+          invocation.failed();
+          throw ex;
+        }
+      } finally {
+        this.superseded.forEach(Deferred::release);
+      }
+    }
+
+    private void release() {
+      this.trace.release();
+      this.superseded.forEach(Deferred::release);
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.metrics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.mifos.dev.cache.EntityCache;
+import io.mifos.dev.load.LoadGenerator;
+import io.mifos.dev.pool.PoolMonitor;
+import io.mifos.dev.pool.TenantConnections;
+import io.mifos.dev.sync.SyncBatcher;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Serves percentile snapshots of the listener metrics as JSON on the loopback interface, at /metrics/listeners, and
+ * of the event lag at /metrics/lag. Posting to /metrics/listeners/reset or /metrics/lag/reset clears them. The report of
+ * the current or last load run is served at /metrics/load, the connection pool usage of the services at /metrics/pools,
+ * the database connections held by each tenant at /metrics/connections, and the sizes and flush latencies of the
+ * batches of calls to the sync manager at /metrics/sync, cleared by posting to /metrics/sync/reset. The hits, misses
+ * and evictions of the entity cache are served at /metrics/cache, cleared by posting to /metrics/cache/reset.
+ * Disabled unless demoserver.metrics.httpPort is set.
+ */
+@Component
+public class MetricsEndpoint {
+
+  private final Logger logger;
+  private final ListenerMetrics listenerMetrics;
+  private final EventLag eventLag;
+  private final LoadGenerator loadGenerator;
+  private final PoolMonitor poolMonitor;
+  private final TenantConnections tenantConnections;
+  private final SyncBatcher syncBatcher;
+  private final EntityCache entityCache;
+  private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+  private final HttpServer server;
+
+  @Autowired
+  public MetricsEndpoint(@Qualifier("test-logger") final Logger logger,
+                         final ListenerMetrics listenerMetrics,
+                         final EventLag eventLag,
+                         final LoadGenerator loadGenerator,
+                         final PoolMonitor poolMonitor,
+                         final TenantConnections tenantConnections,
+                         final SyncBatcher syncBatcher,
+                         final EntityCache entityCache,
+                         @Value("${demoserver.metrics.httpPort:-1}") final int port) throws IOException {
+    super();
+    this.logger = logger;
+    this.listenerMetrics = listenerMetrics;
+    this.eventLag = eventLag;
+    this.loadGenerator = loadGenerator;
+    this.poolMonitor = poolMonitor;
+    this.tenantConnections = tenantConnections;
+    this.syncBatcher = syncBatcher;
+    this.entityCache = entityCache;
+    if (port < 0) {
+      this.server = null;
+      return;
+    }
+
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.server.createContext("/metrics/listeners", this::handle);
+    this.server.createContext("/metrics/lag", this::handleLag);
+    this.server.createContext("/metrics/load", this::handleLoad);
+    this.server.createContext("/metrics/pools", this::handlePools);
+    this.server.createContext("/metrics/connections", this::handleConnections);
+    this.server.createContext("/metrics/sync", this::handleSync);
+    this.server.createContext("/metrics/cache", this::handleCache);
+    this.server.start();
+    this.logger.info("Listener metrics served at http://localhost:{}/metrics/listeners", this.server.getAddress().getPort());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (this.server != null) {
+      this.server.stop(0);
+    }
+  }
+
+  private void handle(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      if (path.equals("/metrics/listeners/reset") && exchange.getRequestMethod().equals("POST")) {
+        this.listenerMetrics.getHandlers().forEach(HandlerMetrics::reset);
+        this.respond(exchange, 204, null);
+      } else if (path.equals("/metrics/listeners") || path.equals("/metrics/listeners/")) {
+        this.respond(exchange, 200, this.gson.toJson(this.snapshot()));
+      } else {
+        this.respond(exchange, 404, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleLag(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      if (path.equals("/metrics/lag/reset") && exchange.getRequestMethod().equals("POST")) {
+        this.eventLag.reset();
+        this.respond(exchange, 204, null);
+      } else if (path.equals("/metrics/lag") || path.equals("/metrics/lag/")) {
+        final Map<String, Object> lag = new LinkedHashMap<>();
+        lag.put("oldestUnprocessedAge", this.eventLag.getOldestUnprocessedAge());
+        lag.put("unprocessed", this.eventLag.getUnprocessed());
+        lag.put("publishToReceive", this.eventLag.getPublishToReceive());
+        lag.put("receiveToComplete", this.eventLag.getReceiveToComplete());
+        lag.put("publishToReceiveByOperation", this.eventLag.getPublishToReceiveByOperation());
+        lag.put("receiveToCompleteByOperation", this.eventLag.getReceiveToCompleteByOperation());
+        this.respond(exchange, 200, this.gson.toJson(lag));
+      } else {
+        this.respond(exchange, 404, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleLoad(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      if (path.equals("/metrics/load") || path.equals("/metrics/load/")) {
+        this.respond(exchange, 200, this.gson.toJson(this.loadGenerator.report()));
+      } else {
+        this.respond(exchange, 404, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handlePools(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      if (path.equals("/metrics/pools") || path.equals("/metrics/pools/")) {
+        this.respond(exchange, 200, this.gson.toJson(this.pools()));
+      } else {
+        this.respond(exchange, 404, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleConnections(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      if (path.equals("/metrics/connections/reset") && exchange.getRequestMethod().equals("POST")) {
+        this.tenantConnections.resetPeaks();
+        this.respond(exchange, 204, null);
+      } else if (path.equals("/metrics/connections") || path.equals("/metrics/connections/")) {
+        final Map<String, Object> connections = new LinkedHashMap<>();
+        connections.put("limitPerTenant", this.tenantConnections.getLimitPerTenant());
+        connections.put("tenantsAtLimit", this.tenantConnections.getTenantsAtLimit());
+        connections.put("byTenant", this.tenantConnections.getConnectionsByTenant());
+        connections.put("peakByTenant", this.tenantConnections.getPeakConnectionsByTenant());
+        connections.put("byHost", this.tenantConnections.getConnectionsByHost());
+        connections.put("maxByHost", this.tenantConnections.getMaxConnectionsByHost());
+        this.respond(exchange, 200, this.gson.toJson(connections));
+      } else {
+        this.respond(exchange, 404, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleSync(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      if (path.equals("/metrics/sync/reset") && exchange.getRequestMethod().equals("POST")) {
+        this.syncBatcher.reset();
+        this.respond(exchange, 204, null);
+      } else if (path.equals("/metrics/sync") || path.equals("/metrics/sync/")) {
+        final Map<String, Object> sync = new LinkedHashMap<>();
+        sync.put("pending", this.syncBatcher.getPending());
+        sync.put("batchSize", this.syncBatcher.getBatchSize());
+        sync.put("flushLatency", this.syncBatcher.getFlushLatency());
+        this.respond(exchange, 200, this.gson.toJson(sync));
+      } else {
+        this.respond(exchange, 404, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleCache(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      if (path.equals("/metrics/cache/reset") && exchange.getRequestMethod().equals("POST")) {
+        this.entityCache.reset();
+        this.respond(exchange, 204, null);
+      } else if (path.equals("/metrics/cache") || path.equals("/metrics/cache/")) {
+        final Map<String, Object> cache = new LinkedHashMap<>();
+        cache.put("hits", this.entityCache.getHits());
+        cache.put("misses", this.entityCache.getMisses());
+        cache.put("hitRatio", this.entityCache.getHitRatio());
+        cache.put("evictions", this.entityCache.getEvictions());
+        cache.put("invalidations", this.entityCache.getInvalidations());
+        cache.put("entries", this.entityCache.getEntries());
+        cache.put("maxEntriesPerTenant", this.entityCache.getMaxEntries());
+        this.respond(exchange, 200, this.gson.toJson(cache));
+      } else {
+        this.respond(exchange, 404, null);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private List<Map<String, Object>> snapshot() {
+    return this.listenerMetrics.getHandlers().stream().map(handler -> {
+      final Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("destination", handler.getDestination());
+      entry.put("operation", handler.getOperation());
+      entry.put("events", handler.getEvents());
+      entry.put("failures", handler.getFailures());
+      entry.put("eventsByTenant", handler.getEventsByTenant());
+      entry.put("failuresByTenant", handler.getFailuresByTenant());
+      entry.put("handle", handler.getHandle());
+      entry.put("deferred", handler.getDeferred());
+      entry.put("login", handler.getLogin());
+      entry.put("fetch", handler.getFetch());
+      entry.put("sync", handler.getSync());
+      entry.put("record", handler.getRecord());
+      return entry;
+    }).collect(Collectors.toList());
+  }
+
+  private List<Map<String, Object>> pools() {
+    return this.poolMonitor.getPools().stream().map(pool -> {
+      final Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("service", pool.getService());
+      entry.put("available", pool.isAvailable());
+      entry.put("pools", pool.getPools());
+      entry.put("minConnections", pool.getMinConnections());
+      entry.put("maxConnections", pool.getMaxConnections());
+      entry.put("recommendedMaxConnections", pool.getRecommendedMaxConnections());
+      entry.put("leased", pool.getLeased());
+      entry.put("free", pool.getFree());
+      entry.put("created", pool.getCreated());
+      entry.put("utilization", pool.getUtilization());
+      entry.put("connectionsRequested", pool.getConnectionsRequested());
+      entry.put("connectionWaitAvg", pool.getConnectionWaitAvg());
+      entry.put("connectionWaitAvgOverall", pool.getConnectionWaitAvgOverall());
+      return entry;
+    }).collect(Collectors.toList());
+  }
+
+  private void respond(final HttpExchange exchange, final int status, final String json) throws IOException {
+    if (json == null) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (final OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
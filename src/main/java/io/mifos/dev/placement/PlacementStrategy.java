@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.placement;
+
+/**
+ * How a tenant which is neither pinned nor placed before is assigned to a database server and a Cassandra cluster.
+ */
+public enum PlacementStrategy {
+  /**
+   * By rendezvous hashing of the tenant identifier, so that adding a host only moves the new tenants which hash to it.
+   */
+  HASH("hash"),
+  /**
+   * To the host with the lowest observed load, counting the tenants placed on it by this run as well.
+   */
+  LEAST_LOADED("least-loaded");
+
+  private final String key;
+
+  PlacementStrategy(final String key) {
+    this.key = key;
+  }
+
+  public static PlacementStrategy forKey(final String key) {
+    for (final PlacementStrategy strategy : values()) {
+      if (strategy.key.equalsIgnoreCase(key.trim())) {
+        return strategy;
+      }
+    }
+    throw new IllegalArgumentException("Unknown placement strategy '" + key + "', expected hash or least-loaded.");
+  }
+
+  @Override
+  public String toString() {
+    return this.key;
+  }
+}
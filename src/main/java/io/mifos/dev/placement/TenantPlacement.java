@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.placement;
+
+import io.mifos.dev.pool.TenantConnections;
+import io.mifos.provisioner.api.v1.domain.CassandraConnectionInfo;
+import io.mifos.provisioner.api.v1.domain.DatabaseConnectionInfo;
+import io.mifos.provisioner.api.v1.domain.Tenant;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads tenants across several MariaDB servers and Cassandra clusters instead of putting all of them on the one the
+ * services use themselves.
+ *
+ * A tenant pinned with demoserver.placement.&lt;tenant&gt;.mariadb or .cassandra goes where it is pinned. A tenant
+ * placed before goes back to where it was recorded, as long as that host is still configured. Others are placed by
+ * the {@link PlacementStrategy}. For least-loaded placement, the load of a database server is its share of the
+ * connections it accepts which is in use, as sampled by {@link TenantConnections}, and the load of a Cassandra cluster
+ * is the number of tenants on it. Every placement is recorded in the placement file. Without any MariaDB hosts or
+ * Cassandra clusters configured, placement is off: tenants stay where they were created and nothing is recorded.
+ */
+@Component
+public class TenantPlacement {
+
+  private static final String MARIADB = "mariadb";
+  private static final String CASSANDRA = "cassandra";
+
+  private final Logger logger;
+  private final Environment environment;
+  private final TenantConnections tenantConnections;
+  private final List<String> mariaDbHosts;
+  private final List<String> cassandraClusters;
+  private final PlacementStrategy strategy;
+  private final Path placementFile;
+  private final Properties recorded = new Properties();
+
+  @Autowired
+  public TenantPlacement(@Qualifier("test-logger") final Logger logger,
+                         final Environment environment,
+                         final TenantConnections tenantConnections,
+                         @Value("${demoserver.placement.mariadb.hosts:}") final String mariaDbHosts,
+                         @Value("${demoserver.placement.cassandra.clusters:}") final String cassandraClusters,
+                         @Value("${demoserver.placement.strategy:hash}") final String strategy,
+                         @Value("${demoserver.placement.file:tenant-placement.properties}") final String placementFile) throws IOException {
+    super();
+    this.logger = logger;
+    this.environment = environment;
+    this.tenantConnections = tenantConnections;
+    this.mariaDbHosts = split(mariaDbHosts, ",");
+    this.cassandraClusters = split(cassandraClusters, ";");
+    this.strategy = PlacementStrategy.forKey(strategy);
+    this.placementFile = Paths.get(placementFile);
+    if (this.isEnabled() && Files.isRegularFile(this.placementFile)) {
+      try (final InputStream in = Files.newInputStream(this.placementFile)) {
+        this.recorded.load(in);
+      }
+      this.logger.info("Loaded tenant placements from {}: {}", this.placementFile, this.recorded);
+    }
+  }
+
+  /**
+   * Moves the database and keyspace of the tenant to the hosts it is placed on, and records the placement. Without
+   * configured hosts of a data store, the tenant stays on the host of that store it was created with; without any
+   * configured hosts, the tenant is returned as is and nothing is recorded.
+   */
+  public synchronized Tenant place(final Tenant tenant) throws IOException {
+    if (!this.isEnabled()) {
+      return tenant;
+    }
+
+    final DatabaseConnectionInfo databaseConnectionInfo = tenant.getDatabaseConnectionInfo();
+    final CassandraConnectionInfo cassandraConnectionInfo = tenant.getCassandraConnectionInfo();
+
+    final List<String> mariaDbCandidates = this.mariaDbHosts.isEmpty()
+        ? Collections.singletonList(databaseConnectionInfo.getHost() + ":" + databaseConnectionInfo.getPort())
+        : this.mariaDbHosts;
+    final List<String> cassandraCandidates = this.cassandraClusters.isEmpty()
+        ? Collections.singletonList(cassandraConnectionInfo.getContactPoints())
+        : this.cassandraClusters;
+
+    final String mariaDbHost = this.choose(tenant.getIdentifier(), MARIADB, mariaDbCandidates,
+        this.mariaDbLoad(mariaDbCandidates, databaseConnectionInfo));
+    final String cassandraCluster = this.choose(tenant.getIdentifier(), CASSANDRA, cassandraCandidates,
+        cluster -> this.tenantsOn(CASSANDRA, cluster));
+
+    final int separator = mariaDbHost.lastIndexOf(':');
+    databaseConnectionInfo.setHost(mariaDbHost.substring(0, separator));
+    databaseConnectionInfo.setPort(mariaDbHost.substring(separator + 1));
+    cassandraConnectionInfo.setContactPoints(cassandraCluster);
+
+    this.recorded.setProperty(key(tenant.getIdentifier(), MARIADB), mariaDbHost);
+    this.recorded.setProperty(key(tenant.getIdentifier(), CASSANDRA), cassandraCluster);
+    this.store();
+    this.logger.info("Tenant '{}' placed on MariaDB {} and Cassandra {}.", tenant.getIdentifier(), mariaDbHost, cassandraCluster);
+    return tenant;
+  }
+
+  /**
+   * The recorded placements, by tenant and data store.
+   */
+  public synchronized Map<String, Map<String, String>> getPlacements() {
+    final Map<String, Map<String, String>> placements = new TreeMap<>();
+    this.recorded.stringPropertyNames().forEach(key -> {
+      final int separator = key.lastIndexOf('.');
+      placements.computeIfAbsent(key.substring(0, separator), tenant -> new TreeMap<>())
+          .put(key.substring(separator + 1), this.recorded.getProperty(key));
+    });
+    return placements;
+  }
+
+  public PlacementStrategy getStrategy() {
+    return strategy;
+  }
+
+  private boolean isEnabled() {
+    return !this.mariaDbHosts.isEmpty() || !this.cassandraClusters.isEmpty();
+  }
+
+  private String choose(final String tenant, final String store, final List<String> candidates,
+                        final ToDoubleFunction<String> load) {
+    final String pinProperty = "demoserver.placement." + tenant + "." + store;
+    if (this.environment.containsProperty(pinProperty)) {
+      final String pinned = this.environment.getProperty(pinProperty).trim();
+      if (!candidates.contains(pinned)) {
+        throw new IllegalArgumentException("Tenant '" + tenant + "' is pinned to " + store + " '" + pinned
+            + "', which is not one of " + candidates + ".");
+      }
+      return pinned;
+    }
+
+    final String previous = this.recorded.getProperty(key(tenant, store));
+    if (previous != null && candidates.contains(previous)) {
+      return previous;
+    }
+
+    final Comparator<String> byHash = Comparator.comparingLong((String candidate) -> rendezvous(tenant, candidate)).reversed();
+    if (this.strategy == PlacementStrategy.HASH) {
+      return candidates.stream().min(byHash).orElseThrow(IllegalStateException::new);
+    }
+    final Map<String, Double> loads = new HashMap<>();
+    candidates.forEach(candidate -> loads.put(candidate, load.applyAsDouble(candidate)));
+    this.logger.debug("Load of the {} hosts for tenant '{}': {}", store, tenant, loads);
+    return candidates.stream().min(Comparator.<String>comparingDouble(loads::get).thenComparing(byHash))
+        .orElseThrow(IllegalStateException::new);
+  }
+
+  /**
+   * Share of the connections a database server accepts which is in use, plus what the tenants placed on it since the
+   * last sample are expected to take.
+   */
+  private ToDoubleFunction<String> mariaDbLoad(final List<String> hosts, final DatabaseConnectionInfo databaseConnectionInfo) {
+    if (this.strategy != PlacementStrategy.LEAST_LOADED) {
+      return host -> 0.0D;
+    }
+    final Map<String, Integer> maxConnections = new HashMap<>();
+    for (final String host : hosts) {
+      final int separator = host.lastIndexOf(':');
+      maxConnections.put(host, this.tenantConnections.watchHost(host.substring(0, separator), host.substring(separator + 1),
+          databaseConnectionInfo.getUser(), databaseConnectionInfo.getPassword()));
+    }
+    this.tenantConnections.sample();
+    final Map<String, Long> connections = this.tenantConnections.getConnectionsByHost();
+    final double connectionsPerTenant = this.tenantConnections.getConnectionsByTenant().values().stream()
+        .mapToLong(Long::longValue).average().orElse(1.0D);
+    return host -> {
+      final int accepted = maxConnections.get(host);
+      if (accepted <= 0) {
+        return Double.MAX_VALUE;
+      }
+      final double unsampled = Math.max(0L, this.tenantsOn(MARIADB, host) - this.sampledTenantsOn(host)) * connectionsPerTenant;
+      return (connections.getOrDefault(host, 0L) + unsampled) / accepted;
+    };
+  }
+
+  private long tenantsOn(final String store, final String host) {
+    return this.recorded.stringPropertyNames().stream()
+        .filter(key -> key.endsWith("." + store) && host.equals(this.recorded.getProperty(key)))
+        .count();
+  }
+
+  private long sampledTenantsOn(final String host) {
+    final Map<String, Long> byTenant = this.tenantConnections.getConnectionsByTenant();
+    return byTenant.keySet().stream()
+        .filter(tenant -> host.equals(this.recorded.getProperty(key(tenant, MARIADB))))
+        .count();
+  }
+
+  private void store() throws IOException {
+    if (this.placementFile.getParent() != null) {
+      Files.createDirectories(this.placementFile.getParent());
+    }
+    try (final OutputStream out = Files.newOutputStream(this.placementFile)) {
+      this.recorded.store(out, "MariaDB host and Cassandra contact points per tenant");
+    }
+  }
+
+  private static String key(final String tenant, final String store) {
+    return tenant + "." + store;
+  }
+
+  /**
+   * Weight of a host for a tenant in rendezvous hashing, the tenant goes to the host with the highest weight.
+   */
+  private static long rendezvous(final String tenant, final String host) {
+    long hash = ((long) tenant.hashCode() << 32) ^ (host.hashCode() & 0xffffffffL);
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private static List<String> split(final String list, final String separator) {
+    return Arrays.stream(list.split(separator))
+        .map(String::trim)
+        .filter(entry -> !entry.isEmpty())
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.pool;
+
+/**
+ * JMX view of the connection pools of one service, summed over the pools it opened for its tenants. Times are in
+ * milliseconds and refer to the last sampling interval.
+ */
+public interface ConnectionPoolMXBean {
+
+  String getService();
+
+  /**
+   * Whether the pool statistics of the service could be read at the last sample.
+   */
+  boolean isAvailable();
+
+  int getPools();
+
+  int getMinConnections();
+
+  int getMaxConnections();
+
+  /**
+   * Maximum size per pool the service would be given on its next start.
+   */
+  int getRecommendedMaxConnections();
+
+  long getLeased();
+
+  long getFree();
+
+  long getCreated();
+
+  /**
+   * Leased connections of the busiest pool as a share of its maximum size.
+   */
+  double getUtilization();
+
+  long getConnectionsRequested();
+
+  double getConnectionWaitAvg();
+
+  double getConnectionWaitAvgOverall();
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.pool;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Objects;
+
+/**
+ * A MariaDB server tenants are placed on, with the administrative account the demo server uses to inspect it.
+ */
+public class MariaDbHost {
+
+  private final String host;
+  private final String port;
+  private final String adminUser;
+  private final String adminPassword;
+
+  public MariaDbHost(final String host, final String port, final String adminUser, final String adminPassword) {
+    super();
+    this.host = host;
+    this.port = port;
+    this.adminUser = adminUser;
+    this.adminPassword = adminPassword;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public String getPort() {
+    return port;
+  }
+
+  public String getAdminUser() {
+    return adminUser;
+  }
+
+  public String getAdminPassword() {
+    return adminPassword;
+  }
+
+  public String getKey() {
+    return this.host + ":" + this.port;
+  }
+
+  Connection connect() throws SQLException {
+    return DriverManager.getConnection("jdbc:mariadb://" + this.getKey() + "/", this.adminUser, this.adminPassword);
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final MariaDbHost that = (MariaDbHost) o;
+    return Objects.equals(host, that.host) && Objects.equals(port, that.port);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(host, port);
+  }
+
+  @Override
+  public String toString() {
+    return this.getKey();
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.pool;
+
+import io.mifos.core.test.env.ExtraProperties;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the connection pools inside the service processes. Each service is started with its {@link PoolProfile} and
+ * with a JMX port on the loopback interface, through which the BoneCP statistics of its pools are sampled. Usage and
+ * connection wait times are registered with the platform MBean server as io.mifos.dev:type=ConnectionPool MBeans, one
+ * per service.
+ *
+ * With auto-tuning on, every sample adjusts the recommended maximum pool size of each service within the floor and
+ * ceiling of the profiles: up while connections are waited for, down while pools stay mostly idle. BoneCP cannot be
+ * resized from outside the service, so the recommendations are stored in the profile file when the demo server stops
+ * and take effect on the next start.
+ */
+@Component
+public class PoolMonitor {
+
+  private static final int SLACK_SAMPLES_TO_SHRINK = 30;
+
+  private final Logger logger;
+  private final PoolProfiles poolProfiles;
+  private final boolean enabled;
+  private final boolean autoTune;
+  private final double waitThreshold;
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+  private final Map<String, ServicePool> pools = new ConcurrentHashMap<>();
+  private final List<ObjectName> registered = new ArrayList<>();
+  private final ScheduledExecutorService sampler;
+
+  @Autowired
+  public PoolMonitor(@Qualifier("test-logger") final Logger logger,
+                     final PoolProfiles poolProfiles,
+                     @Value("${demoserver.pool.monitor:true}") final boolean enabled,
+                     @Value("${demoserver.pool.sampleInterval:10000}") final long sampleInterval,
+                     @Value("${demoserver.pool.autoTune:false}") final boolean autoTune,
+                     @Value("${demoserver.pool.waitThreshold:2}") final double waitThreshold) {
+    super();
+    this.logger = logger;
+    this.poolProfiles = poolProfiles;
+    this.enabled = enabled;
+    this.autoTune = enabled && autoTune;
+    this.waitThreshold = waitThreshold;
+    if (!enabled) {
+      this.sampler = null;
+      return;
+    }
+    this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "pool-monitor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.sampler.scheduleWithFixedDelay(this::sampleAll, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * The pool settings of the service, and if monitoring is on, the options opening its JMX port.
+   */
+  public ExtraProperties propertiesFor(final String service) throws IOException, JMException {
+    final PoolProfile profile = this.poolProfiles.profileFor(service);
+    final ExtraProperties properties = profile.toProperties();
+    if (!this.enabled) {
+      return properties;
+    }
+
+    final int jmxPort = freePort();
+    final String inherited = System.getenv("JAVA_TOOL_OPTIONS");
+    properties.setProperty("JAVA_TOOL_OPTIONS", (inherited == null ? "" : inherited + " ")
+        + "-Dcom.sun.management.jmxremote.port=" + jmxPort
+        + " -Dcom.sun.management.jmxremote.rmi.port=" + jmxPort
+        + " -Dcom.sun.management.jmxremote.host=127.0.0.1"
+        + " -Djava.rmi.server.hostname=127.0.0.1"
+        + " -Dcom.sun.management.jmxremote.authenticate=false"
+        + " -Dcom.sun.management.jmxremote.ssl=false");
+
+    final ServicePool pool = new ServicePool(service, jmxPort, profile);
+    final ServicePool previous = this.pools.put(service, pool);
+    if (previous != null) {
+      previous.close();
+    }
+    final ObjectName name = new ObjectName("io.mifos.dev:type=ConnectionPool,service=" + ObjectName.quote(service));
+    synchronized (this.registered) {
+      if (this.mBeanServer.isRegistered(name)) {
+        this.mBeanServer.unregisterMBean(name);
+      }
+      this.mBeanServer.registerMBean(pool, name);
+      this.registered.add(name);
+    }
+    return properties;
+  }
+
+  public Collection<? extends ConnectionPoolMXBean> getPools() {
+    return this.pools.values();
+  }
+
+  @PreDestroy
+  public void shutdown() throws IOException {
+    if (this.sampler != null) {
+      this.sampler.shutdownNow();
+    }
+    this.pools.values().forEach(ServicePool::close);
+    synchronized (this.registered) {
+      for (final ObjectName name : this.registered) {
+        try {
+          this.mBeanServer.unregisterMBean(name);
+        } catch (final JMException ignored) {
+          //already gone
+        }
+      }
+      this.registered.clear();
+    }
+    if (this.autoTune) {
+      this.poolProfiles.store();
+    }
+  }
+
+  private void sampleAll() {
+    for (final ServicePool pool : this.pools.values()) {
+      try {
+        pool.sample();
+      } catch (final IOException ex) {
+        this.logger.debug("Could not sample the connection pools of '{}': {}", pool.getService(), ex.getMessage());
+        continue;
+      }
+      if (this.autoTune && !this.poolProfiles.isPinned(pool.getService())
+          && pool.tune(this.waitThreshold, SLACK_SAMPLES_TO_SHRINK, this.poolProfiles.getFloor(),
+          this.poolProfiles.getCeiling(pool.getService()))) {
+        this.logger.info("Connection pools of '{}': waited {} ms per connection at a utilization of {}, "
+                + "recommending {} connections instead of {}.", pool.getService(), String.format("%.1f", pool.getConnectionWaitAvg()),
+            String.format("%.2f", pool.getUtilization()), pool.getRecommendedMaxConnections(), pool.getMaxConnections());
+        this.poolProfiles.learn(pool.getService(), pool.getRecommendedMaxConnections());
+      }
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.pool;
+
+import io.mifos.core.test.env.ExtraProperties;
+
+/**
+ * BoneCP settings of one service. The connection counts apply to each pool the service opens, i.e. per tenant.
+ */
+public class PoolProfile {
+
+  private final String service;
+  private final int partitions;
+  private final int minConnectionsPerPartition;
+  private final int maxConnectionsPerPartition;
+  private final int acquireIncrement;
+
+  PoolProfile(final String service, final int minConnections, final int maxConnections) {
+    super();
+    this.service = service;
+    this.partitions = maxConnections > 8 ? 2 : 1;
+    this.maxConnectionsPerPartition = (maxConnections + this.partitions - 1) / this.partitions;
+    this.minConnectionsPerPartition = Math.min(this.maxConnectionsPerPartition,
+        Math.max(1, (minConnections + this.partitions - 1) / this.partitions));
+    this.acquireIncrement = Math.max(1, this.maxConnectionsPerPartition / 4);
+  }
+
+  public String getService() {
+    return service;
+  }
+
+  public int getMinConnections() {
+    return this.partitions * this.minConnectionsPerPartition;
+  }
+
+  public int getMaxConnections() {
+    return this.partitions * this.maxConnectionsPerPartition;
+  }
+
+  public ExtraProperties toProperties() {
+    final ExtraProperties properties = new ExtraProperties();
+    properties.setProperty("bonecp.partitionCount", Integer.toString(this.partitions));
+    properties.setProperty("bonecp.maxConnectionsPerPartition", Integer.toString(this.maxConnectionsPerPartition));
+    properties.setProperty("bonecp.minConnectionsPerPartition", Integer.toString(this.minConnectionsPerPartition));
+    properties.setProperty("bonecp.acquireIncrement", Integer.toString(this.acquireIncrement));
+    properties.setProperty("bonecp.statisticsEnabled", "true");
+    return properties;
+  }
+
+  @Override
+  public String toString() {
+    return this.service + ": " + this.getMinConnections() + ".." + this.getMaxConnections() + " connections in "
+        + this.partitions + (this.partitions == 1 ? " partition" : " partitions");
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.pool;
+
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sizes the connection pools of each service instead of giving all the same four connections.
+ *
+ * A budget of connections per tenant, by default eight per processor, is split between the services by weight:
+ * accounting and portfolio, which take the bulk of the writes, weigh four times as much as services which hardly touch
+ * their database. Each share is kept within a floor and a ceiling. If a profile file is configured, the maximum pool
+ * sizes the {@link PoolMonitor} learned from the connection wait times of earlier runs take the place of the computed
+ * shares, and an explicit demoserver.pool.&lt;service&gt;.maxConnections overrides both.
+ *
+ * Every service but the provisioner keeps a pool per tenant, so all of this is multiplied by the number of tenants.
+ * Unless pinned, the pools are therefore also kept small enough for all services and tenants to fit into the
+ * connections the database server accepts, less a reserve for administration and the provisioner's pool. That server
+ * share is split between the services by the same weights as the budget.
+ */
+@Component
+public class PoolProfiles {
+
+  private static final Map<String, Integer> WEIGHTS = new HashMap<>();
+  static {
+    WEIGHTS.put("accounting", 4);
+    WEIGHTS.put("portfolio", 4);
+    WEIGHTS.put("customer", 2);
+    WEIGHTS.put("deposit-account-management", 2);
+    WEIGHTS.put("teller", 2);
+    WEIGHTS.put("office", 2);
+    WEIGHTS.put("provisioner", 1);
+    WEIGHTS.put("identity", 1);
+    WEIGHTS.put("rhythm", 1);
+    WEIGHTS.put("reporting", 1);
+    WEIGHTS.put("cheques", 1);
+    WEIGHTS.put("payroll", 1);
+    WEIGHTS.put("sync", 1);
+  }
+
+  private static final String PROVISIONER = "provisioner";
+  private static final String MAX_CONNECTIONS = "maxConnections";
+  private static final String MIN_CONNECTIONS = "minConnections";
+  private static final int RESERVED_SERVER_CONNECTIONS = 10;
+
+  private final Logger logger;
+  private final Environment environment;
+  private final int budget;
+  private final int floor;
+  private final int ceiling;
+  private final int tenants;
+  private final int maxServerConnections;
+  private final Path profileFile;
+  private final Properties learned = new Properties();
+  private final ConcurrentMap<String, PoolProfile> profiles = new ConcurrentHashMap<>();
+
+  @Autowired
+  public PoolProfiles(@Qualifier("test-logger") final Logger logger,
+                      final Environment environment,
+                      @Value("${demoserver.pool.budget:-1}") final int budget,
+                      @Value("${demoserver.pool.floor:2}") final int floor,
+                      @Value("${demoserver.pool.ceiling:32}") final int ceiling,
+                      @Value("${demoserver.pool.tenants:2}") final int tenants,
+                      @Value("${demoserver.pool.maxServerConnections:151}") final int maxServerConnections,
+                      @Value("${demoserver.pool.profile:}") final String profileFile) throws IOException {
+    super();
+    this.logger = logger;
+    this.environment = environment;
+    this.budget = budget > 0 ? budget : 8 * Runtime.getRuntime().availableProcessors();
+    this.floor = Math.max(1, floor);
+    this.ceiling = Math.max(this.floor, ceiling);
+    this.tenants = Math.max(1, tenants);
+    this.maxServerConnections = maxServerConnections;
+    this.profileFile = profileFile.isEmpty() ? null : Paths.get(profileFile);
+    if (this.profileFile != null && Files.isRegularFile(this.profileFile)) {
+      try (final InputStream in = Files.newInputStream(this.profileFile)) {
+        this.learned.load(in);
+      }
+      this.logger.info("Loaded learned pool sizes from {}: {}", this.profileFile, this.learned);
+    }
+  }
+
+  public PoolProfile profileFor(final String service) {
+    return this.profiles.computeIfAbsent(service, this::resolve);
+  }
+
+  public Collection<PoolProfile> getProfiles() {
+    return this.profiles.values();
+  }
+
+  public int getFloor() {
+    return floor;
+  }
+
+  /**
+   * The largest pool the service may have, the ceiling or its share of the database server's connections, whichever
+   * is smaller.
+   */
+  public int getCeiling(final String service) {
+    return Math.max(this.floor, Math.min(this.ceiling, this.serverShare(service)));
+  }
+
+  /**
+   * Connections the pools of the services started so far hold for one tenant at their minimum size.
+   */
+  public int getMinConnectionsPerTenant() {
+    return this.profiles.values().stream()
+        .filter(profile -> !profile.getService().equals(PROVISIONER))
+        .mapToInt(PoolProfile::getMinConnections)
+        .sum();
+  }
+
+  /**
+   * Connections the pools of the services started so far may hold for one tenant at their maximum size.
+   */
+  public int getMaxConnectionsPerTenant() {
+    return this.profiles.values().stream()
+        .filter(profile -> !profile.getService().equals(PROVISIONER))
+        .mapToInt(PoolProfile::getMaxConnections)
+        .sum();
+  }
+
+  /**
+   * Whether the maximum pool size of the service was set explicitly, in which case it is not tuned.
+   */
+  public boolean isPinned(final String service) {
+    return this.environment.containsProperty(property(service, MAX_CONNECTIONS));
+  }
+
+  /**
+   * Remembers a tuned maximum pool size, applied the next time the service starts.
+   */
+  public synchronized void learn(final String service, final int maxConnections) {
+    this.learned.setProperty(service + "." + MAX_CONNECTIONS, Integer.toString(this.bounded(service, maxConnections, "tuned")));
+  }
+
+  public synchronized void store() throws IOException {
+    if (this.profileFile == null || this.learned.isEmpty()) {
+      return;
+    }
+    if (this.profileFile.getParent() != null) {
+      Files.createDirectories(this.profileFile.getParent());
+    }
+    try (final OutputStream out = Files.newOutputStream(this.profileFile)) {
+      this.learned.store(out, "Maximum connections per pool, learned from connection wait times");
+    }
+    this.logger.info("Stored learned pool sizes in {}: {}", this.profileFile, this.learned);
+  }
+
+  private PoolProfile resolve(final String service) {
+    final int maxConnections;
+    if (this.isPinned(service)) {
+      maxConnections = Math.max(1, this.environment.getProperty(property(service, MAX_CONNECTIONS), Integer.class));
+    } else if (this.learned.containsKey(service + "." + MAX_CONNECTIONS)) {
+      maxConnections = this.bounded(service, Integer.parseInt(this.learned.getProperty(service + "." + MAX_CONNECTIONS)), "learned");
+    } else {
+      maxConnections = this.bounded(service, this.budgetShare(service), "budgeted");
+    }
+    final int minConnections = this.environment.getProperty(property(service, MIN_CONNECTIONS), Integer.class,
+        Math.max(1, maxConnections / 4));
+
+    final PoolProfile profile = new PoolProfile(service, Math.min(minConnections, maxConnections), maxConnections);
+    this.logger.info("Connection pool profile {}", profile);
+    return profile;
+  }
+
+  private int bounded(final String service, final int maxConnections, final String origin) {
+    final int serverShare = this.serverShare(service);
+    if (maxConnections > serverShare && serverShare < this.ceiling) {
+      this.logger.info("Capping the {} pool size {} of '{}' at {}, its share of the {} connections of the database server "
+          + "for {} tenants.", origin, maxConnections, service, Math.max(this.floor, serverShare), this.maxServerConnections, this.tenants);
+    }
+    return Math.max(this.floor, Math.min(Math.min(this.ceiling, serverShare), maxConnections));
+  }
+
+  private int budgetShare(final String service) {
+    final int totalWeight = WEIGHTS.values().stream().mapToInt(Integer::intValue).sum();
+    return Math.round((float) this.budget * weight(service) / totalWeight);
+  }
+
+  /**
+   * Largest pool the service may open per tenant without the pools of all services and tenants exceeding the
+   * connections of the database server. The provisioner has a single pool, which is taken off the top.
+   */
+  private int serverShare(final String service) {
+    if (this.maxServerConnections <= 0 || PROVISIONER.equals(service)) {
+      return Integer.MAX_VALUE;
+    }
+    final int provisionerConnections = Math.max(this.floor, Math.min(this.ceiling, this.budgetShare(PROVISIONER)));
+    final int perTenant = (this.maxServerConnections - RESERVED_SERVER_CONNECTIONS - provisionerConnections) / this.tenants;
+    final int perTenantWeight = WEIGHTS.entrySet().stream()
+        .filter(entry -> !entry.getKey().equals(PROVISIONER))
+        .mapToInt(Map.Entry::getValue)
+        .sum();
+    return perTenant * weight(service) / perTenantWeight;
+  }
+
+  private static int weight(final String service) {
+    return WEIGHTS.getOrDefault(service, 1);
+  }
+
+  private static String property(final String service, final String key) {
+    return "demoserver.pool." + service + "." + key;
+  }
+}
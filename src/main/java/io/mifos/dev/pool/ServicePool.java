@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.pool;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Reads the BoneCP statistics MBeans of one service process over its JMX port.
+ */
+class ServicePool implements ConnectionPoolMXBean {
+
+  private final String service;
+  private final int jmxPort;
+  private final PoolProfile profile;
+  private volatile int recommendedMaxConnections;
+  private JMXConnector connector;
+  private volatile boolean available;
+  private volatile int pools;
+  private volatile long leased;
+  private volatile long free;
+  private volatile long created;
+  private volatile double utilization;
+  private volatile long requested;
+  private volatile long cumulativeWait;
+  private volatile double waitAvg;
+  private int slackSamples;
+
+  ServicePool(final String service, final int jmxPort, final PoolProfile profile) {
+    super();
+    this.service = service;
+    this.jmxPort = jmxPort;
+    this.profile = profile;
+    this.recommendedMaxConnections = profile.getMaxConnections();
+  }
+
+  /**
+   * Takes the current counts of all pools of the service and the average connection wait since the last sample.
+   */
+  void sample() throws IOException {
+    try {
+      final MBeanServerConnection connection = this.connection();
+      final Set<ObjectName> names = connection.queryNames(new ObjectName("com.jolbox.bonecp:*"), null);
+      int poolCount = 0;
+      long leasedSum = 0L;
+      long freeSum = 0L;
+      long createdSum = 0L;
+      long requestedSum = 0L;
+      long waitSum = 0L;
+      long busiest = 0L;
+      for (final ObjectName name : names) {
+        final String type = name.getKeyProperty("type");
+        if (type == null || !type.startsWith("BoneCP") || type.startsWith("BoneCPConfig")) {
+          continue;
+        }
+        poolCount++;
+        final long poolLeased = number(connection.getAttribute(name, "TotalLeased"));
+        busiest = Math.max(busiest, poolLeased);
+        leasedSum += poolLeased;
+        freeSum += number(connection.getAttribute(name, "TotalFree"));
+        createdSum += number(connection.getAttribute(name, "TotalCreatedConnections"));
+        requestedSum += number(connection.getAttribute(name, "ConnectionsRequested"));
+        waitSum += number(connection.getAttribute(name, "CumulativeConnectionWaitTime"));
+      }
+
+      final long requestedSince = requestedSum - this.requested;
+      this.waitAvg = requestedSince > 0L ? (double) (waitSum - this.cumulativeWait) / requestedSince : 0.0;
+      this.pools = poolCount;
+      this.leased = leasedSum;
+      this.free = freeSum;
+      this.created = createdSum;
+      this.requested = requestedSum;
+      this.cumulativeWait = waitSum;
+      this.utilization = (double) busiest / Math.max(1, this.profile.getMaxConnections());
+      this.available = true;
+    } catch (final IOException ex) {
+      this.close();
+      throw ex;
+    } catch (final Exception ex) {
+      this.available = false;
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * Grows the recommended pool size by a quarter while connections are waited for, and shrinks it by an eighth once
+   * pools have stayed below half their size for the given number of samples.
+   *
+   * @return true if the recommendation changed.
+   */
+  boolean tune(final double waitThreshold, final int slackSamplesToShrink, final int floor, final int ceiling) {
+    if (!this.available) {
+      return false;
+    }
+    final int current = this.recommendedMaxConnections;
+    final boolean statisticsEnabled = this.requested > 0L;
+    final boolean starved = statisticsEnabled ? this.waitAvg >= waitThreshold : this.utilization >= 1.0;
+    if (starved) {
+      this.slackSamples = 0;
+      this.recommendedMaxConnections = Math.min(ceiling, current + Math.max(1, current / 4));
+    } else if (this.utilization < 0.5 && ++this.slackSamples >= slackSamplesToShrink) {
+      this.slackSamples = 0;
+      this.recommendedMaxConnections = Math.max(floor, current - Math.max(1, current / 8));
+    }
+    return this.recommendedMaxConnections != current;
+  }
+
+  void close() {
+    this.available = false;
+    if (this.connector != null) {
+      try {
+        this.connector.close();
+      } catch (final IOException ignored) {
+        //the service is going away anyway
+      }
+      this.connector = null;
+    }
+  }
+
+  private MBeanServerConnection connection() throws IOException {
+    if (this.connector == null) {
+      this.connector = JMXConnectorFactory.connect(
+          new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + this.jmxPort + "/jmxrmi"));
+    }
+    return this.connector.getMBeanServerConnection();
+  }
+
+  private static long number(final Object value) {
+    return value instanceof Number ? ((Number) value).longValue() : 0L;
+  }
+
+  @Override
+  public String getService() {
+    return service;
+  }
+
+  @Override
+  public boolean isAvailable() {
+    return available;
+  }
+
+  @Override
+  public int getPools() {
+    return pools;
+  }
+
+  @Override
+  public int getMinConnections() {
+    return this.profile.getMinConnections();
+  }
+
+  @Override
+  public int getMaxConnections() {
+    return this.profile.getMaxConnections();
+  }
+
+  @Override
+  public int getRecommendedMaxConnections() {
+    return recommendedMaxConnections;
+  }
+
+  @Override
+  public long getLeased() {
+    return leased;
+  }
+
+  @Override
+  public long getFree() {
+    return free;
+  }
+
+  @Override
+  public long getCreated() {
+    return created;
+  }
+
+  @Override
+  public double getUtilization() {
+    return utilization;
+  }
+
+  @Override
+  public long getConnectionsRequested() {
+    return requested;
+  }
+
+  @Override
+  public double getConnectionWaitAvg() {
+    return waitAvg;
+  }
+
+  @Override
+  public double getConnectionWaitAvgOverall() {
+    final long requestedSoFar = this.requested;
+    return requestedSoFar > 0L ? (double) this.cumulativeWait / requestedSoFar : 0.0;
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.pool;
+
+import io.mifos.provisioner.api.v1.domain.DatabaseConnectionInfo;
+import io.mifos.provisioner.api.v1.domain.Tenant;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the MariaDB connections each tenant holds. Every service opens its own pool per tenant, so the
+ * connections on a database server grow with services times tenants, and one busy tenant can take all of them.
+ *
+ * With a limit per tenant set, each tenant gets a database account of its own, restricted to its database and to the
+ * limit with MAX_USER_CONNECTIONS, instead of all tenants sharing the administrative account. MariaDB refuses a
+ * connection beyond the limit (error 1226) rather than queueing it, so a pool which tries to grow beyond it fails to.
+ * The limit must therefore cover the minimum sizes of the pools all services open for a tenant, and should cover
+ * their maximum sizes. The process lists of
+ * the servers are sampled periodically, and the connections by tenant and by server are registered with the platform
+ * MBean server as io.mifos.dev:type=TenantConnections.
+ */
+@Component
+public class TenantConnections implements TenantConnectionsMXBean {
+
+  private static final String OBJECT_NAME = "io.mifos.dev:type=TenantConnections";
+  private static final String TENANT_USER_PREFIX = "t_";
+  private static final char[] PASSWORD_CHARACTERS = "abcdefghijkmnopqrstuvwxyzABCDEFGHJKLMNPQRSTUVWXYZ23456789".toCharArray();
+
+  private final Logger logger;
+  private final PoolProfiles poolProfiles;
+  private final int limitPerTenant;
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+  private final SecureRandom random = new SecureRandom();
+  private final Map<String, MariaDbHost> hosts = new ConcurrentHashMap<>();
+  private final Map<String, String> tenantsByDatabase = new ConcurrentHashMap<>();
+  private final Map<String, String> tenantsByUser = new ConcurrentHashMap<>();
+  private final Map<String, Integer> maxConnectionsByHost = new ConcurrentHashMap<>();
+  private final Map<String, Long> peaks = new ConcurrentHashMap<>();
+  private final Set<String> atLimit = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  private final ScheduledExecutorService sampler;
+  private volatile Map<String, Long> byTenant = Collections.emptyMap();
+  private volatile Map<String, Long> byHost = Collections.emptyMap();
+
+  @Autowired
+  public TenantConnections(@Qualifier("test-logger") final Logger logger,
+                           final PoolProfiles poolProfiles,
+                           @Value("${demoserver.connections.perTenantLimit:0}") final int limitPerTenant,
+                           @Value("${demoserver.connections.sampleInterval:10000}") final long sampleInterval) throws JMException {
+    super();
+    this.logger = logger;
+    this.poolProfiles = poolProfiles;
+    this.limitPerTenant = Math.max(0, limitPerTenant);
+    final ObjectName name = new ObjectName(OBJECT_NAME);
+    if (this.mBeanServer.isRegistered(name)) {
+      this.mBeanServer.unregisterMBean(name);
+    }
+    this.mBeanServer.registerMBean(this, name);
+    this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "tenant-connections");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.sampler.scheduleWithFixedDelay(this::sample, sampleInterval, sampleInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts sampling the process list of a database server, and returns how many connections it accepts, or -1 if it
+   * cannot be reached.
+   */
+  public int watchHost(final String host, final String port, final String adminUser, final String adminPassword) {
+    final MariaDbHost mariaDbHost = new MariaDbHost(host, port, adminUser, adminPassword);
+    this.hosts.putIfAbsent(mariaDbHost.getKey(), mariaDbHost);
+    try (final Connection connection = mariaDbHost.connect();
+         final Statement statement = connection.createStatement();
+         final ResultSet resultSet = statement.executeQuery("SELECT @@max_connections")) {
+      resultSet.next();
+      final int maxConnections = resultSet.getInt(1);
+      this.maxConnectionsByHost.put(mariaDbHost.getKey(), maxConnections);
+      this.logger.info("Watching connections on MariaDB {}, accepting at most {}.", mariaDbHost, maxConnections);
+      return maxConnections;
+    } catch (final SQLException ex) {
+      this.logger.warn("Could not read the connection limit of MariaDB {}: {}", mariaDbHost, ex.getMessage());
+      return -1;
+    }
+  }
+
+  /**
+   * Attributes the connections to the database of the tenant to it, and if there is a limit per tenant, switches the
+   * tenant to a database account of its own which holds at most that many connections. Must be called once the
+   * services have been started.
+   *
+   * @throws IllegalStateException if the limit is below the minimum sizes of the pools of the tenant.
+   */
+  public Tenant prepare(final Tenant tenant) throws SQLException {
+    final DatabaseConnectionInfo databaseConnectionInfo = tenant.getDatabaseConnectionInfo();
+    this.tenantsByDatabase.put(databaseConnectionInfo.getDatabaseName(), tenant.getIdentifier());
+    if (this.limitPerTenant == 0) {
+      return tenant;
+    }
+
+    final int minConnections = this.poolProfiles.getMinConnectionsPerTenant();
+    if (this.limitPerTenant < minConnections) {
+      throw new IllegalStateException("demoserver.connections.perTenantLimit of " + this.limitPerTenant
+          + " is below the " + minConnections + " connections the pools of the services open for each tenant at their "
+          + "minimum size, MariaDB would refuse some of them. Raise the limit or lower the pool sizes.");
+    }
+    final int maxConnections = this.poolProfiles.getMaxConnectionsPerTenant();
+    if (this.limitPerTenant < maxConnections) {
+      this.logger.warn("demoserver.connections.perTenantLimit of {} is below the {} connections the pools of the services "
+          + "may grow to for each tenant, requests of tenant '{}' fail once its pools need more.",
+          this.limitPerTenant, maxConnections, tenant.getIdentifier());
+    }
+
+    final MariaDbHost host = this.hosts.computeIfAbsent(databaseConnectionInfo.getHost() + ":" + databaseConnectionInfo.getPort(),
+        key -> new MariaDbHost(databaseConnectionInfo.getHost(), databaseConnectionInfo.getPort(),
+            databaseConnectionInfo.getUser(), databaseConnectionInfo.getPassword()));
+    final String user = TENANT_USER_PREFIX + databaseConnectionInfo.getDatabaseName();
+    final String password = this.password();
+    try (final Connection connection = host.connect()) {
+      for (final String userHost : new String[] {"%", "localhost"}) {
+        try (final PreparedStatement statement = connection.prepareStatement("GRANT ALL PRIVILEGES ON `"
+            + databaseConnectionInfo.getDatabaseName().replace("`", "``") + "`.* TO ?@? IDENTIFIED BY ? WITH MAX_USER_CONNECTIONS "
+            + this.limitPerTenant)) {
+          statement.setString(1, user);
+          statement.setString(2, userHost);
+          statement.setString(3, password);
+          statement.execute();
+        }
+      }
+    }
+    databaseConnectionInfo.setUser(user);
+    databaseConnectionInfo.setPassword(password);
+    this.tenantsByUser.put(user, tenant.getIdentifier());
+    this.logger.info("Tenant '{}' connects to MariaDB {} as '{}' with at most {} connections.",
+        tenant.getIdentifier(), host, user, this.limitPerTenant);
+    return tenant;
+  }
+
+  @Override
+  public int getLimitPerTenant() {
+    return limitPerTenant;
+  }
+
+  @Override
+  public Map<String, Long> getConnectionsByTenant() {
+    return this.byTenant;
+  }
+
+  @Override
+  public Map<String, Long> getPeakConnectionsByTenant() {
+    return new TreeMap<>(this.peaks);
+  }
+
+  @Override
+  public Map<String, Long> getConnectionsByHost() {
+    return this.byHost;
+  }
+
+  @Override
+  public Map<String, Integer> getMaxConnectionsByHost() {
+    return new TreeMap<>(this.maxConnectionsByHost);
+  }
+
+  @Override
+  public int getTenantsAtLimit() {
+    return this.atLimit.size();
+  }
+
+  @Override
+  public void resetPeaks() {
+    this.peaks.clear();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    this.sampler.shutdownNow();
+    try {
+      this.mBeanServer.unregisterMBean(new ObjectName(OBJECT_NAME));
+    } catch (final JMException ignored) {
+      //already gone
+    }
+  }
+
+  /**
+   * Samples the process lists of all watched database servers right away instead of waiting for the next sample.
+   */
+  public synchronized void sample() {
+    final Map<String, Long> tenants = new TreeMap<>();
+    final Map<String, Long> servers = new TreeMap<>();
+    for (final MariaDbHost host : this.hosts.values()) {
+      try (final Connection connection = host.connect();
+           final Statement statement = connection.createStatement();
+           final ResultSet resultSet = statement.executeQuery(
+               "SELECT DB, USER, COUNT(*) FROM information_schema.PROCESSLIST GROUP BY DB, USER")) {
+        long total = 0L;
+        while (resultSet.next()) {
+          final long count = resultSet.getLong(3);
+          total += count;
+          final String tenant = this.tenantsByUser.getOrDefault(resultSet.getString(2),
+              resultSet.getString(1) == null ? null : this.tenantsByDatabase.get(resultSet.getString(1)));
+          if (tenant != null) {
+            tenants.merge(tenant, count, Long::sum);
+          }
+        }
+        servers.put(host.getKey(), total);
+      } catch (final SQLException ex) {
+        this.logger.debug("Could not sample the connections on MariaDB {}: {}", host, ex.getMessage());
+      }
+    }
+
+    final Set<String> nowAtLimit = new HashSet<>();
+    tenants.forEach((tenant, count) -> {
+      this.peaks.merge(tenant, count, Math::max);
+      if (this.limitPerTenant > 0 && count >= this.limitPerTenant) {
+        nowAtLimit.add(tenant);
+        if (!this.atLimit.contains(tenant)) {
+          this.logger.warn("Tenant '{}' holds all of its {} database connections, MariaDB refuses it any further "
+              + "connection (error 1226).", tenant, this.limitPerTenant);
+        }
+      }
+    });
+    this.atLimit.retainAll(nowAtLimit);
+    this.atLimit.addAll(nowAtLimit);
+    this.byTenant = Collections.unmodifiableMap(tenants);
+    this.byHost = Collections.unmodifiableMap(servers);
+  }
+
+  private String password() {
+    final StringBuilder password = new StringBuilder(24);
+    for (int i = 0; i < 24; i++) {
+      password.append(PASSWORD_CHARACTERS[this.random.nextInt(PASSWORD_CHARACTERS.length)]);
+    }
+    return password.toString();
+  }
+}
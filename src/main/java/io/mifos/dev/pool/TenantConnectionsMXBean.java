@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.pool;
+
+import java.util.Map;
+
+/**
+ * JMX view of the MariaDB connections held per tenant, as seen in the process lists of the database servers.
+ */
+public interface TenantConnectionsMXBean {
+
+  /**
+   * Connections a tenant may hold at once on its database server, 0 if unlimited.
+   */
+  int getLimitPerTenant();
+
+  Map<String, Long> getConnectionsByTenant();
+
+  Map<String, Long> getPeakConnectionsByTenant();
+
+  Map<String, Long> getConnectionsByHost();
+
+  Map<String, Integer> getMaxConnectionsByHost();
+
+  /**
+   * Number of tenants holding as many connections as they are allowed at the last sample.
+   */
+  int getTenantsAtLimit();
+
+  void resetPeaks();
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.seed;
+
+import io.mifos.accounting.api.v1.domain.Account;
+import io.mifos.accounting.api.v1.domain.Ledger;
+import io.mifos.core.lang.AutoTenantContext;
+import io.mifos.customer.api.v1.CustomerEventConstants;
+import io.mifos.customer.api.v1.domain.Customer;
+import io.mifos.deposit.api.v1.definition.domain.ProductDefinition;
+import io.mifos.deposit.api.v1.definition.domain.ProductDefinitionCommand;
+import io.mifos.deposit.api.v1.instance.domain.ProductInstance;
+import io.mifos.dev.ServiceRunner;
+import io.mifos.dev.event.EventWaitResult;
+import io.mifos.dev.event.TenantEventRecorder;
+import io.mifos.dev.load.EntityTemplates;
+import io.mifos.dev.load.OperatorSession;
+import io.mifos.dev.load.SyntheticValues;
+import io.mifos.office.api.v1.domain.Employee;
+import io.mifos.office.api.v1.domain.Office;
+import io.mifos.portfolio.api.v1.domain.Case;
+import io.mifos.portfolio.api.v1.domain.Product;
+import io.mifos.portfolio.api.v1.events.CaseEvent;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Base64Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import static io.mifos.accounting.api.v1.EventConstants.POST_ACCOUNT;
+import static io.mifos.accounting.api.v1.EventConstants.POST_LEDGER;
+import static io.mifos.deposit.api.v1.EventConstants.POST_PRODUCT_DEFINITION;
+import static io.mifos.deposit.api.v1.EventConstants.POST_PRODUCT_DEFINITION_COMMAND;
+import static io.mifos.deposit.api.v1.EventConstants.POST_PRODUCT_INSTANCE;
+import static io.mifos.office.api.v1.EventConstants.POST_EMPLOYEE;
+import static io.mifos.office.api.v1.EventConstants.POST_OFFICE;
+import static io.mifos.portfolio.api.v1.events.EventConstants.POST_CASE;
+import static io.mifos.portfolio.api.v1.events.EventConstants.POST_PRODUCT;
+import static io.mifos.portfolio.api.v1.events.EventConstants.PUT_PRODUCT_ENABLE;
+
+/**
+ * Fills a freshly provisioned tenant with production sized data: offices, employees, customers, loan products, a
+ * deposit product with deposit accounts, and loan cases, pushed through the service APIs as the operator user.
+ *
+ * The data is deterministic: identifiers are numbered, e.g. customer sc0000042, and all other values are drawn from a
+ * random source seeded with the entity's kind and number, so the same settings always produce the same tenant. Each
+ * kind of entity is sent in batches by a bounded number of threads. After sending a batch, the seeder waits for the
+ * creation events of the previous one, so that the services work off one batch while the next is sent, without the
+ * backlog of unprocessed commands growing beyond two batches.
+ */
+@Component
+public class DataSeeder {
+
+  private static final int MAX_LOGGED_FAILURES = 5;
+  private static final String ASSET = "ASSET";
+  private static final String LIABILITY = "LIABILITY";
+  private static final String EQUITY = "EQUITY";
+  private static final String REVENUE = "REVENUE";
+  private static final String EXPENSE = "EXPENSE";
+  private static final String DEPOSIT_PRODUCT = "sd01";
+
+  private final Logger logger;
+  private final TenantEventRecorder eventRecorder;
+  private final EntityTemplates templates = new EntityTemplates();
+  private final boolean enabled;
+  private final String tenant;
+  private final int offices;
+  private final int employees;
+  private final int customers;
+  private final int depositAccounts;
+  private final int products;
+  private final int cases;
+  private final int parallelism;
+  private final int batchSize;
+  private final long randomSeed;
+  private final String user;
+  private final String password;
+
+  @Autowired
+  public DataSeeder(@Qualifier("test-logger") final Logger logger,
+                    final TenantEventRecorder eventRecorder,
+                    @Value("${demoserver.seed:false}") final boolean enabled,
+                    @Value("${demoserver.seed.tenant:playground}") final String tenant,
+                    @Value("${demoserver.seed.offices:10}") final int offices,
+                    @Value("${demoserver.seed.employees:50}") final int employees,
+                    @Value("${demoserver.seed.customers:10000}") final int customers,
+                    @Value("${demoserver.seed.depositAccounts:10000}") final int depositAccounts,
+                    @Value("${demoserver.seed.products:5}") final int products,
+                    @Value("${demoserver.seed.cases:25000}") final int cases,
+                    @Value("${demoserver.seed.parallelism:16}") final int parallelism,
+                    @Value("${demoserver.seed.batchSize:500}") final int batchSize,
+                    @Value("${demoserver.seed.randomSeed:17}") final long randomSeed,
+                    @Value("${demoserver.load.user:operator}") final String user,
+                    @Value("${demoserver.load.password:init1@l}") final String password) {
+    super();
+    this.logger = logger;
+    this.eventRecorder = eventRecorder;
+    this.enabled = enabled;
+    this.tenant = tenant;
+    this.offices = offices;
+    this.employees = employees;
+    this.customers = customers;
+    this.depositAccounts = depositAccounts;
+    this.products = products;
+    this.cases = cases;
+    this.parallelism = Math.max(1, parallelism);
+    this.batchSize = Math.max(1, batchSize);
+    this.randomSeed = randomSeed;
+    this.user = user;
+    this.password = Base64Utils.encodeToString(password.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void seed() throws InterruptedException {
+    requireAtLeastOne(this.offices, "offices", this.employees + this.customers, "employees or customers");
+    requireAtLeastOne(this.customers, "customers", this.depositAccounts + this.cases, "deposit accounts or cases");
+    requireAtLeastOne(this.products, "products", this.cases, "cases");
+
+    final long startedAt = System.currentTimeMillis();
+    this.logger.info("Seeding tenant '{}' with {} offices, {} employees, {} customers, {} deposit accounts, {} products "
+            + "and {} cases, {} requests at a time in batches of {}.", this.tenant, this.offices, this.employees,
+        this.customers, this.depositAccounts, this.products, this.cases, this.parallelism, this.batchSize);
+
+    final OperatorSession session = new OperatorSession(this.tenant, this.user, this.password);
+    final ExecutorService executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+      final Thread thread = new Thread(runnable, "data-seeder");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      final Map<String, String> chart = this.seedChart(session, executor);
+
+      this.push(executor, "offices", this.offices, POST_OFFICE, index -> {
+        final Map<String, String> values = this.values("office", index, office(index));
+        values.put("officeName", "Branch " + (index + 1));
+        final Office office = this.templates.create("office", values, Office.class);
+        session.run(() -> ServiceRunner.getOrganizationManager().api().createOffice(office));
+        return office.getIdentifier();
+      });
+
+      this.push(executor, "employees", this.employees, POST_EMPLOYEE, index -> {
+        final Map<String, String> values = this.values("employee", index, String.format("se%05d", index));
+        values.put("office", office(index % this.offices));
+        final Employee employee = this.templates.create("employee", values, Employee.class);
+        session.run(() -> ServiceRunner.getOrganizationManager().api().createEmployee(employee));
+        return employee.getIdentifier();
+      });
+
+      this.push(executor, "customers", this.customers, CustomerEventConstants.POST_CUSTOMER, index -> {
+        final Map<String, String> values = this.values("customer", index, customer(index));
+        values.put("office", office(index % this.offices));
+        final Customer customer = this.templates.create("customer", values, Customer.class);
+        session.run(() -> ServiceRunner.getCustomerManager().api().createCustomer(customer));
+        return customer.getIdentifier();
+      });
+
+      this.push(executor, "products", this.products, POST_PRODUCT, index -> {
+        final Map<String, String> values = this.values("product", index, product(index));
+        values.putAll(chart);
+        values.put("productName", "Loan product " + (index + 1));
+        final Product product = this.templates.create("product", values, Product.class);
+        session.run(() -> ServiceRunner.getPortfolioManager().api().createProduct(product));
+        return product.getIdentifier();
+      });
+      this.push(executor, "product activations", this.products, PUT_PRODUCT_ENABLE, index -> {
+        session.run(() -> ServiceRunner.getPortfolioManager().api().enableProduct(product(index), Boolean.TRUE));
+        return product(index);
+      });
+
+      if (this.depositAccounts > 0) {
+        this.seedDepositProduct(session, executor, chart);
+      }
+      this.push(executor, "deposit accounts", this.depositAccounts, POST_PRODUCT_INSTANCE, index -> {
+        final Map<String, String> values = this.values("deposit account", index, customer(index % this.customers));
+        values.put("customer", customer(index % this.customers));
+        values.put("product", DEPOSIT_PRODUCT);
+        final ProductInstance productInstance = this.templates.create("deposit-account", values, ProductInstance.class);
+        session.run(() -> ServiceRunner.getDepositAccountManager().api().create(productInstance));
+        return productInstance.getCustomerIdentifier();
+      });
+
+      this.push(executor, "cases", this.cases, POST_CASE, index -> {
+        final Map<String, String> values = this.values("case", index, String.format("sk%07d", index));
+        values.put("product", product(index % this.products));
+        values.put("customer", customer(index % this.customers));
+        final Case loanCase = this.templates.create("case", values, Case.class);
+        session.run(() -> ServiceRunner.getPortfolioManager().api().createCase(loanCase.getProductIdentifier(), loanCase));
+        return new CaseEvent(loanCase.getProductIdentifier(), loanCase.getIdentifier());
+      });
+    } finally {
+      executor.shutdownNow();
+    }
+    this.logger.info("Seeded tenant '{}' in {} ms.", this.tenant, System.currentTimeMillis() - startedAt);
+  }
+
+  /**
+   * Creates one ledger with one account of each type, which the products are assigned to.
+   */
+  private Map<String, String> seedChart(final OperatorSession session,
+                                        final ExecutorService executor) throws InterruptedException {
+    final List<String> types = new ArrayList<>();
+    if (this.products + this.depositAccounts > 0) {
+      Collections.addAll(types, ASSET, LIABILITY, EQUITY, REVENUE, EXPENSE);
+    }
+    this.push(executor, "ledgers", types.size(), POST_LEDGER, index -> {
+      final Map<String, String> values = this.values("ledger", index, ledger(types.get(index)));
+      values.put("type", types.get(index));
+      values.put("ledgerName", "Seeded " + types.get(index).toLowerCase() + "s");
+      final Ledger ledger = this.templates.create("ledger", values, Ledger.class);
+      session.run(() -> ServiceRunner.getLedgerManager().api().createLedger(ledger));
+      return ledger.getIdentifier();
+    });
+    this.push(executor, "accounts", types.size(), POST_ACCOUNT, index -> {
+      final Map<String, String> values = this.values("account", index, account(types.get(index)));
+      values.put("type", types.get(index));
+      values.put("ledger", ledger(types.get(index)));
+      values.put("accountName", "Seeded " + types.get(index).toLowerCase() + " account");
+      final Account account = this.templates.create("account", values, Account.class);
+      session.run(() -> ServiceRunner.getLedgerManager().api().createAccount(account));
+      return account.getIdentifier();
+    });
+
+    final Map<String, String> chart = new HashMap<>();
+    chart.put("assetLedger", ledger(ASSET));
+    chart.put("equityLedger", ledger(EQUITY));
+    chart.put("assetAccount", account(ASSET));
+    chart.put("liabilityAccount", account(LIABILITY));
+    chart.put("revenueAccount", account(REVENUE));
+    chart.put("expenseAccount", account(EXPENSE));
+    return chart;
+  }
+
+  private void seedDepositProduct(final OperatorSession session,
+                                  final ExecutorService executor,
+                                  final Map<String, String> chart) throws InterruptedException {
+    this.push(executor, "deposit products", 1, POST_PRODUCT_DEFINITION, index -> {
+      final Map<String, String> values = this.values("deposit product", index, DEPOSIT_PRODUCT);
+      values.putAll(chart);
+      values.put("productName", "Savings");
+      final ProductDefinition productDefinition = this.templates.create("deposit-product", values, ProductDefinition.class);
+      session.run(() -> ServiceRunner.getDepositAccountManager().api().create(productDefinition));
+      return productDefinition.getIdentifier();
+    });
+    this.push(executor, "deposit product activations", 1, POST_PRODUCT_DEFINITION_COMMAND, index -> {
+      final ProductDefinitionCommand command = this.templates.create("deposit-product-activation",
+          this.values("deposit product activation", index, DEPOSIT_PRODUCT), ProductDefinitionCommand.class);
+      session.run(() -> ServiceRunner.getDepositAccountManager().api().process(DEPOSIT_PRODUCT, command));
+      return DEPOSIT_PRODUCT;
+    });
+  }
+
+  /**
+   * Sends count entities in batches, waiting for the creation events of each batch while the next one is sent.
+   *
+   * @param send sends the entity with the given number and returns the payload of the event which completes it.
+   */
+  private <T> void push(final ExecutorService executor,
+                        final String kind,
+                        final int count,
+                        final String operation,
+                        final IntFunction<T> send) throws InterruptedException {
+    if (count <= 0) {
+      return;
+    }
+    final long startedAt = System.currentTimeMillis();
+    Collection<T> pending = Collections.emptyList();
+    int failed = 0;
+    int incomplete = 0;
+    for (int from = 0; from < count; from += this.batchSize) {
+      final List<Callable<T>> batch = new ArrayList<>();
+      for (int index = from; index < Math.min(count, from + this.batchSize); index++) {
+        final int number = index;
+        batch.add(() -> send.apply(number));
+      }
+
+      final List<T> sent = new ArrayList<>(batch.size());
+      for (final Future<T> result : executor.invokeAll(batch)) {
+        try {
+          sent.add(result.get());
+        } catch (final ExecutionException ex) {
+          if (failed++ < MAX_LOGGED_FAILURES) {
+            this.logger.warn("Could not seed one of the {}: {}", kind, ex.getCause().getMessage());
+          }
+        }
+      }
+
+      incomplete += this.awaitCompletion(operation, pending);
+      pending = sent;
+      final int done = Math.min(count, from + this.batchSize);
+      if (done < count) {
+        this.logger.info("Sent {} of {} {}.", done, count, kind);
+      }
+    }
+    incomplete += this.awaitCompletion(operation, pending);
+
+    final long elapsed = Math.max(1L, System.currentTimeMillis() - startedAt);
+    this.logger.info("Seeded {} {} in {} ms ({} per second), {} failed, {} not confirmed by an event.",
+        count - failed - incomplete, kind, elapsed, (count - failed) * 1000L / elapsed, failed, incomplete);
+  }
+
+  private <T> int awaitCompletion(final String operation, final Collection<T> expected) throws InterruptedException {
+    if (expected.isEmpty()) {
+      return 0;
+    }
+    try (final AutoTenantContext ignored = new AutoTenantContext(this.tenant)) {
+      final EventWaitResult<T> result = this.eventRecorder.waitForAll(operation, expected);
+      return result.getMissing().size();
+    }
+  }
+
+  /**
+   * The values every template may refer to, drawn from a random source seeded with the kind and number of the entity.
+   */
+  private Map<String, String> values(final String kind, final int index, final String identifier) {
+    final Random random = new Random(Objects.hash(this.randomSeed, kind, index));
+    final Map<String, String> values = new HashMap<>();
+    values.put("identifier", identifier);
+    values.put("sequence", Integer.toString(index));
+    SyntheticValues.person(random, values);
+    SyntheticValues.loan(random, values);
+    return values;
+  }
+
+  private static void requireAtLeastOne(final int count, final String kind, final int dependents, final String dependentKind) {
+    if (count <= 0 && dependents > 0) {
+      throw new IllegalArgumentException("Seeding " + dependentKind + " requires at least one of the " + kind + ".");
+    }
+  }
+
+  private static String office(final int index) {
+    return String.format("so%04d", index);
+  }
+
+  private static String customer(final int index) {
+    return String.format("sc%07d", index);
+  }
+
+  private static String product(final int index) {
+    return String.format("sp%02d", index);
+  }
+
+  private static String ledger(final String type) {
+    return "seed" + type.toLowerCase();
+  }
+
+  private static String account(final String type) {
+    return "seed" + type.toLowerCase() + "1";
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.startup;
+
+import io.mifos.core.test.servicestarter.Microservice;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a service until it reports itself healthy, backing off exponentially between attempts. The actuator health
+ * endpoint is asked first, and a service which is up answers it with 200, while one whose database or message broker
+ * is not yet available answers with 503. If the health endpoint is not exposed to an unauthenticated request, a 200
+ * from the info endpoint is taken instead, and failing that, any answer below 500 from the service itself: a request
+ * rejected by a running service is still answered.
+ */
+public class ServiceReadiness {
+
+  private static final int PROBE_TIMEOUT_MILLIS = 2_000;
+  private static final int NOT_ANSWERED = -1;
+
+  private final Logger logger;
+  private final long deadlineMillis;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+  private final Map<String, Long> deadlineOverrides = new ConcurrentHashMap<>();
+  private final Map<String, Long> timeToReady = new ConcurrentHashMap<>();
+
+  public ServiceReadiness(final Logger logger,
+                          final long deadlineMillis,
+                          final long initialBackoffMillis,
+                          final long maxBackoffMillis) {
+    super();
+    this.logger = logger;
+    this.deadlineMillis = deadlineMillis;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  public void setDeadline(final String serviceName, final long deadlineMillis) {
+    this.deadlineOverrides.put(serviceName, deadlineMillis);
+  }
+
+  /**
+   * @param startedAt the time in milliseconds the service was launched, used to report its time to ready.
+   * @return true if the service answered before its deadline.
+   */
+  public boolean awaitReady(final Microservice<?> microservice, final long startedAt) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + this.deadlineOverrides.getOrDefault(microservice.name(), this.deadlineMillis);
+    long backoff = this.initialBackoffMillis;
+    int attempts = 0;
+    while (true) {
+      attempts++;
+      if (this.answers(microservice.uri())) {
+        final long elapsed = System.currentTimeMillis() - startedAt;
+        this.timeToReady.put(microservice.name(), elapsed);
+        this.logger.info("Service '{}' ready after {} ms ({} probes).", microservice.name(), elapsed, attempts);
+        return true;
+      }
+
+      final long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        this.logger.warn("Service '{}' did not answer within its deadline after {} probes.", microservice.name(), attempts);
+        return false;
+      }
+      TimeUnit.MILLISECONDS.sleep(Math.min(backoff, remaining));
+      backoff = Math.min(backoff * 2, this.maxBackoffMillis);
+    }
+  }
+
+  public Map<String, Long> timeToReady() {
+    return this.timeToReady;
+  }
+
+  private boolean answers(final String uri) {
+    final int health = status(uri + "/health");
+    if (health == HttpURLConnection.HTTP_OK) {
+      return true;
+    }
+    if (health == NOT_ANSWERED || health == HttpURLConnection.HTTP_UNAVAILABLE) {
+      return false;
+    }
+    if (status(uri + "/info") == HttpURLConnection.HTTP_OK) {
+      return true;
+    }
+    final int base = status(uri);
+    return base != NOT_ANSWERED && base < 500;
+  }
+
+  private static int status(final String uri) {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) new URL(uri).openConnection();
+      connection.setConnectTimeout(PROBE_TIMEOUT_MILLIS);
+      connection.setReadTimeout(PROBE_TIMEOUT_MILLIS);
+      connection.setRequestMethod("GET");
+      return connection.getResponseCode();
+    } catch (final IOException ex) {
+      return NOT_ANSWERED;
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+}
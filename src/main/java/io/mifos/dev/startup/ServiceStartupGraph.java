@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.startup;
+
+import io.mifos.core.test.servicestarter.Microservice;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts microservices along their dependency graph. A service is launched as soon as all services it depends on are
+ * up, so independent services start concurrently on a bounded pool and the time to ready approaches the length of the
+ * longest dependency chain rather than the sum of all start times.
+ *
+ * Dependencies must be added before their dependents, which keeps the graph acyclic by construction.
+ */
+public class ServiceStartupGraph {
+
+  @FunctionalInterface
+  public interface ServiceStarter {
+    void start(final Microservice<?> microservice) throws Exception;
+  }
+
+  private final Logger logger;
+  private final Map<Microservice<?>, List<Microservice<?>>> dependencies = new LinkedHashMap<>();
+
+  public ServiceStartupGraph(final Logger logger) {
+    super();
+    this.logger = logger;
+  }
+
+  public ServiceStartupGraph add(final Microservice<?> microservice, final Microservice<?>... dependsOn) {
+    if (this.dependencies.containsKey(microservice)) {
+      throw new IllegalArgumentException("Service '" + microservice.name() + "' was already added.");
+    }
+    for (final Microservice<?> dependency : dependsOn) {
+      if (!this.dependencies.containsKey(dependency)) {
+        throw new IllegalArgumentException("Service '" + microservice.name() + "' depends on '"
+            + dependency.name() + "' which has not been added yet.");
+      }
+    }
+    this.dependencies.put(microservice, Arrays.asList(dependsOn));
+    return this;
+  }
+
+  public Collection<Microservice<?>> services() {
+    return Collections.unmodifiableSet(this.dependencies.keySet());
+  }
+
+  public void startAll(final ServiceStarter starter, final int parallelism) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), new StartupThreadFactory());
+    final long startedAt = System.currentTimeMillis();
+    try {
+      final Map<Microservice<?>, CompletableFuture<Void>> started = new LinkedHashMap<>();
+      this.dependencies.forEach((microservice, dependsOn) -> {
+        final CompletableFuture<?>[] prerequisites = dependsOn.stream().map(started::get).toArray(CompletableFuture[]::new);
+        started.put(microservice, CompletableFuture.allOf(prerequisites).thenRunAsync(() -> {
+          try {
+            starter.start(microservice);
+          } catch (final Exception ex) {
+            throw new CompletionException(ex);
+          }
+        }, executor));
+      });
+
+      try {
+        CompletableFuture.allOf(started.values().toArray(new CompletableFuture[started.size()])).join();
+      } catch (final CompletionException ex) {
+        final List<String> failed = new ArrayList<>();
+        started.forEach((microservice, future) -> {
+          if (future.isCompletedExceptionally()) {
+            failed.add(microservice.name());
+          }
+        });
+        this.logger.error("Services {} failed to start.", failed);
+        throw unwrap(ex);
+      }
+      this.logger.info("Started {} services in {} ms with a parallelism of {}.",
+          this.dependencies.size(), System.currentTimeMillis() - startedAt, parallelism);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Exception unwrap(final CompletionException ex) {
+    Throwable cause = ex;
+    while (cause instanceof CompletionException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    if (cause instanceof Exception) {
+      return (Exception) cause;
+    }
+    return ex;
+  }
+
+  private static class StartupThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      final Thread thread = new Thread(runnable, "service-startup-" + this.count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.storage;
+
+import ch.vorburger.mariadb4j.DB;
+import ch.vorburger.mariadb4j.DBConfigurationBuilder;
+import org.apache.cassandra.service.CassandraDaemon;
+import org.apache.cassandra.service.StorageService;
+import org.cassandraunit.utils.EmbeddedCassandraServerHelper;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the embedded MariaDB and Cassandra used in non-persistent mode.
+ *
+ * A snapshot copies both data directories after the services have been stopped, so that a later boot can restore the
+ * provisioned state instead of provisioning every tenant again. Cassandra is drained before it is copied, which
+ * flushes all memtables and leaves nothing to replay from the commit log.
+ *
+ * With the {@link StorageProfile#EPHEMERAL_FAST} profile, both data directories are placed on a tmpfs, and neither
+ * data store waits for its writes to reach the disk: InnoDB writes its log without flushing it at commit and without
+ * the doublewrite buffer, and the Cassandra commit log is synced once a minute. A crash loses the data, which is
+ * discarded at shutdown anyway; snapshots are still consistent, because they are taken after both have been stopped
+ * cleanly.
+ */
+public class EmbeddedDataStores {
+
+  private static final String MARIADB_DIRECTORY = "mariadb";
+  private static final String CASSANDRA_DIRECTORY = "cassandra";
+  private static final String EPHEMERAL_DIRECTORY = "mifos-demo-server";
+  private static final long CASSANDRA_STARTUP_TIMEOUT = TimeUnit.SECONDS.toMillis(30L);
+  private static final long EPHEMERAL_COMMITLOG_SYNC_PERIOD = TimeUnit.MINUTES.toMillis(1L);
+  private static final long TMPFS_SPACE_WARNING = 2L * 1024L * 1024L * 1024L;
+
+  private final Logger logger;
+  private final StorageProfile profile;
+  private final Path ephemeralRoot;
+  private final Path mariaDbDataDirectory;
+  private final Path cassandraDirectory;
+
+  private DB mariaDb;
+  private boolean restored;
+
+  public EmbeddedDataStores(final Logger logger) {
+    this(logger, StorageProfile.DURABLE, null);
+  }
+
+  /**
+   * @param tmpfs the memory backed file system to put the data directories on in the ephemeral profile.
+   */
+  public EmbeddedDataStores(final Logger logger, final StorageProfile profile, final Path tmpfs) {
+    super();
+    this.logger = logger;
+    this.profile = profile;
+    if (profile == StorageProfile.EPHEMERAL_FAST) {
+      this.ephemeralRoot = tmpfs.resolve(EPHEMERAL_DIRECTORY).toAbsolutePath();
+      this.mariaDbDataDirectory = this.ephemeralRoot.resolve(MARIADB_DIRECTORY);
+      this.cassandraDirectory = this.ephemeralRoot.resolve(CASSANDRA_DIRECTORY);
+    } else {
+      this.ephemeralRoot = null;
+      this.mariaDbDataDirectory = Paths.get("target", "embeddedMariaDB");
+      this.cassandraDirectory = Paths.get(EmbeddedCassandraServerHelper.DEFAULT_TMP_DIR);
+    }
+  }
+
+  public void start() throws Exception {
+    this.reportProfile();
+    if (this.profile == StorageProfile.EPHEMERAL_FAST) {
+      Snapshots.delete(this.ephemeralRoot);
+      Files.createDirectories(this.ephemeralRoot);
+      final Path configuration = this.ephemeralRoot.resolve(EmbeddedCassandraServerHelper.DEFAULT_CASSANDRA_YML_FILE);
+      Files.write(configuration, this.cassandraConfiguration().getBytes(StandardCharsets.UTF_8));
+      EmbeddedCassandraServerHelper.startEmbeddedCassandra(configuration.toFile(), this.cassandraDirectory.toString(), CASSANDRA_STARTUP_TIMEOUT);
+    } else {
+      EmbeddedCassandraServerHelper.startEmbeddedCassandra(CASSANDRA_STARTUP_TIMEOUT);
+    }
+
+    Snapshots.delete(this.mariaDbDataDirectory);
+    this.startMariaDb();
+  }
+
+  public StorageProfile getProfile() {
+    return profile;
+  }
+
+  /**
+   * Starts both data stores on a copy of a snapshot taken by {@link #stop(Path)}.
+   */
+  public void restore(final Path snapshot) throws Exception {
+    this.reportProfile();
+    final long startedAt = System.currentTimeMillis();
+
+    Snapshots.delete(this.cassandraDirectory);
+    Snapshots.copy(snapshot.resolve(CASSANDRA_DIRECTORY), this.cassandraDirectory);
+    //the snapshot may have been taken with the data directories of the other profile
+    Files.write(this.cassandraDirectory.resolve(EmbeddedCassandraServerHelper.DEFAULT_CASSANDRA_YML_FILE),
+        this.cassandraConfiguration().getBytes(StandardCharsets.UTF_8));
+    this.startCassandraOnExistingData();
+
+    Snapshots.delete(this.mariaDbDataDirectory);
+    Snapshots.copy(snapshot.resolve(MARIADB_DIRECTORY), this.mariaDbDataDirectory);
+    this.startMariaDb();
+
+    this.restored = true;
+    this.logger.info("Restored embedded data stores from snapshot '{}' in {} ms.", snapshot, System.currentTimeMillis() - startedAt);
+  }
+
+  public boolean isRestored() {
+    return this.restored;
+  }
+
+  public static boolean isSnapshot(final Path snapshot) {
+    return Files.isDirectory(snapshot.resolve(MARIADB_DIRECTORY)) && Files.isDirectory(snapshot.resolve(CASSANDRA_DIRECTORY));
+  }
+
+  /**
+   * Stops the data stores, must be called after all services have been stopped.
+   *
+   * @param snapshot the directory to capture the data stores to, or null to discard their data.
+   */
+  public void stop(final Path snapshot) throws Exception {
+    if (snapshot == null) {
+      this.mariaDb.stop();
+      EmbeddedCassandraServerHelper.cleanEmbeddedCassandra();
+      if (this.ephemeralRoot != null) {
+        Snapshots.delete(this.ephemeralRoot);
+      }
+      return;
+    }
+
+    final long startedAt = System.currentTimeMillis();
+    final Path capture = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+    Snapshots.delete(capture);
+
+    StorageService.instance.drain();
+    Snapshots.copy(this.cassandraDirectory, capture.resolve(CASSANDRA_DIRECTORY));
+
+    this.mariaDb.stop();
+    Snapshots.copy(this.mariaDbDataDirectory, capture.resolve(MARIADB_DIRECTORY));
+
+    Snapshots.delete(snapshot);
+    Files.move(capture, snapshot);
+    if (this.ephemeralRoot != null) {
+      Snapshots.delete(this.ephemeralRoot);
+    }
+    this.logger.info("Captured embedded data stores to snapshot '{}' in {} ms.", snapshot, System.currentTimeMillis() - startedAt);
+  }
+
+  private void startMariaDb() throws Exception {
+    final DBConfigurationBuilder configuration = DBConfigurationBuilder.newBuilder()
+        .setPort(3306)
+        .setDataDir(this.mariaDbDataDirectory.toAbsolutePath().toString());
+    if (this.profile == StorageProfile.EPHEMERAL_FAST) {
+      configuration.addArg("--innodb-flush-log-at-trx-commit=0");
+      configuration.addArg("--innodb-doublewrite=0");
+      //tmpfs supports neither O_DIRECT nor native asynchronous I/O
+      configuration.addArg("--innodb-use-native-aio=0");
+      configuration.addArg("--sync-binlog=0");
+    }
+    this.mariaDb = DB.newEmbeddedDB(configuration.build());
+    this.mariaDb.start();
+  }
+
+  /**
+   * The Cassandra configuration of cassandra-unit, with the data directories moved to those of this profile.
+   */
+  private String cassandraConfiguration() throws IOException {
+    final String configuration;
+    try (final InputStream in = EmbeddedCassandraServerHelper.class.getResourceAsStream("/" + EmbeddedCassandraServerHelper.DEFAULT_CASSANDRA_YML_FILE);
+         final Scanner scanner = new Scanner(in, StandardCharsets.UTF_8.name())) {
+      configuration = scanner.useDelimiter("\\A").next();
+    }
+    if (this.profile != StorageProfile.EPHEMERAL_FAST) {
+      return configuration;
+    }
+    return configuration
+        .replace(EmbeddedCassandraServerHelper.DEFAULT_TMP_DIR, this.cassandraDirectory.toString())
+        .replaceAll("(?m)^commitlog_sync:.*$", "commitlog_sync: periodic")
+        .replaceAll("(?m)^commitlog_sync_batch_window_in_ms:.*$", "")
+        .replaceAll("(?m)^commitlog_sync_period_in_ms:.*$", "commitlog_sync_period_in_ms: " + EPHEMERAL_COMMITLOG_SYNC_PERIOD)
+        .replaceAll("(?m)^trickle_fsync:.*$", "trickle_fsync: false");
+  }
+
+  private void reportProfile() throws IOException {
+    if (this.profile != StorageProfile.EPHEMERAL_FAST) {
+      this.logger.info("Storage profile {}: MariaDB data in '{}', Cassandra data in '{}', synced on commit.",
+          this.profile, this.mariaDbDataDirectory.toAbsolutePath(), this.cassandraDirectory.toAbsolutePath());
+      return;
+    }
+
+    Files.createDirectories(this.ephemeralRoot);
+    final FileStore store = Files.getFileStore(this.ephemeralRoot);
+    if (!"tmpfs".equals(store.type())) {
+      this.logger.warn("'{}' is on a {} file system, not tmpfs, the data stores will write to disk without syncing.",
+          this.ephemeralRoot, store.type());
+    }
+    if (store.getUsableSpace() < TMPFS_SPACE_WARNING) {
+      this.logger.warn("Only {} MB are free on '{}', provisioning or seeding large tenants may run out of space.",
+          store.getUsableSpace() / (1024L * 1024L), this.ephemeralRoot);
+    }
+    this.logger.info("Storage profile {}: MariaDB data in '{}' without flushing the log at commit and without doublewrite, "
+            + "Cassandra data in '{}' with the commit log synced every {} ms, {} MB free on {}.",
+        this.profile, this.mariaDbDataDirectory, this.cassandraDirectory, EPHEMERAL_COMMITLOG_SYNC_PERIOD,
+        store.getUsableSpace() / (1024L * 1024L), store.type());
+  }
+
+  /**
+   * EmbeddedCassandraServerHelper wipes its data directories on start, so a restored Cassandra is started the same
+   * way the helper does it, minus the cleanup.
+   */
+  private void startCassandraOnExistingData() throws InterruptedException, IOException {
+    final Path configuration = this.cassandraDirectory.resolve(EmbeddedCassandraServerHelper.DEFAULT_CASSANDRA_YML_FILE);
+    if (!Files.exists(configuration)) {
+      throw new IOException("Snapshot does not contain a Cassandra configuration: " + configuration);
+    }
+
+    System.setProperty("cassandra.config", configuration.toAbsolutePath().toUri().toString());
+    System.setProperty("cassandra-foreground", "true");
+    System.setProperty("cassandra.native.epoll.enabled", "false");
+    System.setProperty("cassandra.unsafesystem", "true");
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.execute(() -> {
+      new CassandraDaemon(true).activate();
+      started.countDown();
+    });
+    executor.shutdown();
+    if (!started.await(CASSANDRA_STARTUP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+      throw new IOException("Cassandra did not start within " + CASSANDRA_STARTUP_TIMEOUT + " ms.");
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.storage;
+
+/**
+ * How the embedded data stores keep their data.
+ */
+public enum StorageProfile {
+  /**
+   * Data directories under target, written with the default durability of both data stores.
+   */
+  DURABLE("durable"),
+  /**
+   * Data directories in memory, with fsync after commits and commit log writes relaxed. Meant for data which is thrown
+   * away when the demo server stops or captured in a snapshot after a clean shutdown.
+   */
+  EPHEMERAL_FAST("ephemeral-fast");
+
+  private final String key;
+
+  StorageProfile(final String key) {
+    this.key = key;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public static StorageProfile forKey(final String key) {
+    for (final StorageProfile profile : values()) {
+      if (profile.key.equalsIgnoreCase(key.trim())) {
+        return profile;
+      }
+    }
+    throw new IllegalArgumentException("Unknown storage profile '" + key + "', expected durable or ephemeral-fast.");
+  }
+
+  @Override
+  public String toString() {
+    return this.key;
+  }
+}
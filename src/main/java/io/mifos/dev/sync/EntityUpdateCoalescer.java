@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.sync;
+
+import io.mifos.dev.cache.EntityCache;
+import io.mifos.dev.metrics.ListenerMetrics;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Folds the update events an entity receives within a short window into a single fetch and sync. All actions run as
+ * the sync user of the tenant.
+ *
+ * An update is held back for the coalescing window; further updates of the same tenant, entity type and identifier
+ * arriving meanwhile replace it, since each of them would fetch the same current state. Any other event of the entity
+ * is ordered against the pending update: {@link #apply} runs the pending update first, {@link #delete} drops it
+ * because there is nothing left to fetch. Actions of the same entity never run concurrently.
+ *
+ * The cached copy of the entity is invalidated as soon as the update arrives, not when the held back update runs, so
+ * readers of the cache never see the entity from before the event.
+ *
+ * A held back update is timed as deferred work of the handler which received it. If it fails, the failure is logged
+ * and counted against that handler, while the actions passed to {@link #apply} and {@link #delete} throw to their
+ * callers like any other handler code.
+ */
+@Component
+public class EntityUpdateCoalescer {
+
+  private static final int LOCK_STRIPES = 256;
+
+  private final Logger logger;
+  private final ListenerMetrics listenerMetrics;
+  private final SyncUserSession syncUserSession;
+  private final EntityCache entityCache;
+  private final long window;
+  private final ScheduledExecutorService timer;
+  private final ExecutorService workers;
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  private final Map<EntityKey, PendingUpdate> pending = new HashMap<>();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong folded = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  @Autowired
+  public EntityUpdateCoalescer(@Qualifier("test-logger") final Logger logger,
+                               final SyncUserSession syncUserSession,
+                               final EntityCache entityCache,
+                               final ListenerMetrics listenerMetrics,
+                               @Value("${demoserver.events.coalesce.window:250}") final long window,
+                               @Value("${demoserver.events.coalesce.workers:4}") final int workers) {
+    super();
+    this.logger = logger;
+    this.syncUserSession = syncUserSession;
+    this.entityCache = entityCache;
+    this.listenerMetrics = listenerMetrics;
+    this.window = Math.max(0L, window);
+    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "coalesce-timer"));
+    this.workers = Executors.newFixedThreadPool(Math.max(1, workers), runnable -> daemon(runnable, "coalesce-worker"));
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      this.locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Schedules the update to run once the coalescing window has passed, replacing an update of the same entity which is
+   * still waiting.
+   */
+  public void update(final String tenant, final String entityType, final String identifier, final Runnable action) {
+    this.received.incrementAndGet();
+    this.entityCache.invalidate(tenant, entityType, identifier);
+    if (this.window == 0L) {
+      this.apply(tenant, entityType, identifier, action);
+      return;
+    }
+
+    final EntityKey key = new EntityKey(tenant, entityType, identifier);
+    synchronized (this) {
+      final PendingUpdate waiting = this.pending.get(key);
+      if (waiting != null) {
+        waiting.action = this.listenerMetrics.supersede(waiting.action, this.listenerMetrics.propagate(action));
+        this.folded.incrementAndGet();
+        return;
+      }
+      final PendingUpdate update = new PendingUpdate(this.listenerMetrics.propagate(action));
+      this.pending.put(key, update);
+      this.timer.schedule(() -> this.workers.execute(() -> this.fire(key, update)), this.window, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Runs the action right away, after the pending update of the entity if there is one.
+   */
+  public void apply(final String tenant, final String entityType, final String identifier, final Runnable action) {
+    final EntityKey key = new EntityKey(tenant, entityType, identifier);
+    synchronized (this.lockFor(key)) {
+      final PendingUpdate waiting;
+      synchronized (this) {
+        waiting = this.pending.remove(key);
+      }
+      if (waiting != null) {
+        this.runHeldBack(key, waiting.action);
+      }
+      this.syncUserSession.run(key.tenant, action);
+    }
+  }
+
+  /**
+   * Runs the action right away, discarding the pending update of the entity if there is one.
+   */
+  public void delete(final String tenant, final String entityType, final String identifier, final Runnable action) {
+    final EntityKey key = new EntityKey(tenant, entityType, identifier);
+    synchronized (this.lockFor(key)) {
+      synchronized (this) {
+        final PendingUpdate superseded = this.pending.remove(key);
+        if (superseded != null) {
+          this.dropped.incrementAndGet();
+          this.listenerMetrics.discard(superseded.action);
+        }
+      }
+      this.syncUserSession.run(key.tenant, action);
+    }
+  }
+
+  public long getReceived() {
+    return this.received.get();
+  }
+
+  public long getFolded() {
+    return this.folded.get();
+  }
+
+  public long getDropped() {
+    return this.dropped.get();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    this.timer.shutdownNow();
+    this.workers.shutdown();
+    this.logger.info("Coalesced {} of {} update events, dropped {} superseded by a delete.",
+        this.folded.get(), this.received.get(), this.dropped.get());
+  }
+
+  private void fire(final EntityKey key, final PendingUpdate update) {
+    synchronized (this.lockFor(key)) {
+      synchronized (this) {
+        if (this.pending.get(key) != update) {
+          return;
+        }
+        this.pending.remove(key);
+      }
+      this.runHeldBack(key, update.action);
+    }
+  }
+
+  /**
+   * Runs a held back update, which the handler that received it has long returned from. Its failure is counted as a
+   * failed deferred run of that handler.
+   */
+  private void runHeldBack(final EntityKey key, final Runnable action) {
+    try {
+      this.syncUserSession.run(key.tenant, action);
+    } catch (final RuntimeException ex) {
+      this.logger.warn("Could not handle held back update of {} '{}' for tenant '{}': {}", key.entityType, key.identifier, key.tenant, ex.getMessage());
+    }
+  }
+
+  private Object lockFor(final EntityKey key) {
+    return this.locks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+  }
+
+  private static Thread daemon(final Runnable runnable, final String name) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static class PendingUpdate {
+    private volatile Runnable action;
+
+    private PendingUpdate(final Runnable action) {
+      this.action = action;
+    }
+  }
+
+  private static class EntityKey {
+    private final String tenant;
+    private final String entityType;
+    private final String identifier;
+
+    private EntityKey(final String tenant, final String entityType, final String identifier) {
+      this.tenant = tenant;
+      this.entityType = entityType;
+      this.identifier = identifier;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final EntityKey entityKey = (EntityKey) o;
+      return Objects.equals(tenant, entityKey.tenant) &&
+          Objects.equals(entityType, entityKey.entityType) &&
+          Objects.equals(identifier, entityKey.identifier);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tenant, entityType, identifier);
+    }
+  }
+}
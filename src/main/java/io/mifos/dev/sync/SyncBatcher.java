@@ -0,0 +1,409 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.sync;
+
+import io.mifos.dev.ServiceRunner;
+import io.mifos.dev.metrics.Histogram;
+import io.mifos.dev.metrics.HistogramSnapshot;
+import io.mifos.dev.metrics.ListenerMetrics;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the calls the listeners make to the sync manager per tenant and entity type, and flushes them together
+ * once a batch is full or its oldest call has waited for the maximum delay.
+ *
+ * The sync manager has no bulk endpoints, so a flush is a pipelined burst: the calls of different entities run
+ * concurrently under one sync user session, while the calls for the same entity run one after the other in the order
+ * they were submitted. Flushes of the same tenant and entity type never overlap, so a create always reaches the sync
+ * manager before a later update or delete of the same entity.
+ *
+ * A failing call is retried with exponential backoff until it succeeds or runs out of attempts and is dead-lettered.
+ * Retries run outside the flushes of their tenant and entity type: only the later calls of the same entity wait for
+ * them, while the next batches of other entities go ahead. During shutdown failing calls are not retried, and the calls
+ * not delivered once the batcher has stopped are abandoned: left pending in the outbox and no longer holding their
+ * messages in the {@link io.mifos.dev.metrics.EventLag}.
+ *
+ * Nothing is delivered before {@link #open} is called once the sync manager is running, so the calls the outbox
+ * replays on start are queued ahead of any new call for the same entity.
+ *
+ * Each delivery is timed as the sync phase of the handler which made the call, and the login it may need as its login
+ * phase.
+ *
+ * Batch sizes and flush latencies are registered with the platform MBean server as io.mifos.dev:type=SyncBatcher.
+ */
+@Component
+public class SyncBatcher implements SyncBatcherMXBean {
+
+  private final Logger logger;
+  private final ListenerMetrics listenerMetrics;
+  private final SyncUserSession syncUserSession;
+  private final int maxSize;
+  private final long maxDelay;
+  private final int maxAttempts;
+  private final long initialBackoff;
+  private final long maxBackoff;
+  private final ScheduledExecutorService timer;
+  private final ExecutorService pipeline;
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+  private final ObjectName name;
+
+  private final Map<BatchKey, Batch> pending = new HashMap<>();
+  private final Map<BatchKey, CompletableFuture<Void>> flushing = new HashMap<>();
+  private final Map<EntityKey, CompletableFuture<Void>> entities = new HashMap<>();
+  private final CompletableFuture<Void> opened = new CompletableFuture<>();
+  private final Set<SyncCommand> outstanding = ConcurrentHashMap.newKeySet();
+  private final Histogram flushLatency = new Histogram("sync flush latency", "ms");
+  private final Histogram batchSize = new Histogram("sync batch size", "calls");
+  private volatile boolean stopping;
+
+  @Autowired
+  public SyncBatcher(@Qualifier("test-logger") final Logger logger,
+                     final ListenerMetrics listenerMetrics,
+                     final SyncUserSession syncUserSession,
+                     @Value("${demoserver.sync.batch.maxSize:50}") final int maxSize,
+                     @Value("${demoserver.sync.batch.maxDelay:200}") final long maxDelay,
+                     @Value("${demoserver.sync.batch.pipelineDepth:8}") final int pipelineDepth,
+                     @Value("${demoserver.sync.retry.maxAttempts:8}") final int maxAttempts,
+                     @Value("${demoserver.sync.retry.initialBackoff:500}") final long initialBackoff,
+                     @Value("${demoserver.sync.retry.maxBackoff:30000}") final long maxBackoff) throws JMException {
+    super();
+    this.logger = logger;
+    this.listenerMetrics = listenerMetrics;
+    this.syncUserSession = syncUserSession;
+    this.maxSize = Math.max(1, maxSize);
+    this.maxDelay = Math.max(0L, maxDelay);
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.initialBackoff = Math.max(1L, initialBackoff);
+    this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "sync-batch-timer"));
+    this.pipeline = Executors.newFixedThreadPool(Math.max(1, pipelineDepth), runnable -> daemon(runnable, "sync-pipeline"));
+    this.name = new ObjectName("io.mifos.dev:type=SyncBatcher");
+    if (this.mBeanServer.isRegistered(this.name)) {
+      this.mBeanServer.unregisterMBean(this.name);
+    }
+    this.mBeanServer.registerMBean(this, this.name);
+  }
+
+  /**
+   * Queues a call to the sync manager. The call runs later on a pipeline thread as the sync user of the tenant.
+   * Calls are batched by tenant and entity type, and calls for the same entity keep their order.
+   */
+  void submit(final SyncCommand command) {
+    final BatchKey key = new BatchKey(command.getTenant(), command.getOperation().getEntityType());
+    final Batch full;
+    synchronized (this) {
+      if (this.stopping) {
+        command.abandoned();
+        return;
+      }
+      this.outstanding.add(command);
+      Batch batch = this.pending.get(key);
+      if (batch == null) {
+        batch = new Batch();
+        this.pending.put(key, batch);
+        final Batch scheduled = batch;
+        this.timer.schedule(() -> this.flush(key, scheduled), this.maxDelay, TimeUnit.MILLISECONDS);
+      }
+      batch.add(command);
+      full = batch.size >= this.maxSize ? batch : null;
+    }
+    if (full != null) {
+      this.flush(key, full);
+    }
+  }
+
+  /**
+   * Starts delivering calls, those submitted so far first.
+   */
+  public void open() {
+    this.opened.complete(null);
+  }
+
+  /**
+   * Flushes every pending batch and waits until all flushes have completed. Calls waiting for a retry are not waited
+   * for.
+   */
+  public void flushAll() {
+    final List<CompletableFuture<Void>> flushes = new ArrayList<>();
+    final Map<BatchKey, Batch> batches;
+    synchronized (this) {
+      batches = new HashMap<>(this.pending);
+    }
+    batches.forEach((key, batch) -> this.flush(key, batch));
+    synchronized (this) {
+      flushes.addAll(this.flushing.values());
+    }
+    flushes.forEach(CompletableFuture::join);
+  }
+
+  @Override
+  public HistogramSnapshot getFlushLatency() {
+    return this.flushLatency.snapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getBatchSize() {
+    return this.batchSize.snapshot();
+  }
+
+  @Override
+  public synchronized int getPending() {
+    return this.pending.values().stream().mapToInt(batch -> batch.size).sum();
+  }
+
+  @Override
+  public void reset() {
+    this.flushLatency.reset();
+    this.batchSize.reset();
+  }
+
+  /**
+   * Stops retrying and flushes what is pending, waiting up to the maximum backoff for calls in flight. The calls not
+   * delivered by then are abandoned and stay in the outbox. Safe to call more than once, the {@link SyncOutbox} calls
+   * it before closing its journal.
+   */
+  @PreDestroy
+  public void shutdown() {
+    synchronized (this) {
+      if (this.stopping) {
+        return;
+      }
+      this.stopping = true;
+    }
+    if (this.opened.isDone()) {
+      this.flushAll();
+    }
+    this.timer.shutdownNow();
+    this.pipeline.shutdown();
+    try {
+      this.pipeline.awaitTermination(this.maxBackoff, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    final List<SyncCommand> abandoned = new ArrayList<>(this.outstanding);
+    abandoned.forEach(this::abandon);
+    if (!abandoned.isEmpty()) {
+      this.logger.info("Left {} sync calls pending in the outbox.", abandoned.size());
+    }
+    this.logger.info("{}", this.batchSize);
+    this.logger.info("{}", this.flushLatency);
+    try {
+      this.mBeanServer.unregisterMBean(this.name);
+    } catch (final JMException ignored) {
+      //already gone
+    }
+  }
+
+  /**
+   * Detaches the batch if it is still the pending one for its key and chains its flush behind the previous flush of
+   * the same key. Whichever of the timer and the submitter reaching the maximum size comes second finds nothing to do.
+   */
+  private void flush(final BatchKey key, final Batch batch) {
+    synchronized (this) {
+      if (this.pending.get(key) != batch) {
+        return;
+      }
+      this.pending.remove(key);
+      final CompletableFuture<Void> previous = this.flushing.getOrDefault(key, this.opened);
+      final CompletableFuture<Void> next = previous.thenCompose(ignored -> this.burst(key, batch));
+      this.flushing.put(key, next);
+      next.whenComplete((ignored, ex) -> {
+        synchronized (this) {
+          this.flushing.remove(key, next);
+        }
+      });
+    }
+  }
+
+  private CompletableFuture<Void> burst(final BatchKey key, final Batch batch) {
+    final CompletableFuture<?>[] entities = batch.calls.entrySet().stream()
+        .map(calls -> this.deliverInOrder(new EntityKey(key, calls.getKey()), calls.getValue()))
+        .toArray(CompletableFuture[]::new);
+    return CompletableFuture.allOf(entities).whenComplete((ignored, ex) -> {
+      this.batchSize.record(batch.size);
+      this.flushLatency.record(System.currentTimeMillis() - batch.createdAt);
+      this.logger.debug("Flushed {} sync calls for {} entities of type '{}' of tenant '{}'.",
+          batch.size, batch.calls.size(), key.entityType, key.tenant);
+    });
+  }
+
+  /**
+   * Chains the calls of the entity behind its earlier calls still being retried, if any.
+   *
+   * @return a future completing once the calls were delivered, or as soon as one of them waits for a retry, or right
+   * away if an earlier call of the entity is still waiting for one. The flush does not wait for retries.
+   */
+  private CompletableFuture<Void> deliverInOrder(final EntityKey entity, final List<SyncCommand> commands) {
+    final CompletableFuture<Void> retrying = new CompletableFuture<>();
+    final CompletableFuture<Void> behind;
+    synchronized (this) {
+      behind = this.entities.get(entity);
+    }
+    CompletableFuture<Void> chain = behind == null ? CompletableFuture.completedFuture(null) : behind;
+    for (final SyncCommand command : commands) {
+      chain = chain.thenComposeAsync(ignored -> this.deliver(command, retrying), this.pipeline);
+    }
+
+    final CompletableFuture<Void> tail = chain;
+    synchronized (this) {
+      this.entities.put(entity, tail);
+    }
+    tail.whenComplete((ignored, ex) -> {
+      synchronized (this) {
+        this.entities.remove(entity, tail);
+      }
+    });
+    return behind == null || behind.isDone()
+        ? tail.applyToEither(retrying, ignored -> null)
+        : CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * @param retrying completed when the command is scheduled for a retry.
+   * @return a future completing once the command was delivered, dead-lettered or left pending for the next start.
+   */
+  private CompletableFuture<Void> deliver(final SyncCommand command, final CompletableFuture<Void> retrying) {
+    final int attempt = command.nextAttempt();
+    try {
+      this.listenerMetrics.attribute(command.getHandler(), () -> this.syncUserSession.run(command.getTenant(),
+          () -> this.listenerMetrics.time(ListenerMetrics.Phase.SYNC,
+              () -> command.getOperation().apply(ServiceRunner.getSyncManager().api(), command.getArgument()))));
+      command.delivered();
+      this.outstanding.remove(command);
+      return CompletableFuture.completedFuture(null);
+    } catch (final RuntimeException ex) {
+      if (this.stopping) {
+        this.logger.warn("Could not sync {} while stopping, leaving it pending: {}", command, ex.getMessage());
+        this.abandon(command);
+        return CompletableFuture.completedFuture(null);
+      }
+      if (attempt >= this.maxAttempts) {
+        command.deadLettered();
+        this.outstanding.remove(command);
+        return CompletableFuture.completedFuture(null);
+      }
+
+      final long backoff = Math.min(this.maxBackoff, this.initialBackoff << Math.min(attempt - 1, 30));
+      this.logger.info("Could not sync {} (attempt {}), retrying in {} ms: {}", command, attempt, backoff, ex.getMessage());
+      final CompletableFuture<Void> retried = new CompletableFuture<>();
+      try {
+        this.timer.schedule(() -> this.pipeline.execute(() -> this.deliver(command, retrying)
+                .whenComplete((ignored, failure) -> retried.complete(null))),
+            backoff, TimeUnit.MILLISECONDS);
+      } catch (final RejectedExecutionException rejected) {
+        this.logger.warn("Could not sync {} while stopping, leaving it pending: {}", command, ex.getMessage());
+        this.abandon(command);
+        return CompletableFuture.completedFuture(null);
+      }
+      retrying.complete(null);
+      return retried;
+    }
+  }
+
+  private void abandon(final SyncCommand command) {
+    command.abandoned();
+    this.outstanding.remove(command);
+  }
+
+  private static Thread daemon(final Runnable runnable, final String name) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static class Batch {
+    private final long createdAt = System.currentTimeMillis();
+    private final Map<String, List<SyncCommand>> calls = new LinkedHashMap<>();
+    private int size;
+
+    private void add(final SyncCommand command) {
+      this.calls.computeIfAbsent(command.getIdentifier(), x -> new ArrayList<>()).add(command);
+      this.size++;
+    }
+  }
+
+  private static class EntityKey {
+    private final BatchKey batchKey;
+    private final String identifier;
+
+    private EntityKey(final BatchKey batchKey, final String identifier) {
+      this.batchKey = batchKey;
+      this.identifier = identifier;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final EntityKey entityKey = (EntityKey) o;
+      return Objects.equals(batchKey, entityKey.batchKey) &&
+          Objects.equals(identifier, entityKey.identifier);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(batchKey, identifier);
+    }
+  }
+
+  private static class BatchKey {
+    private final String tenant;
+    private final String entityType;
+
+    private BatchKey(final String tenant, final String entityType) {
+      this.tenant = tenant;
+      this.entityType = entityType;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      final BatchKey batchKey = (BatchKey) o;
+      return Objects.equals(tenant, batchKey.tenant) &&
+          Objects.equals(entityType, batchKey.entityType);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tenant, entityType);
+    }
+  }
+}
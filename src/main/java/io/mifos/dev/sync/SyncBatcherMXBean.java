@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.sync;
+
+import io.mifos.dev.metrics.HistogramSnapshot;
+
+/**
+ * JMX view of the batches of calls to the sync manager. Batch sizes are in calls, flush latencies in milliseconds from
+ * the first call of a batch until all of its calls have been delivered.
+ */
+public interface SyncBatcherMXBean {
+
+  HistogramSnapshot getBatchSize();
+
+  HistogramSnapshot getFlushLatency();
+
+  /**
+   * Calls collected in batches which have not been flushed yet.
+   */
+  int getPending();
+
+  void reset();
+}
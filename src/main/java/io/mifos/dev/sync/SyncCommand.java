@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.sync;
+
+import io.mifos.dev.metrics.HandlerMetrics;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * One call to the sync manager on its way through the outbox and the batcher. A call ends exactly once: delivered,
+ * dead-lettered, or abandoned when the batcher stops before it could be delivered.
+ */
+class SyncCommand {
+
+  private final long position;
+  private final String tenant;
+  private final SyncOperation operation;
+  private final String identifier;
+  private final Object argument;
+  private final HandlerMetrics handler;
+  private final Consumer<SyncCommand> onDelivered;
+  private final Consumer<SyncCommand> onDeadLettered;
+  private final Consumer<SyncCommand> onAbandoned;
+  private final AtomicBoolean ended = new AtomicBoolean();
+  private int attempts;
+
+  SyncCommand(final long position,
+              final String tenant,
+              final SyncOperation operation,
+              final String identifier,
+              final Object argument,
+              final HandlerMetrics handler,
+              final Consumer<SyncCommand> onDelivered,
+              final Consumer<SyncCommand> onDeadLettered,
+              final Consumer<SyncCommand> onAbandoned) {
+    super();
+    this.position = position;
+    this.tenant = tenant;
+    this.operation = operation;
+    this.identifier = identifier;
+    this.argument = argument;
+    this.handler = handler;
+    this.onDelivered = onDelivered;
+    this.onDeadLettered = onDeadLettered;
+    this.onAbandoned = onAbandoned;
+  }
+
+  long getPosition() {
+    return position;
+  }
+
+  String getTenant() {
+    return tenant;
+  }
+
+  SyncOperation getOperation() {
+    return operation;
+  }
+
+  String getIdentifier() {
+    return identifier;
+  }
+
+  Object getArgument() {
+    return argument;
+  }
+
+  /**
+   * @return the handler which made the call, null for a call replayed from the outbox.
+   */
+  HandlerMetrics getHandler() {
+    return handler;
+  }
+
+  int getAttempts() {
+    return attempts;
+  }
+
+  int nextAttempt() {
+    return ++this.attempts;
+  }
+
+  void delivered() {
+    if (this.ended.compareAndSet(false, true)) {
+      this.onDelivered.accept(this);
+    }
+  }
+
+  void deadLettered() {
+    if (this.ended.compareAndSet(false, true)) {
+      this.onDeadLettered.accept(this);
+    }
+  }
+
+  /**
+   * Gives up on the call for this run without settling it, so that it is replayed on the next start.
+   */
+  void abandoned() {
+    if (this.ended.compareAndSet(false, true)) {
+      this.onAbandoned.accept(this);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return operation + " '" + identifier + "' of tenant '" + tenant + "'";
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Append-only journal of outbox records, kept in memory-mapped segment files of a fixed size.
+ *
+ * Each record is an int length, a state byte and the UTF-8 record text. The state starts out pending and is
+ * overwritten in place once the record has been delivered or dead-lettered. A zero length marks the unused rest of a
+ * segment. A new segment is started whenever the current one is full and on every open; a segment is deleted as soon
+ * as none of its records is pending any more.
+ *
+ * A record is addressed by its position: the segment number in the upper and the offset in the lower 32 bits.
+ */
+class SyncJournal implements Closeable {
+
+  static final byte PENDING = 0;
+  static final byte DELIVERED = 1;
+  static final byte DEAD = 2;
+
+  private static final String SEGMENT_PREFIX = "sync-outbox-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final int HEADER = Integer.BYTES + Byte.BYTES;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final boolean force;
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private final List<Record> recovered = new ArrayList<>();
+  private Segment current;
+
+  SyncJournal(final Path directory, final int segmentSize, final boolean force) throws IOException {
+    super();
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.force = force;
+    Files.createDirectories(directory);
+    this.recover();
+    this.current = this.openSegment(this.segments.isEmpty() ? 0 : this.segments.lastKey() + 1);
+  }
+
+  /**
+   * @return the records which were still pending when the journal was opened, oldest first.
+   */
+  synchronized List<Record> recovered() {
+    return new ArrayList<>(this.recovered);
+  }
+
+  synchronized long append(final String text) throws IOException {
+    final byte[] record = text.getBytes(StandardCharsets.UTF_8);
+    if (HEADER + record.length + Integer.BYTES > this.segmentSize) {
+      throw new IOException("Outbox record of " + record.length + " bytes does not fit into a segment.");
+    }
+    if (this.current.buffer.remaining() < HEADER + record.length + Integer.BYTES) {
+      this.current.full = true;
+      this.deleteIfSettled(this.current);
+      this.current = this.openSegment(this.current.number + 1);
+    }
+    final int offset = this.current.buffer.position();
+    this.current.buffer.putInt(record.length);
+    this.current.buffer.put(PENDING);
+    this.current.buffer.put(record);
+    this.current.pending++;
+    if (this.force) {
+      this.current.buffer.force();
+    }
+    return ((long) this.current.number << 32) | offset;
+  }
+
+  synchronized void settle(final long position, final byte state) throws IOException {
+    final Segment segment = this.segments.get((int) (position >>> 32));
+    if (segment == null) {
+      return;
+    }
+    final int offset = (int) position;
+    if (segment.buffer.get(offset + Integer.BYTES) != PENDING) {
+      return;
+    }
+    segment.buffer.put(offset + Integer.BYTES, state);
+    segment.pending--;
+    if (this.force) {
+      segment.buffer.force();
+    }
+    this.deleteIfSettled(segment);
+  }
+
+  synchronized int pending() {
+    return this.segments.values().stream().mapToInt(segment -> segment.pending).sum();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (final Segment segment : this.segments.values()) {
+      segment.buffer.force();
+      segment.channel.close();
+    }
+    this.segments.clear();
+  }
+
+  private void recover() throws IOException {
+    final TreeMap<Integer, Path> files = new TreeMap<>();
+    try (final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (final Path file : stream) {
+        final String name = file.getFileName().toString();
+        files.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+      }
+    }
+
+    for (final Integer number : files.keySet()) {
+      final Segment segment = this.openSegment(number);
+      final ByteBuffer reader = segment.buffer.duplicate();
+      while (reader.remaining() >= HEADER) {
+        final int offset = reader.position();
+        final int length = reader.getInt();
+        if (length <= 0 || length > reader.remaining() - Byte.BYTES) {
+          break;
+        }
+        final byte state = reader.get();
+        final byte[] record = new byte[length];
+        reader.get(record);
+        if (state == PENDING) {
+          segment.pending++;
+          this.recovered.add(new Record(((long) number << 32) | offset, new String(record, StandardCharsets.UTF_8)));
+        }
+      }
+      segment.full = true;
+      this.deleteIfSettled(segment);
+    }
+  }
+
+  private Segment openSegment(final int number) throws IOException {
+    final Path file = this.directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    final Segment segment = new Segment(number, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize));
+    this.segments.put(number, segment);
+    return segment;
+  }
+
+  private void deleteIfSettled(final Segment segment) throws IOException {
+    if (segment.full && segment.pending == 0) {
+      this.segments.remove(segment.number);
+      segment.channel.close();
+      Files.deleteIfExists(segment.file);
+    }
+  }
+
+  static class Record {
+    private final long position;
+    private final String text;
+
+    private Record(final long position, final String text) {
+      this.position = position;
+      this.text = text;
+    }
+
+    long getPosition() {
+      return position;
+    }
+
+    String getText() {
+      return text;
+    }
+  }
+
+  private static class Segment {
+    private final int number;
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int pending;
+    private boolean full;
+
+    private Segment(final int number, final Path file, final FileChannel channel, final MappedByteBuffer buffer) {
+      this.number = number;
+      this.file = file;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+  }
+}
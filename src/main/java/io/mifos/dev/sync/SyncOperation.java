@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.sync;
+
+import io.mifos.identity.api.v1.domain.PermittableGroup;
+import io.mifos.identity.api.v1.domain.User;
+import io.mifos.office.api.v1.domain.Employee;
+import io.mifos.office.api.v1.domain.Office;
+import io.mifos.sync.api.v1.client.SyncManager;
+
+/**
+ * The calls the listeners make to the sync manager, together with the type of their argument so that they can be
+ * written to the outbox and read back.
+ */
+public enum SyncOperation {
+  CREATE_EMPLOYEE("employee", Employee.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.createEmployee((Employee) argument);
+    }
+  },
+  UPDATE_EMPLOYEE("employee", Employee.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.updateEmployee((Employee) argument);
+    }
+  },
+  DELETE_EMPLOYEE("employee", String.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.deleteEmployee((String) argument);
+    }
+  },
+  CREATE_OFFICE("office", Office.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.createOffice((Office) argument);
+    }
+  },
+  UPDATE_OFFICE("office", Office.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.updateOffice((Office) argument);
+    }
+  },
+  DELETE_OFFICE("office", String.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.deleteOffice((String) argument);
+    }
+  },
+  CREATE_USER("user", User.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.createUser((User) argument);
+    }
+  },
+  UPDATE_USER("user", User.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.updateUser((User) argument);
+    }
+  },
+  CREATE_PERMITTABLE_GROUP("permittable group", PermittableGroup.class) {
+    @Override
+    void apply(final SyncManager syncManager, final Object argument) {
+      syncManager.createPermittableGroup((PermittableGroup) argument);
+    }
+  };
+
+  private final String entityType;
+  private final Class<?> argumentType;
+
+  SyncOperation(final String entityType, final Class<?> argumentType) {
+    this.entityType = entityType;
+    this.argumentType = argumentType;
+  }
+
+  public String getEntityType() {
+    return entityType;
+  }
+
+  public Class<?> getArgumentType() {
+    return argumentType;
+  }
+
+  abstract void apply(final SyncManager syncManager, final Object argument);
+}
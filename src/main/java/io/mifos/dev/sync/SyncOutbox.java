@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.sync;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.mifos.dev.metrics.ListenerMetrics;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Entry point for the calls the listeners make to the sync manager. A call is appended to the journal before it is
+ * handed to the {@link SyncBatcher}, so the listener thread returns as soon as the call is recorded, and a call which
+ * was not delivered before the demo server stopped is resubmitted when the outbox is opened on the next start, ahead of
+ * any new call.
+ *
+ * The batcher retries a failing call with exponential backoff. Once it gives up, the call is settled as dead in the
+ * journal and appended to the dead letter file next to the journal segments.
+ *
+ * The journal lives in the sync-outbox directory of the working directory unless demoserver.sync.outbox names
+ * another. With demoserver.sync.outbox set empty the journal is skipped, calls are only retried in memory and those
+ * not delivered when the demo server stops are lost.
+ */
+@Component
+public class SyncOutbox {
+
+  private static final char SEPARATOR = '\t';
+  private static final long NOT_JOURNALED = -1L;
+
+  private final Logger logger;
+  private final ListenerMetrics listenerMetrics;
+  private final SyncBatcher syncBatcher;
+  private final SyncJournal journal;
+  private final Path deadLetters;
+  private final Gson gson = new Gson();
+  private final AtomicLong delivered = new AtomicLong();
+  private final AtomicLong deadLettered = new AtomicLong();
+
+  @Autowired
+  public SyncOutbox(@Qualifier("test-logger") final Logger logger,
+                    final ListenerMetrics listenerMetrics,
+                    final SyncBatcher syncBatcher,
+                    @Value("${demoserver.sync.outbox:sync-outbox}") final String directory,
+                    @Value("${demoserver.sync.outbox.segmentSize:8388608}") final int segmentSize,
+                    @Value("${demoserver.sync.outbox.force:false}") final boolean force) throws IOException {
+    super();
+    this.logger = logger;
+    this.listenerMetrics = listenerMetrics;
+    this.syncBatcher = syncBatcher;
+    if (directory.isEmpty()) {
+      this.journal = null;
+      this.deadLetters = null;
+    } else {
+      this.journal = new SyncJournal(Paths.get(directory), segmentSize, force);
+      this.deadLetters = Paths.get(directory, "dead-letters.log");
+      this.replay();
+    }
+  }
+
+  /**
+   * Journals the call and hands it to the batcher. The call is timed as the sync phase of the handler on the calling
+   * thread once the batcher delivers it.
+   */
+  public void append(final String tenant, final SyncOperation operation, final String identifier, final Object argument) {
+    long position = NOT_JOURNALED;
+    if (this.journal != null) {
+      try {
+        position = this.journal.append(tenant + SEPARATOR + operation.name() + SEPARATOR + identifier + SEPARATOR
+            + this.gson.toJson(argument));
+      } catch (final IOException ex) {
+        this.logger.warn("Could not journal {} '{}' of tenant '{}', syncing it without: {}", operation, identifier, tenant, ex.getMessage());
+      }
+    }
+    final Runnable release = this.listenerMetrics.hold();
+    this.syncBatcher.submit(new SyncCommand(position, tenant, operation, identifier, argument,
+        this.listenerMetrics.currentHandler(),
+        command -> {
+          this.delivered(command);
+          release.run();
+        },
+        command -> {
+          this.deadLettered(command);
+          release.run();
+        },
+        command -> release.run()));
+  }
+
+  /**
+   * Resubmits the calls which were still pending when the journal was opened. The batcher holds them until it is
+   * opened.
+   */
+  private void replay() {
+    int replayed = 0;
+    for (final SyncJournal.Record record : this.journal.recovered()) {
+      final String[] fields = record.getText().split(String.valueOf(SEPARATOR), 4);
+      try {
+        final SyncOperation operation = SyncOperation.valueOf(fields[1]);
+        final Object argument = this.gson.fromJson(fields[3], operation.getArgumentType());
+        this.syncBatcher.submit(new SyncCommand(record.getPosition(), fields[0], operation, fields[2], argument, null,
+            this::delivered, this::deadLettered, command -> { }));
+        replayed++;
+      } catch (final IllegalArgumentException | ArrayIndexOutOfBoundsException | JsonParseException ex) {
+        this.logger.warn("Could not read outbox record '{}': {}", record.getText(), ex.getMessage());
+        this.settle(record.getPosition(), SyncJournal.DEAD);
+      }
+    }
+    if (replayed > 0) {
+      this.logger.info("Replaying {} sync calls left in the outbox.", replayed);
+    }
+  }
+
+  public long getDelivered() {
+    return this.delivered.get();
+  }
+
+  public long getDeadLettered() {
+    return this.deadLettered.get();
+  }
+
+  public int getPending() {
+    return this.journal == null ? 0 : this.journal.pending();
+  }
+
+  /**
+   * Closes the journal. The outbox is destroyed before the batcher it depends on, so it has the batcher stop first, or
+   * the calls the batcher still delivers could not be settled in the journal.
+   */
+  @PreDestroy
+  public void close() throws IOException {
+    this.syncBatcher.shutdown();
+    if (this.journal != null) {
+      this.journal.close();
+    }
+    this.logger.info("Sync outbox: {} delivered, {} dead-lettered.", this.delivered.get(), this.deadLettered.get());
+  }
+
+  private void delivered(final SyncCommand command) {
+    this.delivered.incrementAndGet();
+    this.settle(command.getPosition(), SyncJournal.DELIVERED);
+  }
+
+  private void deadLettered(final SyncCommand command) {
+    this.deadLettered.incrementAndGet();
+    this.logger.warn("Gave up syncing {} after {} attempts.", command, command.getAttempts());
+    this.settle(command.getPosition(), SyncJournal.DEAD);
+    if (this.deadLetters != null) {
+      final String line = System.currentTimeMillis() + String.valueOf(SEPARATOR) + command.getTenant() + SEPARATOR
+          + command.getOperation().name() + SEPARATOR + command.getIdentifier() + SEPARATOR
+          + this.gson.toJson(command.getArgument()) + System.lineSeparator();
+      try {
+        synchronized (this) {
+          Files.write(this.deadLetters, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+      } catch (final IOException ex) {
+        this.logger.warn("Could not write dead letter for {}: {}", command, ex.getMessage());
+      }
+    }
+  }
+
+  private void settle(final long position, final byte state) {
+    if (this.journal == null || position == NOT_JOURNALED) {
+      return;
+    }
+    try {
+      this.journal.settle(position, state);
+    } catch (final IOException ex) {
+      this.logger.warn("Could not settle outbox record at {}: {}", position, ex.getMessage());
+    }
+  }
+}
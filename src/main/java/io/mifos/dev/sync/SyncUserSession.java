@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.sync;
+
+import io.mifos.core.api.context.AutoGuest;
+import io.mifos.core.api.context.AutoUserContext;
+import io.mifos.core.api.util.InvalidTokenException;
+import io.mifos.core.lang.AutoTenantContext;
+import io.mifos.dev.ServiceRunner;
+import io.mifos.dev.metrics.ListenerMetrics;
+import io.mifos.identity.api.v1.domain.Authentication;
+import io.mifos.identity.api.v1.domain.UserWithPassword;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Runs calls as the sync user of a tenant, sharing one access token per tenant between all listeners.
+ *
+ * A token is renewed in the background once it gets within the refresh-ahead margin of its expiration, while callers
+ * keep using it until it expires. Callers only wait for a login if there is no token yet or it has expired, and then
+ * concurrent callers wait for the same login instead of each logging in. A call rejected with an invalid token is
+ * retried once with a freshly obtained token.
+ */
+@Component
+public class SyncUserSession {
+
+  private static final long DEFAULT_TOKEN_LIFETIME = 5 * 60_000L;
+
+  private final Logger logger;
+  private final ListenerMetrics listenerMetrics;
+  private final long refreshAheadMillis;
+  private final ConcurrentMap<String, CompletableFuture<AccessToken>> tokens = new ConcurrentHashMap<>();
+  private final Set<String> renewing = ConcurrentHashMap.newKeySet();
+  private final ExecutorService renewer = Executors.newCachedThreadPool(runnable -> {
+    final Thread thread = new Thread(runnable, "sync-token-renewal");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  @Autowired
+  public SyncUserSession(@Qualifier("test-logger") final Logger logger,
+                         final ListenerMetrics listenerMetrics,
+                         @Value("${demoserver.sync.tokenRefreshAhead:30000}") final long refreshAheadMillis) {
+    super();
+    this.logger = logger;
+    this.listenerMetrics = listenerMetrics;
+    this.refreshAheadMillis = refreshAheadMillis;
+  }
+
+  public void run(final String tenant, final Runnable action) {
+    this.call(tenant, () -> {
+      action.run();
+      return null;
+    });
+  }
+
+  public <T> T call(final String tenant, final Supplier<T> action) {
+    try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
+      final AccessToken token = this.token(tenant);
+      try {
+        return this.callAs(token, action);
+      } catch (final InvalidTokenException ex) {
+        this.logger.info("Access token of the sync user for tenant '{}' was rejected, logging in again.", tenant);
+        this.invalidate(tenant, token);
+        return this.callAs(this.token(tenant), action);
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    this.tokens.clear();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    this.renewer.shutdownNow();
+  }
+
+  private <T> T callAs(final AccessToken token, final Supplier<T> action) {
+    try (final AutoUserContext ignored = new AutoUserContext(token.user, token.value)) {
+      return action.get();
+    }
+  }
+
+  private AccessToken token(final String tenant) {
+    return this.listenerMetrics.time(ListenerMetrics.Phase.LOGIN, () -> this.acquire(tenant));
+  }
+
+  private AccessToken acquire(final String tenant) {
+    final long now = System.currentTimeMillis();
+    final CompletableFuture<AccessToken> current = this.tokens.get(tenant);
+    if (current != null) {
+      if (!current.isDone()) {
+        return join(current);
+      }
+      if (!current.isCompletedExceptionally()) {
+        final AccessToken token = current.join();
+        if (token.isFreshAt(now, this.refreshAheadMillis)) {
+          return token;
+        }
+        if (token.isValidAt(now)) {
+          this.renew(tenant, current);
+          return token;
+        }
+      }
+    }
+    return join(this.refresh(tenant, current));
+  }
+
+  /**
+   * Logs in again in the background, unless a renewal for the tenant is already running, and replaces the token once
+   * the login succeeds. The token is left as is if the login fails, the next caller within the margin tries again.
+   */
+  private void renew(final String tenant, final CompletableFuture<AccessToken> current) {
+    if (!this.renewing.add(tenant)) {
+      return;
+    }
+    try {
+      this.renewer.execute(() -> {
+        try (final AutoTenantContext ignored = new AutoTenantContext(tenant)) {
+          this.tokens.replace(tenant, current, CompletableFuture.completedFuture(this.login()));
+        } catch (final RuntimeException ex) {
+          this.logger.warn("Could not renew the access token of the sync user for tenant '{}': {}", tenant, ex.getMessage());
+        } finally {
+          this.renewing.remove(tenant);
+        }
+      });
+    } catch (final RejectedExecutionException ex) {
+      this.renewing.remove(tenant);
+    }
+  }
+
+  private void invalidate(final String tenant, final AccessToken token) {
+    final CompletableFuture<AccessToken> current = this.tokens.get(tenant);
+    if (current != null && current.isDone() && !current.isCompletedExceptionally() && current.join() == token) {
+      this.tokens.remove(tenant, current);
+    }
+  }
+
+  /**
+   * Replaces the expected token with a new login, unless another caller got there first, in which case that caller's
+   * login is shared.
+   */
+  private CompletableFuture<AccessToken> refresh(final String tenant, final CompletableFuture<AccessToken> expected) {
+    final CompletableFuture<AccessToken> login = new CompletableFuture<>();
+    final boolean replaced = expected == null
+        ? this.tokens.putIfAbsent(tenant, login) == null
+        : this.tokens.replace(tenant, expected, login);
+    if (!replaced) {
+      final CompletableFuture<AccessToken> other = this.tokens.get(tenant);
+      return other != null ? other : this.refresh(tenant, null);
+    }
+
+    try {
+      login.complete(this.login());
+    } catch (final RuntimeException ex) {
+      this.tokens.remove(tenant, login);
+      login.completeExceptionally(ex);
+    }
+    return login;
+  }
+
+  private AccessToken login() {
+    final UserWithPassword syncUser = ServiceRunner.getSyncUser();
+    if (syncUser == null) {
+      throw new IllegalStateException("The sync user has not been provisioned.");
+    }
+
+    final Authentication authentication;
+    try (final AutoGuest ignored = new AutoGuest()) {
+      authentication = ServiceRunner.getIdentityManager().api().login(syncUser.getIdentifier(), syncUser.getPassword());
+    }
+    return new AccessToken(syncUser.getIdentifier(), authentication.getAccessToken(),
+        expiration(authentication.getAccessTokenExpiration()));
+  }
+
+  private static long expiration(final String accessTokenExpiration) {
+    if (accessTokenExpiration != null) {
+      try {
+        return Instant.parse(accessTokenExpiration).toEpochMilli();
+      } catch (final DateTimeParseException ignored) {
+        try {
+          return LocalDateTime.parse(accessTokenExpiration.replace("Z", "")).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (final DateTimeParseException ignoredToo) {
+          //fall through to the default lifetime
+        }
+      }
+    }
+    return System.currentTimeMillis() + DEFAULT_TOKEN_LIFETIME;
+  }
+
+  private static AccessToken join(final CompletableFuture<AccessToken> token) {
+    try {
+      return token.join();
+    } catch (final CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private static class AccessToken {
+    private final String user;
+    private final String value;
+    private final long expiresAt;
+
+    private AccessToken(final String user, final String value, final long expiresAt) {
+      this.user = user;
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isFreshAt(final long now, final long refreshAheadMillis) {
+      return now < this.expiresAt - refreshAheadMillis;
+    }
+
+    private boolean isValidAt(final long now) {
+      return now < this.expiresAt;
+    }
+  }
+}
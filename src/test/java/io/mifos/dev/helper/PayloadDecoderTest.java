@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 The Mifos Initiative.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.mifos.dev.helper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadDecoderTest {
+
+  @Test
+  public void identifierStripsQuotes() {
+    Assert.assertEquals("customer-1", PayloadDecoder.identifier("\"customer-1\""));
+  }
+
+  @Test
+  public void identifierKeepsUnquotedPayload() {
+    Assert.assertEquals("customer-1", PayloadDecoder.identifier("customer-1"));
+    Assert.assertEquals("", PayloadDecoder.identifier(""));
+    Assert.assertEquals("", PayloadDecoder.identifier("\""));
+  }
+
+  @Test
+  public void stringReadsQuotedPayload() {
+    Assert.assertEquals("customer-1", PayloadDecoder.string("\"customer-1\""));
+    Assert.assertEquals("", PayloadDecoder.string("\"\""));
+  }
+
+  @Test
+  public void stringRejectsOtherPayloads() {
+    Assert.assertNull(PayloadDecoder.string("customer-1"));
+    Assert.assertNull(PayloadDecoder.string("\"customer-1"));
+    Assert.assertNull(PayloadDecoder.string("\"a\"b\""));
+    Assert.assertNull(PayloadDecoder.string("{\"identifier\":\"customer-1\"}"));
+    Assert.assertNull(PayloadDecoder.string("42"));
+  }
+
+  @Test
+  public void stringUnescapesValue() {
+    Assert.assertEquals("say \"hi\"", PayloadDecoder.string("\"say \\\"hi\\\"\""));
+    Assert.assertEquals("a\\b/c", PayloadDecoder.string("\"a\\\\b\\/c\""));
+    Assert.assertEquals("line\nnext\ttab", PayloadDecoder.string("\"line\\nnext\\ttab\""));
+    Assert.assertEquals("\u00e9t\u00e9", PayloadDecoder.string("\"\\u00e9t\\u00E9\""));
+  }
+
+  @Test
+  public void stringKeepsMalformedUnicodeEscape() {
+    Assert.assertEquals("u00g1", PayloadDecoder.string("\"\\u00g1\""));
+    Assert.assertEquals("u12", PayloadDecoder.string("\"\\u12\""));
+  }
+
+  @Test
+  public void fieldReadsStringValue() {
+    final String payload = "{\"tenant\": \"t1\", \"identifier\" : \"customer-1\"}";
+    Assert.assertEquals("t1", PayloadDecoder.field(payload, "tenant"));
+    Assert.assertEquals("customer-1", PayloadDecoder.field(payload, "identifier"));
+  }
+
+  @Test
+  public void fieldReadsUnquotedValueAsText() {
+    final String payload = "{\"count\":42,\"enabled\":true}";
+    Assert.assertEquals("42", PayloadDecoder.field(payload, "count"));
+    Assert.assertEquals("true", PayloadDecoder.field(payload, "enabled"));
+  }
+
+  @Test
+  public void fieldUnescapesValue() {
+    Assert.assertEquals("a \"quoted\" name", PayloadDecoder.field("{\"name\":\"a \\\"quoted\\\" name\"}", "name"));
+    Assert.assertEquals("\u00fc", PayloadDecoder.field("{\"name\":\"\\u00fc\"}", "name"));
+  }
+
+  @Test
+  public void fieldSkipsNestedValues() {
+    final String payload = "{\"address\":{\"street\":\"Main\",\"identifier\":\"inner\"},"
+        + "\"tags\":[\"a\",{\"b\":[1,2]}],\"identifier\":\"outer\"}";
+    Assert.assertEquals("outer", PayloadDecoder.field(payload, "identifier"));
+    Assert.assertNull(PayloadDecoder.field(payload, "street"));
+  }
+
+  @Test
+  public void fieldReadsNestedValueAsText() {
+    final String payload = "{\"address\":{\"street\":\"Main\"},\"tags\":[1,2]}";
+    Assert.assertEquals("{\"street\":\"Main\"}", PayloadDecoder.field(payload, "address"));
+    Assert.assertEquals("[1,2]", PayloadDecoder.field(payload, "tags"));
+  }
+
+  @Test
+  public void fieldSkipsStringsContainingStructure() {
+    final String payload = "{\"note\":\"a } or , \\\" in text\",\"identifier\":\"customer-1\"}";
+    Assert.assertEquals("customer-1", PayloadDecoder.field(payload, "identifier"));
+  }
+
+  @Test
+  public void fieldReturnsNullForMissingOrNullField() {
+    Assert.assertNull(PayloadDecoder.field("{\"identifier\":\"customer-1\"}", "tenant"));
+    Assert.assertNull(PayloadDecoder.field("{\"identifier\":null}", "identifier"));
+    Assert.assertNull(PayloadDecoder.field("{}", "identifier"));
+  }
+
+  @Test
+  public void fieldReturnsNullForOtherPayloads() {
+    Assert.assertNull(PayloadDecoder.field("\"customer-1\"", "identifier"));
+    Assert.assertNull(PayloadDecoder.field("", "identifier"));
+    Assert.assertNull(PayloadDecoder.field("{\"identifier\":\"customer-1", "identifier"));
+    Assert.assertNull(PayloadDecoder.field("{\"tags\":[1,2", "identifier"));
+  }
+}